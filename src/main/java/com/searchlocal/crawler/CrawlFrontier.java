@@ -0,0 +1,284 @@
+package com.searchlocal.crawler;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+/**
+ * Очередь обхода на диске. Каждый найденный URL один раз дописывается в файл своего
+ * уровня глубины, а выдаются URL с наименьшей глубиной, то есть ближайшие к началу обхода.
+ * В памяти хранятся только 64-битные отпечатки уже встреченных URL и буферы файлов.
+ * Файлы служат журналом всех найденных URL: при повторном открытии каталога журнал
+ * перечитывается, и прерванный обход продолжается без уже обработанных страниц.
+ * Буферы записи сбрасываются в файлы вызовом {@link #flush()} после каждой пачки URL;
+ * недописанная при аварийной остановке последняя строка отбрасывается при открытии.
+ * Методы синхронизированы.
+ */
+public class CrawlFrontier implements Closeable {
+    private static final String LEVEL_PREFIX = "depth-";
+    private static final String LEVEL_SUFFIX = ".urls";
+
+    private final Path directory;
+    private final Predicate<String> done;
+    private final FingerprintSet seen = new FingerprintSet();
+    private final TreeMap<Integer, Level> levels = new TreeMap<>();
+    private int size;
+    private boolean resumed;
+
+    /**
+     * URL из очереди и его глубина
+     */
+    public static class Entry {
+        private final String url;
+        private final int depth;
+
+        Entry(String url, int depth) {
+            this.url = url;
+            this.depth = depth;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public int getDepth() {
+            return depth;
+        }
+    }
+
+    private CrawlFrontier(Path directory, Predicate<String> done) {
+        this.directory = directory;
+        this.done = done;
+    }
+
+    /**
+     * Открывает очередь в каталоге; если в нем остался журнал прерванного обхода,
+     * восстанавливает множество встреченных URL и очередь из журнала
+     *
+     * @param done URL, страницы которых уже обработаны и не должны выдаваться повторно
+     */
+    public static CrawlFrontier open(Path directory, Predicate<String> done) throws IOException {
+        Files.createDirectories(directory);
+        CrawlFrontier frontier = new CrawlFrontier(directory, done);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, LEVEL_PREFIX + "*" + LEVEL_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int depth = Integer.parseInt(name.substring(LEVEL_PREFIX.length(), name.length() - LEVEL_SUFFIX.length()));
+            Level level = frontier.level(depth);
+            truncatePartialLine(file);
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String url;
+                while ((url = reader.readLine()) != null) {
+                    level.written++;
+                    if (frontier.seen.add(url) && !done.test(url)) {
+                        frontier.size++;
+                    }
+                }
+            }
+            frontier.resumed = true;
+        }
+        return frontier;
+    }
+
+    /**
+     * true, если очередь восстановлена из журнала прерванного обхода
+     */
+    public synchronized boolean isResumed() {
+        return resumed;
+    }
+
+    /**
+     * Добавляет URL, если он еще не встречался и не обработан
+     *
+     * @return true, если URL поставлен в очередь
+     */
+    public synchronized boolean add(String url, int depth) throws IOException {
+        if (!seen.add(url) || done.test(url)) {
+            return false;
+        }
+        Level level = level(depth);
+        level.writer().write(url);
+        level.writer().newLine();
+        level.written++;
+        size++;
+        return true;
+    }
+
+    /**
+     * Сбрасывает буферы записи в файлы журнала: добавленные до вызова URL
+     * переживут остановку процесса
+     */
+    public synchronized void flush() throws IOException {
+        for (Level level : levels.values()) {
+            level.flush();
+        }
+    }
+
+    /**
+     * Возвращает URL с наименьшей глубиной или null, если очередь пуста
+     */
+    public synchronized Entry poll() throws IOException {
+        for (Level level : levels.values()) {
+            while (level.read < level.written) {
+                String url = level.readLine();
+                if (!done.test(url)) {
+                    size--;
+                    return new Entry(url, level.depth);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Количество URL, ожидающих загрузки
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Количество встреченных URL
+     */
+    public synchronized int seenCount() {
+        return seen.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Level level : levels.values()) {
+            level.close();
+        }
+    }
+
+    /**
+     * Закрывает очередь и удаляет журнал: обход завершен
+     */
+    public synchronized void delete() throws IOException {
+        close();
+        for (Level level : levels.values()) {
+            Files.deleteIfExists(level.file);
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Удаляет журнал обхода в каталоге, не открывая его
+     */
+    public static void discard(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, LEVEL_PREFIX + "*" + LEVEL_SUFFIX)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Обрезает файл после последнего перевода строки: строка без него
+     * осталась недописанной при остановке процесса
+     */
+    private static void truncatePartialLine(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4096);
+            long end = channel.size();
+            while (end > 0) {
+                long start = Math.max(0, end - buffer.capacity());
+                buffer.clear().limit((int) (end - start));
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, start + buffer.position()) < 0) {
+                        break;
+                    }
+                }
+                for (int i = buffer.position() - 1; i >= 0; i--) {
+                    if (buffer.get(i) == '\n') {
+                        end = start + i + 1;
+                        if (end < channel.size()) {
+                            channel.truncate(end);
+                        }
+                        return;
+                    }
+                }
+                end = start;
+            }
+            channel.truncate(0);
+        }
+    }
+
+    private Level level(int depth) {
+        return levels.computeIfAbsent(depth, d -> new Level(d, directory.resolve(LEVEL_PREFIX + d + LEVEL_SUFFIX)));
+    }
+
+    /**
+     * Файл одного уровня глубины: дописывается в конец и читается с начала
+     */
+    private static class Level {
+        private final int depth;
+        private final Path file;
+        private BufferedWriter writer;
+        private BufferedReader reader;
+        private long written;
+        private long read;
+
+        Level(int depth, Path file) {
+            this.depth = depth;
+            this.file = file;
+        }
+
+        BufferedWriter writer() throws IOException {
+            if (writer == null) {
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            return writer;
+        }
+
+        /**
+         * Читает следующую записанную строку; буфер записи сбрасывается,
+         * чтобы строка целиком оказалась в файле
+         */
+        String readLine() throws IOException {
+            flush();
+            if (reader == null) {
+                reader = Files.newBufferedReader(file, StandardCharsets.UTF_8);
+            }
+            read++;
+            return reader.readLine();
+        }
+
+        void flush() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+        }
+
+        void close() throws IOException {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+            if (reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+}
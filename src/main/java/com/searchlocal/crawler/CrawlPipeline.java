@@ -0,0 +1,303 @@
+package com.searchlocal.crawler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Конвейер обхода сайта из трех стадий с ограниченными очередями между ними:
+ * загрузка (потоки ввода-вывода берут URL из {@link CrawlFrontier}), разбор и лемматизация
+ * (по числу ядер) и пакетная запись в базу (один поток). Заполненная очередь блокирует
+ * предыдущую стадию, так что сеть, процессор и база работают одновременно.
+ *
+ * @param <F> результат загрузки страницы
+ * @param <P> разобранная страница, готовая к записи
+ */
+public class CrawlPipeline<F, P> {
+    private static final Logger logger = LoggerFactory.getLogger(CrawlPipeline.class);
+
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Обработчики стадий конвейера
+     */
+    public interface Stages<F, P> {
+        /**
+         * Загружает страницу; null - страницу пропустить
+         */
+        F fetch(String url) throws Exception;
+
+        /**
+         * Разбирает страницу и передает найденные ссылки; null - страницу пропустить
+         */
+        P parse(F fetched, Consumer<String> links) throws Exception;
+
+        /**
+         * Сохраняет пакет разобранных страниц
+         */
+        void persist(List<P> batch) throws Exception;
+    }
+
+    private final Stages<F, P> stages;
+    private final CrawlFrontier frontier;
+    private final int fetchThreads;
+    private final int parseThreads;
+    private final int batchSize;
+    private final AtomicBoolean stopFlag;
+
+    private final BlockingQueue<Fetched<F>> parseQueue;
+    private final BlockingQueue<P> persistQueue;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final CountDownLatch finished = new CountDownLatch(1);
+
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong parsed = new AtomicLong();
+    private final AtomicLong persisted = new AtomicLong();
+
+    public CrawlPipeline(Stages<F, P> stages, CrawlFrontier frontier, int fetchThreads, int parseThreads,
+                         int queueCapacity, int batchSize, AtomicBoolean stopFlag) {
+        this.stages = stages;
+        this.frontier = frontier;
+        this.fetchThreads = fetchThreads;
+        this.parseThreads = parseThreads;
+        this.batchSize = batchSize;
+        this.stopFlag = stopFlag;
+        this.parseQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.persistQueue = new ArrayBlockingQueue<>(queueCapacity);
+    }
+
+    /**
+     * Обходит сайт начиная с указанного URL и ждет завершения всех стадий.
+     * Если очередь восстановлена после прерванного обхода, продолжает с ее URL.
+     */
+    public void run(String startUrl) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(fetchThreads + parseThreads + 1);
+        try {
+            pending.addAndGet(frontier.size());
+            submit(startUrl, 0);
+            if (pending.get() == 0) {
+                // Обход остановлен до начала или все страницы уже обработаны
+                finished.countDown();
+            }
+
+            for (int i = 0; i < fetchThreads; i++) {
+                workers.execute(this::fetchLoop);
+            }
+            for (int i = 0; i < parseThreads; i++) {
+                workers.execute(this::parseLoop);
+            }
+            workers.execute(this::persistLoop);
+            finished.await();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Ставит URL в очередь загрузки, если он еще не встречался
+     */
+    public void submit(String url, int depth) {
+        if (stopFlag.get()) {
+            return;
+        }
+        // Счетчик увеличивается до записи в очередь, чтобы обход не завершился раньше времени
+        pending.incrementAndGet();
+        try {
+            if (frontier.add(url, depth)) {
+                return;
+            }
+        } catch (IOException e) {
+            logger.warn("Ошибка записи в очередь обхода {}: {}", url, e.getMessage());
+        }
+        done(1);
+    }
+
+    /**
+     * Сбрасывает в журнал ссылки, найденные на странице, до того как она будет записана в базу:
+     * после перезапуска обработанная страница не потеряет своих ссылок
+     */
+    private void checkpoint() {
+        try {
+            frontier.flush();
+        } catch (IOException e) {
+            logger.warn("Ошибка записи в очередь обхода: {}", e.getMessage());
+        }
+    }
+
+    public Metrics metrics() {
+        return new Metrics(frontier.size(), parseQueue.size(), persistQueue.size(),
+                fetched.get(), parsed.get(), persisted.get());
+    }
+
+    private void fetchLoop() {
+        try {
+            while (finished.getCount() > 0) {
+                CrawlFrontier.Entry entry = frontier.poll();
+                if (entry == null) {
+                    Thread.sleep(POLL_MILLIS);
+                    continue;
+                }
+                fetchTask(entry);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.error("Ошибка чтения очереди обхода: {}", e.getMessage(), e);
+            finished.countDown();
+        }
+    }
+
+    private void fetchTask(CrawlFrontier.Entry entry) throws InterruptedException {
+        if (stopFlag.get()) {
+            done(1);
+            return;
+        }
+        try {
+            F page = stages.fetch(entry.getUrl());
+            if (page == null) {
+                done(1);
+                return;
+            }
+            fetched.incrementAndGet();
+            parseQueue.put(new Fetched<>(page, entry.getDepth()));
+        } catch (InterruptedException e) {
+            done(1);
+            throw e;
+        } catch (Exception e) {
+            logger.warn("Ошибка при загрузке страницы {}: {}", entry.getUrl(), e.getMessage());
+            done(1);
+        }
+    }
+
+    private void parseLoop() {
+        try {
+            while (finished.getCount() > 0) {
+                Fetched<F> page = parseQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (page == null) {
+                    continue;
+                }
+                if (stopFlag.get()) {
+                    done(1);
+                    continue;
+                }
+                try {
+                    int linkDepth = page.depth + 1;
+                    P result = stages.parse(page.value, link -> submit(link, linkDepth));
+                    checkpoint();
+                    if (result == null) {
+                        done(1);
+                        continue;
+                    }
+                    parsed.incrementAndGet();
+                    persistQueue.put(result);
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    logger.warn("Ошибка при разборе страницы: {}", e.getMessage());
+                    done(1);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void persistLoop() {
+        List<P> batch = new ArrayList<>(batchSize);
+        try {
+            while (finished.getCount() > 0) {
+                P first = persistQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                persistQueue.drainTo(batch, batchSize - 1);
+                try {
+                    if (!stopFlag.get()) {
+                        stages.persist(batch);
+                        persisted.addAndGet(batch.size());
+                    }
+                } catch (Exception e) {
+                    logger.warn("Ошибка при сохранении {} страниц: {}", batch.size(), e.getMessage());
+                }
+                done(batch.size());
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void done(int pages) {
+        if (pending.addAndGet(-pages) == 0) {
+            finished.countDown();
+        }
+    }
+
+    /**
+     * Загруженная страница и ее глубина от начального URL
+     */
+    private static class Fetched<F> {
+        private final F value;
+        private final int depth;
+
+        Fetched(F value, int depth) {
+            this.value = value;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * Глубина очередей стадий и количество обработанных страниц
+     */
+    public static class Metrics {
+        private final int fetchQueue;
+        private final int parseQueue;
+        private final int persistQueue;
+        private final long fetched;
+        private final long parsed;
+        private final long persisted;
+
+        public Metrics(int fetchQueue, int parseQueue, int persistQueue,
+                       long fetched, long parsed, long persisted) {
+            this.fetchQueue = fetchQueue;
+            this.parseQueue = parseQueue;
+            this.persistQueue = persistQueue;
+            this.fetched = fetched;
+            this.parsed = parsed;
+            this.persisted = persisted;
+        }
+
+        public int getFetchQueue() {
+            return fetchQueue;
+        }
+
+        public int getParseQueue() {
+            return parseQueue;
+        }
+
+        public int getPersistQueue() {
+            return persistQueue;
+        }
+
+        public long getFetched() {
+            return fetched;
+        }
+
+        public long getParsed() {
+            return parsed;
+        }
+
+        public long getPersisted() {
+            return persisted;
+        }
+    }
+}
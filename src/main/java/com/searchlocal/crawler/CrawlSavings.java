@@ -0,0 +1,51 @@
+package com.searchlocal.crawler;
+
+/**
+ * Работа, которой обход избежал: загрузки, отброшенные нормализацией ссылок,
+ * страницы, не загруженные по дате изменения из карты сайта,
+ * и страницы-дубликаты, не записанные в базу и индекс. Ранее проиндексированные
+ * дубликаты не удаляются и считаются отдельно.
+ */
+public class CrawlSavings {
+    private final long skippedFetches;
+    private final long duplicatePages;
+    private final long keptDuplicates;
+    private final long skippedIndexRows;
+    private final long unchangedBySitemap;
+
+    /**
+     * @param skippedFetches различные ссылки сайта, которые без нормализации были бы загружены отдельно
+     * @param duplicatePages страницы, почти совпавшие по тексту с уже обойденными
+     * @param keptDuplicates ранее проиндексированные страницы, оказавшиеся дубликатами и оставленные в индексе
+     * @param skippedIndexRows оценка незаписанных строк индекса: различные слова страниц-дубликатов
+     * @param unchangedBySitemap страницы, не загруженные, потому что их lastmod в карте сайта не изменился
+     */
+    public CrawlSavings(long skippedFetches, long duplicatePages, long keptDuplicates, long skippedIndexRows,
+                        long unchangedBySitemap) {
+        this.skippedFetches = skippedFetches;
+        this.duplicatePages = duplicatePages;
+        this.keptDuplicates = keptDuplicates;
+        this.skippedIndexRows = skippedIndexRows;
+        this.unchangedBySitemap = unchangedBySitemap;
+    }
+
+    public long getSkippedFetches() {
+        return skippedFetches;
+    }
+
+    public long getDuplicatePages() {
+        return duplicatePages;
+    }
+
+    public long getKeptDuplicates() {
+        return keptDuplicates;
+    }
+
+    public long getSkippedIndexRows() {
+        return skippedIndexRows;
+    }
+
+    public long getUnchangedBySitemap() {
+        return unchangedBySitemap;
+    }
+}
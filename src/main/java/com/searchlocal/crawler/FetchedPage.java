@@ -0,0 +1,132 @@
+package com.searchlocal.crawler;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.parser.Parser;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpHeaders;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Загруженная страница: итоговый адрес после перенаправлений, код ответа, заголовки
+ * и распакованное тело. Тело разбирается прямо из байтов, без промежуточной строки.
+ * Тело ответов с типом содержимого, отличным от HTML и XML, не загружается (null),
+ * если страница загружена не как файл.
+ */
+public class FetchedPage {
+    private final String url;
+    private final int statusCode;
+    private final HttpHeaders headers;
+    private final byte[] body;
+
+    public FetchedPage(String url, int statusCode, HttpHeaders headers, byte[] body) {
+        this.url = url;
+        this.statusCode = statusCode;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /**
+     * Ответ "не изменилась" без обращения к серверу, например по дате изменения из карты сайта
+     */
+    public static FetchedPage notModified(String url) {
+        return new FetchedPage(url, 304, HttpHeaders.of(Collections.emptyMap(), (name, value) -> true), null);
+    }
+
+    public String url() {
+        return url;
+    }
+
+    public int statusCode() {
+        return statusCode;
+    }
+
+    /**
+     * true, если тело загружено и его можно разобрать как HTML
+     */
+    public boolean isHtml() {
+        return body != null;
+    }
+
+    /**
+     * true, если тело ответа загружено
+     */
+    public boolean hasBody() {
+        return body != null;
+    }
+
+    /**
+     * Первое значение заголовка или null
+     */
+    public String header(String name) {
+        return headers.firstValue(name).orElse(null);
+    }
+
+    /**
+     * Разбирает тело как HTML. Кодировка берется из Content-Type,
+     * а если ее там нет - определяется парсером по BOM и meta.
+     */
+    public Document parse() throws IOException {
+        return Jsoup.parse(new ByteArrayInputStream(body != null ? body : new byte[0]), charset(), url);
+    }
+
+    /**
+     * Разбирает тело как XML, например карту сайта. Тело, сжатое gzip без заголовка
+     * Content-Encoding (файл .xml.gz), распознается по сигнатуре и распаковывается.
+     */
+    public Document parseXml() throws IOException {
+        InputStream in = new ByteArrayInputStream(body != null ? body : new byte[0]);
+        if (body != null && body.length >= 2 && (body[0] & 0xff) == 0x1f && (body[1] & 0xff) == 0x8b) {
+            in = new GZIPInputStream(in);
+        }
+        try (InputStream xml = in) {
+            return Jsoup.parse(xml, charset(), url, Parser.xmlParser());
+        }
+    }
+
+    /**
+     * Тело как текст в кодировке из Content-Type, по умолчанию UTF-8
+     */
+    public String text() {
+        if (body == null) {
+            return "";
+        }
+        String charset = charset();
+        try {
+            return new String(body, charset != null ? Charset.forName(charset) : StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return new String(body, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Исходный HTML страницы в кодировке, с которой она была разобрана
+     */
+    public String html(Document doc) {
+        return body != null ? new String(body, doc.charset()) : "";
+    }
+
+    private String charset() {
+        String contentType = header("Content-Type");
+        if (contentType == null) {
+            return null;
+        }
+        int index = contentType.toLowerCase().indexOf("charset=");
+        if (index < 0) {
+            return null;
+        }
+        String charset = contentType.substring(index + "charset=".length()).trim();
+        int end = charset.indexOf(';');
+        if (end >= 0) {
+            charset = charset.substring(0, end).trim();
+        }
+        charset = charset.replace("\"", "").replace("'", "");
+        return charset.isEmpty() ? null : charset;
+    }
+}
@@ -0,0 +1,79 @@
+package com.searchlocal.crawler;
+
+/**
+ * Компактное множество 64-битных отпечатков строк (URL, путей) с открытой адресацией:
+ * около 11 байт на элемент вместо сотен байт на строку в HashSet.
+ * Вероятность ложного совпадения для миллиона URL - порядка 10^-8.
+ * Не потокобезопасно.
+ */
+public class FingerprintSet {
+    private static final float LOAD_FACTOR = 0.75f;
+
+    private long[] slots = new long[1024];
+    private int size;
+
+    /**
+     * Отпечаток строки: FNV-1a по символам с финальным перемешиванием битов
+     */
+    public static long fingerprint(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        // 0 обозначает пустую ячейку
+        return hash != 0 ? hash : 1;
+    }
+
+    public boolean add(String value) {
+        return addFingerprint(fingerprint(value));
+    }
+
+    public boolean contains(String value) {
+        long fingerprint = fingerprint(value);
+        int mask = slots.length - 1;
+        for (int i = (int) fingerprint & mask; slots[i] != 0; i = (i + 1) & mask) {
+            if (slots[i] == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private boolean addFingerprint(long fingerprint) {
+        if (size + 1 > slots.length * LOAD_FACTOR) {
+            grow();
+        }
+        int mask = slots.length - 1;
+        int i = (int) fingerprint & mask;
+        while (slots[i] != 0) {
+            if (slots[i] == fingerprint) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        slots[i] = fingerprint;
+        size++;
+        return true;
+    }
+
+    private void grow() {
+        long[] old = slots;
+        slots = new long[old.length * 2];
+        size = 0;
+        for (long fingerprint : old) {
+            if (fingerprint != 0) {
+                addFingerprint(fingerprint);
+            }
+        }
+    }
+}
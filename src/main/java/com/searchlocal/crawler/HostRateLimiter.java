@@ -0,0 +1,53 @@
+package com.searchlocal.crawler;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ограничитель вежливости: не чаще одного запроса к хосту за заданный интервал.
+ * Потоки, обращающиеся к одному хосту, получают последовательные слоты времени,
+ * запросы к разным хостам друг друга не ждут. Для хоста интервал может быть задан
+ * отдельно, например по Crawl-delay из robots.txt.
+ */
+public class HostRateLimiter {
+    private final long intervalNanos;
+    private final Map<String, RateLimiter> limiters = new ConcurrentHashMap<>();
+
+    public HostRateLimiter(long intervalMillis) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    }
+
+    /**
+     * Ждет, пока к хосту URL можно будет отправить запрос
+     */
+    public void acquire(String url) throws InterruptedException {
+        String host = hostOf(url);
+        RateLimiter limiter = limiters.get(host);
+        if (limiter == null) {
+            if (intervalNanos <= 0) {
+                return;
+            }
+            limiter = limiters.computeIfAbsent(host, key -> new RateLimiter(intervalNanos));
+        }
+        limiter.acquire();
+    }
+
+    /**
+     * Задает интервал запросов к хосту URL; отрицательное значение возвращает интервал по умолчанию
+     */
+    public void setInterval(String url, long intervalMillis) {
+        long nanos = intervalMillis >= 0 ? TimeUnit.MILLISECONDS.toNanos(intervalMillis) : intervalNanos;
+        limiters.put(hostOf(url), new RateLimiter(nanos));
+    }
+
+    static String hostOf(String url) {
+        try {
+            String host = URI.create(url).getHost();
+            return host != null ? host : url;
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+}
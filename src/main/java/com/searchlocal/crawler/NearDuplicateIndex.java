@@ -0,0 +1,92 @@
+package com.searchlocal.crawler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Отпечатки SimHash страниц одного обхода с поиском почти совпадающих.
+ * Отпечаток делится на maxDistance + 1 блоков: у отпечатков, различающихся не больше
+ * чем в maxDistance битах, хотя бы один блок совпадает целиком, поэтому сравниваются
+ * только отпечатки с общим блоком. Методы синхронизированы.
+ */
+public class NearDuplicateIndex {
+    private final int maxDistance;
+    private final int[] blockStarts;
+    private final Map<Long, long[]> buckets = new HashMap<>();
+    private int size;
+
+    /**
+     * @param maxDistance наибольшее расстояние Хэмминга между отпечатками дубликатов, от 0 до 63
+     */
+    public NearDuplicateIndex(int maxDistance) {
+        this.maxDistance = maxDistance;
+        int blocks = maxDistance + 1;
+        this.blockStarts = new int[blocks + 1];
+        for (int i = 0; i <= blocks; i++) {
+            blockStarts[i] = i * 64 / blocks;
+        }
+    }
+
+    /**
+     * Добавляет отпечаток, если среди добавленных нет близкого
+     *
+     * @return true, если отпечаток новый; false - страница является дубликатом
+     */
+    public synchronized boolean add(long fingerprint) {
+        if (containsNear(fingerprint)) {
+            return false;
+        }
+        put(fingerprint);
+        return true;
+    }
+
+    /**
+     * Добавляет отпечаток без проверки, например для уже принятой ранее страницы
+     */
+    public synchronized void put(long fingerprint) {
+        for (int block = 0; block < blockStarts.length - 1; block++) {
+            long key = key(fingerprint, block);
+            long[] bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new long[3];
+            } else if (bucket[0] + 1 == bucket.length) {
+                long[] grown = new long[bucket.length * 2];
+                System.arraycopy(bucket, 0, grown, 0, bucket.length);
+                bucket = grown;
+            }
+            // Первый элемент корзины - число отпечатков в ней
+            bucket[(int) ++bucket[0]] = fingerprint;
+            buckets.put(key, bucket);
+        }
+        size++;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private boolean containsNear(long fingerprint) {
+        for (int block = 0; block < blockStarts.length - 1; block++) {
+            long[] bucket = buckets.get(key(fingerprint, block));
+            if (bucket == null) {
+                continue;
+            }
+            for (int i = 1; i <= bucket[0]; i++) {
+                if (Long.bitCount(bucket[i] ^ fingerprint) <= maxDistance) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Ключ корзины: номер блока и значение битов блока
+     */
+    private long key(long fingerprint, int block) {
+        int start = blockStarts[block];
+        int width = blockStarts[block + 1] - start;
+        long bits = (fingerprint >>> start) & (width == 64 ? -1L : (1L << width) - 1);
+        return bits * 64 + block;
+    }
+}
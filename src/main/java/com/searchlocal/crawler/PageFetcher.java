@@ -0,0 +1,174 @@
+package com.searchlocal.crawler;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.function.Predicate;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Загрузка страниц через общий {@link HttpClient}: соединения переиспользуются (keep-alive),
+ * с серверами, поддерживающими HTTP/2, запросы идут потоками по одному соединению.
+ * Тело запрашивается сжатым (gzip, deflate) и распаковывается при загрузке;
+ * тела ответов с типом, отличным от HTML и XML, не читаются, кроме загрузки файлов
+ * через {@link #fetchFile(String)}.
+ * Перенаправления выполняются вручную: каждый следующий адрес проверяется,
+ * и перенаправление за пределы разрешенных адресов не выполняется.
+ * Число одновременных запросов к одному хосту ограничено.
+ */
+@Component
+public class PageFetcher {
+    private static final int MAX_REDIRECTS = 5;
+
+    private final HttpClient client;
+    private final String userAgent;
+    private final Duration requestTimeout;
+    private final int maxConnectionsPerHost;
+    private final Map<String, Semaphore> hostSlots = new ConcurrentHashMap<>();
+
+    public PageFetcher(
+            @Value("${crawler.connect-timeout-ms:5000}") long connectTimeoutMillis,
+            @Value("${crawler.request-timeout-ms:10000}") long requestTimeoutMillis,
+            @Value("${crawler.max-connections-per-host:4}") int maxConnectionsPerHost,
+            @Value("${crawler.user-agent:searchlocal}") String userAgent) {
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+        this.userAgent = userAgent;
+        this.requestTimeout = Duration.ofMillis(requestTimeoutMillis);
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * Загружает страницу, ожидая свободного слота хоста; перенаправления выполняются
+     * только в пределах хоста исходного адреса
+     *
+     * @param headers дополнительные заголовки запроса, например условные
+     */
+    public FetchedPage fetch(String url, Map<String, String> headers) throws IOException, InterruptedException {
+        String host = URI.create(url).getHost();
+        return fetch(url, headers, uri -> uri.getHost() != null && uri.getHost().equalsIgnoreCase(host));
+    }
+
+    /**
+     * Загружает страницу, выполняя перенаправления на адреса, которые разрешает фильтр.
+     * Если перенаправление запрещено или их больше {@value #MAX_REDIRECTS}, возвращается
+     * ответ с кодом перенаправления без тела.
+     *
+     * @param headers дополнительные заголовки первого запроса, например условные
+     * @param redirectAllowed проверка адреса каждого перенаправления
+     */
+    public FetchedPage fetch(String url, Map<String, String> headers, Predicate<URI> redirectAllowed)
+            throws IOException, InterruptedException {
+        return fetch(url, headers, redirectAllowed, false);
+    }
+
+    /**
+     * Загружает файл с телом любого типа, например карту сайта, сжатую в .gz;
+     * перенаправления выполняются только в пределах хоста исходного адреса
+     */
+    public FetchedPage fetchFile(String url) throws IOException, InterruptedException {
+        String host = URI.create(url).getHost();
+        return fetch(url, Collections.emptyMap(),
+                uri -> uri.getHost() != null && uri.getHost().equalsIgnoreCase(host), true);
+    }
+
+    private FetchedPage fetch(String url, Map<String, String> headers, Predicate<URI> redirectAllowed,
+                              boolean anyType) throws IOException, InterruptedException {
+        URI uri = URI.create(url);
+        HttpResponse<byte[]> response = send(uri, headers, anyType);
+        for (int redirects = 0; isRedirect(response.statusCode()) && redirects < MAX_REDIRECTS; redirects++) {
+            Optional<String> location = response.headers().firstValue("Location");
+            if (location.isEmpty()) {
+                break;
+            }
+            URI target;
+            try {
+                target = uri.resolve(location.get().trim());
+            } catch (IllegalArgumentException e) {
+                break;
+            }
+            if (!"http".equalsIgnoreCase(target.getScheme()) && !"https".equalsIgnoreCase(target.getScheme())
+                    || !redirectAllowed.test(target)) {
+                break;
+            }
+            uri = target;
+            response = send(uri, Collections.emptyMap(), anyType);
+        }
+
+        byte[] body = response.body() != null ? decode(response.body(), response.headers()) : null;
+        return new FetchedPage(uri.toString(), response.statusCode(), response.headers(), body);
+    }
+
+    private HttpResponse<byte[]> send(URI uri, Map<String, String> headers, boolean anyType)
+            throws IOException, InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("User-Agent", userAgent)
+                .header("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8")
+                .header("Accept-Encoding", "gzip, deflate")
+                .GET();
+        headers.forEach(request::header);
+
+        Semaphore slots = hostSlots.computeIfAbsent(HostRateLimiter.hostOf(uri.toString()),
+                host -> new Semaphore(maxConnectionsPerHost));
+        slots.acquire();
+        try {
+            return client.send(request.build(), info -> bodySubscriber(info, anyType));
+        } finally {
+            slots.release();
+        }
+    }
+
+    private static boolean isRedirect(int statusCode) {
+        return statusCode == 301 || statusCode == 302 || statusCode == 303
+                || statusCode == 307 || statusCode == 308;
+    }
+
+    private static HttpResponse.BodySubscriber<byte[]> bodySubscriber(HttpResponse.ResponseInfo info,
+                                                                      boolean anyType) {
+        if (isRedirect(info.statusCode())) {
+            return HttpResponse.BodySubscribers.replacing(null);
+        }
+        String contentType = info.headers().firstValue("Content-Type").orElse("text/html").toLowerCase();
+        if (anyType || contentType.startsWith("text/") || contentType.contains("html") || contentType.contains("xml")) {
+            return HttpResponse.BodySubscribers.ofByteArray();
+        }
+        return HttpResponse.BodySubscribers.replacing(null);
+    }
+
+    private static byte[] decode(byte[] body, HttpHeaders headers) throws IOException {
+        String encoding = headers.firstValue("Content-Encoding").orElse("").trim().toLowerCase();
+        if (body.length == 0 || encoding.isEmpty() || encoding.equals("identity")) {
+            return body;
+        }
+        InputStream in = new ByteArrayInputStream(body);
+        if (encoding.equals("gzip") || encoding.equals("x-gzip")) {
+            in = new GZIPInputStream(in);
+        } else if (encoding.equals("deflate")) {
+            in = new InflaterInputStream(in);
+        } else {
+            throw new IOException("Неподдерживаемое сжатие ответа: " + encoding);
+        }
+        try (InputStream decoded = in) {
+            return decoded.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.searchlocal.crawler;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ограничитель частоты: не больше одного разрешения за заданный интервал на все потоки.
+ * Ожидающие потоки получают последовательные слоты времени без общей блокировки.
+ */
+public class RateLimiter {
+    private final long intervalNanos;
+    private final AtomicLong nextSlot = new AtomicLong(System.nanoTime());
+
+    public RateLimiter(long intervalNanos) {
+        this.intervalNanos = intervalNanos;
+    }
+
+    /**
+     * Ограничитель на заданное число разрешений в секунду; 0 - без ограничения
+     */
+    public static RateLimiter perSecond(double permits) {
+        return new RateLimiter(permits > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / permits) : 0);
+    }
+
+    /**
+     * Ждет следующего свободного слота
+     */
+    public void acquire() throws InterruptedException {
+        if (intervalNanos <= 0) {
+            return;
+        }
+
+        long slot;
+        while (true) {
+            long now = System.nanoTime();
+            long current = nextSlot.get();
+            slot = Math.max(now, current);
+            if (nextSlot.compareAndSet(current, slot + intervalNanos)) {
+                break;
+            }
+        }
+
+        long waitNanos = slot - System.nanoTime();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+package com.searchlocal.crawler;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Правила robots.txt для обходчика: запреты и разрешения путей, Crawl-delay и карты сайта.
+ * Применяется группа, в User-agent которой указан токен обходчика, а если такой нет - группа "*".
+ * Из подходящих правил побеждает самое длинное, при равной длине - Allow;
+ * в шаблонах поддерживаются "*" и "$" в конце.
+ */
+public class RobotsRules {
+    private static final RobotsRules ALLOW_ALL = new RobotsRules(Collections.emptyList(), -1, Collections.emptyList());
+
+    private final List<Rule> rules;
+    private final long crawlDelayMillis;
+    private final List<String> sitemaps;
+
+    private RobotsRules(List<Rule> rules, long crawlDelayMillis, List<String> sitemaps) {
+        this.rules = rules;
+        this.crawlDelayMillis = crawlDelayMillis;
+        this.sitemaps = sitemaps;
+    }
+
+    /**
+     * Правила для сайта без robots.txt: разрешено все
+     */
+    public static RobotsRules allowAll() {
+        return ALLOW_ALL;
+    }
+
+    /**
+     * Разбирает robots.txt
+     *
+     * @param agent токен обходчика в User-agent, без учета регистра
+     */
+    public static RobotsRules parse(String text, String agent) {
+        List<Rule> agentRules = new ArrayList<>();
+        List<Rule> defaultRules = new ArrayList<>();
+        long agentDelay = -1;
+        long defaultDelay = -1;
+        boolean agentGroupFound = false;
+        List<String> sitemaps = new ArrayList<>();
+
+        // Группа - подряд идущие строки User-agent и следующие за ними правила
+        boolean groupForAgent = false;
+        boolean groupForAll = false;
+        boolean readingAgents = false;
+        for (String line : text.split("\r\n|\r|\n")) {
+            int comment = line.indexOf('#');
+            if (comment >= 0) {
+                line = line.substring(0, comment);
+            }
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String key = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+
+            if (key.equals("user-agent")) {
+                if (!readingAgents) {
+                    groupForAgent = false;
+                    groupForAll = false;
+                    readingAgents = true;
+                }
+                if (value.equals("*")) {
+                    groupForAll = true;
+                } else if (value.equalsIgnoreCase(agent)) {
+                    groupForAgent = true;
+                    agentGroupFound = true;
+                }
+                continue;
+            }
+            if (key.equals("sitemap")) {
+                if (!value.isEmpty()) {
+                    sitemaps.add(value);
+                }
+                continue;
+            }
+            readingAgents = false;
+            if (!groupForAgent && !groupForAll) {
+                continue;
+            }
+
+            Rule rule = null;
+            long delay = -1;
+            if ((key.equals("allow") || key.equals("disallow")) && !value.isEmpty()) {
+                rule = new Rule(value, key.equals("allow"));
+            } else if (key.equals("crawl-delay")) {
+                delay = parseDelay(value);
+            }
+            if (groupForAgent) {
+                if (rule != null) {
+                    agentRules.add(rule);
+                }
+                agentDelay = delay >= 0 ? delay : agentDelay;
+            } else {
+                if (rule != null) {
+                    defaultRules.add(rule);
+                }
+                defaultDelay = delay >= 0 ? delay : defaultDelay;
+            }
+        }
+
+        return agentGroupFound
+                ? new RobotsRules(agentRules, agentDelay, sitemaps)
+                : new RobotsRules(defaultRules, defaultDelay, sitemaps);
+    }
+
+    /**
+     * true, если обходчику разрешено загружать URL
+     */
+    public boolean isAllowed(String url) {
+        if (rules.isEmpty()) {
+            return true;
+        }
+        String path;
+        try {
+            URI uri = URI.create(url);
+            path = uri.getRawPath() == null || uri.getRawPath().isEmpty() ? "/" : uri.getRawPath();
+            if (uri.getRawQuery() != null) {
+                path += "?" + uri.getRawQuery();
+            }
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+
+        Rule match = null;
+        for (Rule rule : rules) {
+            if (rule.matches(path) && (match == null || rule.length() > match.length()
+                    || (rule.length() == match.length() && rule.allow))) {
+                match = rule;
+            }
+        }
+        return match == null || match.allow;
+    }
+
+    /**
+     * Интервал между запросами из Crawl-delay или -1, если он не задан
+     */
+    public long getCrawlDelayMillis() {
+        return crawlDelayMillis;
+    }
+
+    /**
+     * Адреса карт сайта из директив Sitemap
+     */
+    public List<String> getSitemaps() {
+        return sitemaps;
+    }
+
+    private static long parseDelay(String value) {
+        try {
+            double seconds = Double.parseDouble(value);
+            return seconds >= 0 ? (long) (seconds * 1000) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Правило Allow или Disallow с шаблоном пути
+     */
+    private static class Rule {
+        private final String pattern;
+        private final Pattern regex;
+        private final boolean allow;
+
+        Rule(String pattern, boolean allow) {
+            this.pattern = pattern;
+            this.allow = allow;
+            StringBuilder regex = new StringBuilder();
+            boolean anchored = pattern.endsWith("$");
+            String body = anchored ? pattern.substring(0, pattern.length() - 1) : pattern;
+            int start = 0;
+            for (int star = body.indexOf('*'); star >= 0; star = body.indexOf('*', start)) {
+                regex.append(Pattern.quote(body.substring(start, star))).append(".*");
+                start = star + 1;
+            }
+            regex.append(Pattern.quote(body.substring(start)));
+            if (anchored) {
+                regex.append('$');
+            }
+            this.regex = Pattern.compile(regex.toString());
+        }
+
+        boolean matches(String path) {
+            return regex.matcher(path).lookingAt();
+        }
+
+        int length() {
+            return pattern.length();
+        }
+    }
+}
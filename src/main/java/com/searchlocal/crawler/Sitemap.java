@@ -0,0 +1,107 @@
+package com.searchlocal.crawler;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Разобранная карта сайта: адреса страниц с датами изменения из urlset
+ * и адреса вложенных карт из sitemapindex
+ */
+public class Sitemap {
+    private final List<Entry> urls;
+    private final List<String> sitemaps;
+
+    /**
+     * Адрес страницы и дата ее изменения (lastmod) в виде из карты или null
+     */
+    public static class Entry {
+        private final String url;
+        private final String lastModified;
+        private final Instant lastModifiedTime;
+
+        public Entry(String url, String lastModified) {
+            this.url = url;
+            this.lastModified = lastModified;
+            this.lastModifiedTime = parseTime(lastModified);
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Дата изменения как момент времени или null, если она не указана или не разбирается
+         */
+        public Instant getLastModifiedTime() {
+            return lastModifiedTime;
+        }
+
+        private static Instant parseTime(String value) {
+            if (value == null) {
+                return null;
+            }
+            try {
+                if (value.length() <= 10) {
+                    return LocalDate.parse(value).atStartOfDay().toInstant(ZoneOffset.UTC);
+                }
+                return OffsetDateTime.parse(value).toInstant();
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+
+    private Sitemap(List<Entry> urls, List<String> sitemaps) {
+        this.urls = urls;
+        this.sitemaps = sitemaps;
+    }
+
+    public static Sitemap parse(FetchedPage response) throws IOException {
+        Document doc = response.parseXml();
+        List<Entry> urls = new ArrayList<>();
+        for (Element url : doc.getElementsByTag("url")) {
+            String loc = childText(url, "loc");
+            if (loc != null) {
+                urls.add(new Entry(loc, childText(url, "lastmod")));
+            }
+        }
+        List<String> sitemaps = new ArrayList<>();
+        for (Element sitemap : doc.getElementsByTag("sitemap")) {
+            String loc = childText(sitemap, "loc");
+            if (loc != null) {
+                sitemaps.add(loc);
+            }
+        }
+        return new Sitemap(urls, sitemaps);
+    }
+
+    public List<Entry> getUrls() {
+        return urls;
+    }
+
+    public List<String> getSitemaps() {
+        return sitemaps;
+    }
+
+    private static String childText(Element element, String tag) {
+        Element child = element.getElementsByTag(tag).first();
+        if (child == null) {
+            return null;
+        }
+        String text = child.text().trim();
+        return text.isEmpty() ? null : text;
+    }
+}
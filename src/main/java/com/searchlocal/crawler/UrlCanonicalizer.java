@@ -0,0 +1,219 @@
+package com.searchlocal.crawler;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+
+/**
+ * Приведение ссылок к каноническому виду до постановки в очередь обхода, чтобы варианты
+ * одного адреса загружались один раз: отбрасывается фрагмент, схема и хост приводятся
+ * к адресу сайта, порт по умолчанию убирается, точечные и пустые сегменты пути
+ * схлопываются, завершающий слэш (по настройке) убирается, %-кодирование приводится
+ * к верхнему регистру, параметры запроса из списка исключений (метки кампаний,
+ * идентификаторы сессий) удаляются, а остальные сортируются по имени.
+ * Ссылки за пределы сайта, на файлы с исключенными расширениями и по исключенным
+ * префиксам пути отбрасываются. Потокобезопасен.
+ */
+public class UrlCanonicalizer {
+    private final Set<String> ignoredParams = new HashSet<>();
+    private final List<String> ignoredParamPrefixes = new ArrayList<>();
+    private final Set<String> ignoredExtensions = new HashSet<>();
+    private final List<String> ignoredPaths = new ArrayList<>();
+    private final boolean stripTrailingSlash;
+
+    /**
+     * @param ignoredParams имена удаляемых параметров; "utm_*" - все параметры с префиксом
+     * @param ignoredExtensions расширения файлов, ссылки на которые не обходятся
+     * @param ignoredPaths префиксы путей, которые не обходятся
+     */
+    public UrlCanonicalizer(Collection<String> ignoredParams, Collection<String> ignoredExtensions,
+                            Collection<String> ignoredPaths, boolean stripTrailingSlash) {
+        for (String param : ignoredParams) {
+            param = param.trim().toLowerCase();
+            if (param.endsWith("*")) {
+                ignoredParamPrefixes.add(param.substring(0, param.length() - 1));
+            } else if (!param.isEmpty()) {
+                this.ignoredParams.add(param);
+            }
+        }
+        for (String extension : ignoredExtensions) {
+            extension = extension.trim().toLowerCase();
+            if (extension.startsWith(".")) {
+                extension = extension.substring(1);
+            }
+            if (!extension.isEmpty()) {
+                this.ignoredExtensions.add(extension);
+            }
+        }
+        for (String path : ignoredPaths) {
+            path = path.trim();
+            if (!path.isEmpty()) {
+                this.ignoredPaths.add(path);
+            }
+        }
+        this.stripTrailingSlash = stripTrailingSlash;
+    }
+
+    /**
+     * Возвращает канонический URL ссылки или null, если ссылка ведет за пределы сайта,
+     * исключена списками или не разбирается
+     *
+     * @param site адрес сайта: ссылка должна вести на его хост и начинаться с его пути
+     */
+    public String canonicalize(String url, URI site) {
+        URI uri;
+        try {
+            uri = new URI(url.trim());
+        } catch (URISyntaxException e) {
+            return null;
+        }
+        String scheme = uri.getScheme();
+        if (scheme == null || !(scheme.equalsIgnoreCase("http") || scheme.equalsIgnoreCase("https"))) {
+            return null;
+        }
+        if (uri.getHost() == null || !uri.getHost().equalsIgnoreCase(site.getHost())) {
+            return null;
+        }
+        // Ссылка на порт по умолчанию другой схемы (http на https-сайте) ведет на тот же сайт
+        if (!(isDefaultPort(uri) && isDefaultPort(site)) && port(uri) != port(site)) {
+            return null;
+        }
+
+        String path = normalizePath(uri.getRawPath());
+        String sitePath = site.getRawPath() == null || site.getRawPath().isEmpty() ? "/" : site.getRawPath();
+        if (!path.startsWith(sitePath) && !(path + "/").equals(sitePath)) {
+            return null;
+        }
+        for (String ignoredPath : ignoredPaths) {
+            if (path.startsWith(ignoredPath)) {
+                return null;
+            }
+        }
+        if (ignoredExtensions.contains(extension(path))) {
+            return null;
+        }
+
+        StringBuilder result = new StringBuilder();
+        String siteScheme = site.getScheme().toLowerCase();
+        result.append(siteScheme).append("://").append(site.getHost().toLowerCase());
+        if (site.getPort() >= 0 && site.getPort() != defaultPort(siteScheme)) {
+            result.append(':').append(site.getPort());
+        }
+        result.append(path);
+        String query = normalizeQuery(uri.getRawQuery());
+        if (!query.isEmpty()) {
+            result.append('?').append(query);
+        }
+        return result.toString();
+    }
+
+    private String normalizePath(String rawPath) {
+        if (rawPath == null || rawPath.isEmpty()) {
+            return "/";
+        }
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : rawPath.split("/")) {
+            segment = removePathParams(segment);
+            if (segment.isEmpty() || segment.equals(".")) {
+                continue;
+            }
+            if (segment.equals("..")) {
+                segments.pollLast();
+                continue;
+            }
+            segments.addLast(upperCaseEscapes(segment));
+        }
+        StringBuilder path = new StringBuilder();
+        for (String segment : segments) {
+            path.append('/').append(segment);
+        }
+        boolean trailingSlash = rawPath.endsWith("/") && !stripTrailingSlash;
+        if (path.length() == 0 || trailingSlash) {
+            path.append('/');
+        }
+        return path.toString();
+    }
+
+    /**
+     * Удаляет из сегмента пути исключенные параметры вида ";jsessionid=..."
+     */
+    private String removePathParams(String segment) {
+        int separator = segment.indexOf(';');
+        if (separator < 0) {
+            return segment;
+        }
+        StringBuilder result = new StringBuilder(segment.substring(0, separator));
+        for (String param : segment.substring(separator + 1).split(";")) {
+            if (!param.isEmpty() && !isIgnoredParam(name(param))) {
+                result.append(';').append(param);
+            }
+        }
+        return result.toString();
+    }
+
+    private String normalizeQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        List<String> params = new ArrayList<>();
+        for (String param : rawQuery.split("&")) {
+            if (!param.isEmpty() && !isIgnoredParam(name(param))) {
+                params.add(upperCaseEscapes(param));
+            }
+        }
+        // Сортировка устойчива: порядок повторяющихся параметров сохраняется
+        params.sort(Comparator.comparing(UrlCanonicalizer::name));
+        return String.join("&", params);
+    }
+
+    private boolean isIgnoredParam(String name) {
+        name = name.toLowerCase();
+        if (ignoredParams.contains(name)) {
+            return true;
+        }
+        for (String prefix : ignoredParamPrefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String name(String param) {
+        int separator = param.indexOf('=');
+        return separator >= 0 ? param.substring(0, separator) : param;
+    }
+
+    private static String extension(String path) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        return dot > slash ? path.substring(dot + 1).toLowerCase() : "";
+    }
+
+    private static String upperCaseEscapes(String value) {
+        if (value.indexOf('%') < 0) {
+            return value;
+        }
+        char[] chars = value.toCharArray();
+        for (int i = 0; i + 2 < chars.length; i++) {
+            if (chars[i] == '%') {
+                chars[i + 1] = Character.toUpperCase(chars[i + 1]);
+                chars[i + 2] = Character.toUpperCase(chars[i + 2]);
+                i += 2;
+            }
+        }
+        return new String(chars);
+    }
+
+    private static int port(URI uri) {
+        return uri.getPort() >= 0 ? uri.getPort() : defaultPort(uri.getScheme().toLowerCase());
+    }
+
+    private static boolean isDefaultPort(URI uri) {
+        return uri.getPort() < 0 || uri.getPort() == defaultPort(uri.getScheme().toLowerCase());
+    }
+
+    private static int defaultPort(String scheme) {
+        return scheme.equals("https") ? 443 : 80;
+    }
+}
@@ -5,6 +5,10 @@ import java.util.List;
 public class StatisticsResponse {
     private TotalStatistics total;
     private List<DetailedStatisticsItem> detailed;
+    private CacheStatistics lemmaCache;
+    private CacheStatistics queryCache;
+    private IndexStatistics index;
+    private List<IndexingProgress> indexing;
     
     public StatisticsResponse() {
     }
@@ -30,6 +34,38 @@ public class StatisticsResponse {
         this.detailed = detailed;
     }
     
+    public CacheStatistics getLemmaCache() {
+        return lemmaCache;
+    }
+    
+    public void setLemmaCache(CacheStatistics lemmaCache) {
+        this.lemmaCache = lemmaCache;
+    }
+    
+    public CacheStatistics getQueryCache() {
+        return queryCache;
+    }
+    
+    public void setQueryCache(CacheStatistics queryCache) {
+        this.queryCache = queryCache;
+    }
+    
+    public IndexStatistics getIndex() {
+        return index;
+    }
+    
+    public void setIndex(IndexStatistics index) {
+        this.index = index;
+    }
+    
+    public List<IndexingProgress> getIndexing() {
+        return indexing;
+    }
+    
+    public void setIndexing(List<IndexingProgress> indexing) {
+        this.indexing = indexing;
+    }
+    
     public static class TotalStatistics {
         private int sites;
         private int pages;
@@ -87,6 +123,7 @@ public class StatisticsResponse {
         private String lastError;
         private int pages;
         private int lemmas;
+        private CrawlStatistics crawl;
         
         public DetailedStatisticsItem() {
         }
@@ -146,6 +183,273 @@ public class StatisticsResponse {
         public void setLemmas(int lemmas) {
             this.lemmas = lemmas;
         }
+        
+        public CrawlStatistics getCrawl() {
+            return crawl;
+        }
+        
+        public void setCrawl(CrawlStatistics crawl) {
+            this.crawl = crawl;
+        }
+    }
+    
+    public static class CrawlStatistics {
+        private int fetchQueue;
+        private int parseQueue;
+        private int persistQueue;
+        private long fetched;
+        private long parsed;
+        private long saved;
+        private long skippedFetches;
+        private long duplicatePages;
+        private long keptDuplicates;
+        private long skippedIndexRows;
+        private long unchangedBySitemap;
+        
+        public CrawlStatistics() {
+        }
+        
+        public int getFetchQueue() {
+            return fetchQueue;
+        }
+        
+        public void setFetchQueue(int fetchQueue) {
+            this.fetchQueue = fetchQueue;
+        }
+        
+        public int getParseQueue() {
+            return parseQueue;
+        }
+        
+        public void setParseQueue(int parseQueue) {
+            this.parseQueue = parseQueue;
+        }
+        
+        public int getPersistQueue() {
+            return persistQueue;
+        }
+        
+        public void setPersistQueue(int persistQueue) {
+            this.persistQueue = persistQueue;
+        }
+        
+        public long getFetched() {
+            return fetched;
+        }
+        
+        public void setFetched(long fetched) {
+            this.fetched = fetched;
+        }
+        
+        public long getParsed() {
+            return parsed;
+        }
+        
+        public void setParsed(long parsed) {
+            this.parsed = parsed;
+        }
+        
+        public long getSaved() {
+            return saved;
+        }
+        
+        public void setSaved(long saved) {
+            this.saved = saved;
+        }
+        
+        public long getSkippedFetches() {
+            return skippedFetches;
+        }
+        
+        public void setSkippedFetches(long skippedFetches) {
+            this.skippedFetches = skippedFetches;
+        }
+        
+        public long getDuplicatePages() {
+            return duplicatePages;
+        }
+        
+        public void setDuplicatePages(long duplicatePages) {
+            this.duplicatePages = duplicatePages;
+        }
+        
+        public long getKeptDuplicates() {
+            return keptDuplicates;
+        }
+        
+        public void setKeptDuplicates(long keptDuplicates) {
+            this.keptDuplicates = keptDuplicates;
+        }
+        
+        public long getSkippedIndexRows() {
+            return skippedIndexRows;
+        }
+        
+        public void setSkippedIndexRows(long skippedIndexRows) {
+            this.skippedIndexRows = skippedIndexRows;
+        }
+        
+        public long getUnchangedBySitemap() {
+            return unchangedBySitemap;
+        }
+        
+        public void setUnchangedBySitemap(long unchangedBySitemap) {
+            this.unchangedBySitemap = unchangedBySitemap;
+        }
+    }
+    
+    public static class CacheStatistics {
+        private int size;
+        private int capacity;
+        private long hits;
+        private long misses;
+        private long evictions;
+        
+        public CacheStatistics() {
+        }
+        
+        public CacheStatistics(int size, int capacity, long hits, long misses, long evictions) {
+            this.size = size;
+            this.capacity = capacity;
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+        
+        public int getSize() {
+            return size;
+        }
+        
+        public void setSize(int size) {
+            this.size = size;
+        }
+        
+        public int getCapacity() {
+            return capacity;
+        }
+        
+        public void setCapacity(int capacity) {
+            this.capacity = capacity;
+        }
+        
+        public long getHits() {
+            return hits;
+        }
+        
+        public void setHits(long hits) {
+            this.hits = hits;
+        }
+        
+        public long getMisses() {
+            return misses;
+        }
+        
+        public void setMisses(long misses) {
+            this.misses = misses;
+        }
+        
+        public long getEvictions() {
+            return evictions;
+        }
+        
+        public void setEvictions(long evictions) {
+            this.evictions = evictions;
+        }
+        
+        public double getHitRatio() {
+            long total = hits + misses;
+            return total > 0 ? (double) hits / total : 0.0;
+        }
+    }
+    
+    public static class IndexStatistics {
+        private String source;
+        private long loadMillis;
+        private long startupMillis;
+        private long segmentSize;
+        
+        public IndexStatistics() {
+        }
+        
+        public IndexStatistics(String source, long loadMillis, long startupMillis, long segmentSize) {
+            this.source = source;
+            this.loadMillis = loadMillis;
+            this.startupMillis = startupMillis;
+            this.segmentSize = segmentSize;
+        }
+        
+        public String getSource() {
+            return source;
+        }
+        
+        public void setSource(String source) {
+            this.source = source;
+        }
+        
+        public long getLoadMillis() {
+            return loadMillis;
+        }
+        
+        public void setLoadMillis(long loadMillis) {
+            this.loadMillis = loadMillis;
+        }
+        
+        public long getStartupMillis() {
+            return startupMillis;
+        }
+        
+        public void setStartupMillis(long startupMillis) {
+            this.startupMillis = startupMillis;
+        }
+        
+        public long getSegmentSize() {
+            return segmentSize;
+        }
+        
+        public void setSegmentSize(long segmentSize) {
+            this.segmentSize = segmentSize;
+        }
+    }
+    
+    public static class IndexingProgress {
+        private String url;
+        private String state;
+        private int queuePosition;
+        private CrawlStatistics crawl;
+        
+        public IndexingProgress() {
+        }
+        
+        public String getUrl() {
+            return url;
+        }
+        
+        public void setUrl(String url) {
+            this.url = url;
+        }
+        
+        public String getState() {
+            return state;
+        }
+        
+        public void setState(String state) {
+            this.state = state;
+        }
+        
+        public int getQueuePosition() {
+            return queuePosition;
+        }
+        
+        public void setQueuePosition(int queuePosition) {
+            this.queuePosition = queuePosition;
+        }
+        
+        public CrawlStatistics getCrawl() {
+            return crawl;
+        }
+        
+        public void setCrawl(CrawlStatistics crawl) {
+            this.crawl = crawl;
+        }
     }
 }
-
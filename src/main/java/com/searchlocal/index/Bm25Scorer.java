@@ -0,0 +1,36 @@
+package com.searchlocal.index;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Релевантность Okapi BM25: редкие леммы весят больше, рост веса от повторов
+ * насыщается (k1), длинные страницы штрафуются относительно средней длины (b)
+ */
+@Component
+public class Bm25Scorer implements RelevanceScorer {
+    public static final String NAME = "bm25";
+
+    private final float k1;
+    private final float b;
+
+    public Bm25Scorer(
+            @Value("${search.bm25.k1:1.2}") float k1,
+            @Value("${search.bm25.b:0.75}") float b) {
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public TermScorer termScorer(int documentFrequency, int pageCount, double averagePageLength) {
+        float idf = (float) Math.log(1 + (pageCount - documentFrequency + 0.5) / (documentFrequency + 0.5));
+        float base = k1 * (1 - b);
+        float perLength = averagePageLength > 0 ? (float) (k1 * b / averagePageLength) : 0;
+        return (rank, pageLength) -> idf * rank * (k1 + 1) / (rank + base + perLength * pageLength);
+    }
+}
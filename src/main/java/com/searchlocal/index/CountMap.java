@@ -0,0 +1,164 @@
+package com.searchlocal.index;
+
+import java.util.Arrays;
+
+/**
+ * Счетчики по целому ключу (id леммы -> число страниц) в открытой адресации без упаковки:
+ * ключи и значения лежат в двух массивах int. Счетчик, ставший нулем, удаляется.
+ */
+class CountMap {
+    // Общий пустой экземпляр только для чтения
+    static final CountMap EMPTY = new CountMap();
+
+    /**
+     * Получатель ненулевых счетчиков
+     */
+    interface Visitor {
+        void count(int key, int count);
+    }
+
+    private int[] keys = new int[16];
+    private int[] values = new int[16];
+    // Ключ 0 совпадает с признаком пустой ячейки и хранится отдельно
+    private int zeroValue;
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int get(int key) {
+        if (key == 0) {
+            return zeroValue;
+        }
+        int mask = keys.length - 1;
+        for (int slot = hash(key) & mask; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                return values[slot];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Прибавляет delta к счетчику ключа
+     *
+     * @return новое значение счетчика
+     */
+    int add(int key, int delta) {
+        if (delta == 0) {
+            return get(key);
+        }
+        if (key == 0) {
+            int previous = zeroValue;
+            zeroValue += delta;
+            size += (zeroValue != 0 ? 1 : 0) - (previous != 0 ? 1 : 0);
+            return zeroValue;
+        }
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        for (; keys[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == key) {
+                values[slot] += delta;
+                int value = values[slot];
+                if (value == 0) {
+                    removeAt(slot);
+                    size--;
+                }
+                return value;
+            }
+        }
+        keys[slot] = key;
+        values[slot] = delta;
+        size++;
+        if (size * 2 > keys.length) {
+            rehash(keys.length * 2);
+        }
+        return delta;
+    }
+
+    /**
+     * Ключи с ненулевыми счетчиками; копия, поэтому счетчики можно менять во время обхода
+     */
+    int[] keys() {
+        int[] result = new int[size];
+        int n = 0;
+        if (zeroValue != 0) {
+            result[n++] = 0;
+        }
+        for (int key : keys) {
+            if (key != 0) {
+                result[n++] = key;
+            }
+        }
+        return result;
+    }
+
+    void forEach(Visitor visitor) {
+        if (zeroValue != 0) {
+            visitor.count(0, zeroValue);
+        }
+        for (int slot = 0; slot < keys.length; slot++) {
+            if (keys[slot] != 0) {
+                visitor.count(keys[slot], values[slot]);
+            }
+        }
+    }
+
+    void clear() {
+        keys = new int[16];
+        values = new int[16];
+        zeroValue = 0;
+        size = 0;
+    }
+
+    /**
+     * Освобождает ячейку, сдвигая назад следующие за ней записи той же цепочки проб
+     */
+    private void removeAt(int slot) {
+        int mask = keys.length - 1;
+        int gap = slot;
+        for (int i = (slot + 1) & mask; keys[i] != 0; i = (i + 1) & mask) {
+            int home = hash(keys[i]) & mask;
+            if (((i - home) & mask) >= ((i - gap) & mask)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        keys[gap] = 0;
+        values[gap] = 0;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[capacity];
+        values = new int[capacity];
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0) {
+                int slot = hash(oldKeys[i]) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(keys());
+    }
+}
@@ -0,0 +1,327 @@
+package com.searchlocal.index;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Неизменяемый файл сегмента индекса: заголовок, метаданные страниц, словарь лемм,
+ * частоты лемм по сайтам и сжатые списки вхождений в формате {@link PostingList}.
+ * Область списков отображается в память, поэтому поиск читает их из страничного кэша ОС,
+ * а не из кучи. Файл пишется целиком во временный файл и атомарно переименовывается;
+ * целостность всего, что следует за заголовком, проверяется по контрольной сумме CRC32.
+ * Базовый сегмент содержит весь индекс, дельта - только записи, изменившиеся после
+ * предыдущего сегмента; удаление в дельте записывается как страница с отрицательным id сайта,
+ * лемма с пустым списком и частота, равная нулю. В заголовке хранится версия изменений
+ * базы данных, до которой включительно в сегменте учтены все изменения индекса.
+ *
+ * <pre>
+ * заголовок: magic, версия, признак дельты, версия изменений базы данных, число страниц, число лемм,
+ *            число частот, число вхождений, длина метаданных, длина данных, CRC32
+ * страница:  id, id сайта, видимость (байт), длина
+ * лемма:     id, длина текста (short) и текст в UTF-8, число страниц, id последней страницы,
+ *            смещение и длина данных, число точек пропуска и пары (id перед блоком, смещение блока)
+ * частота:   id сайта, id леммы, видимость (байт), число видимых или теневых страниц сайта с леммой
+ * данные:    списки вхождений подряд в порядке словаря
+ * </pre>
+ */
+public class IndexSegment {
+    private static final int MAGIC = 0x534C5347;
+    private static final int VERSION = 5;
+    private static final int HEADER_SIZE = 64;
+    // Наибольший размер одного отображения файла в память
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE;
+
+    /**
+     * Получатель содержимого сегмента
+     */
+    public interface Visitor {
+        void page(int pageId, int siteId, boolean live, int length);
+
+        void term(int lemmaId, String lemma, PostingList list);
+
+        void frequency(int siteId, int lemmaId, boolean live, int count);
+    }
+
+    private final Path file;
+    private final boolean delta;
+    private final long watermark;
+    private final int pageCount;
+    private final int termCount;
+    private final int frequencyCount;
+    private final long postingCount;
+    private final long metadataLength;
+    private final long dataLength;
+    private final long checksum;
+
+    private IndexSegment(Path file, ByteBuffer header) {
+        this.file = file;
+        this.delta = header.getInt() != 0;
+        this.watermark = header.getLong();
+        this.pageCount = header.getInt();
+        this.termCount = header.getInt();
+        this.frequencyCount = header.getInt();
+        this.postingCount = header.getLong();
+        this.metadataLength = header.getLong();
+        this.dataLength = header.getLong();
+        this.checksum = header.getLong();
+    }
+
+    /**
+     * Открывает сегмент и читает его заголовок
+     */
+    public static IndexSegment open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new IOException("Неполный заголовок сегмента " + file);
+                }
+            }
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Неизвестный формат сегмента " + file);
+            }
+            IndexSegment segment = new IndexSegment(file, header);
+            if (channel.size() != HEADER_SIZE + segment.metadataLength + segment.dataLength) {
+                throw new IOException("Размер сегмента " + file + " не совпадает с заголовком");
+            }
+            return segment;
+        }
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * true, если сегмент содержит только изменения после предыдущего сегмента
+     */
+    public boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Версия изменений базы данных, до которой включительно сегмент содержит все изменения индекса
+     */
+    public long watermark() {
+        return watermark;
+    }
+
+    public int pageCount() {
+        return pageCount;
+    }
+
+    public int termCount() {
+        return termCount;
+    }
+
+    /**
+     * Суммарное число записей во всех списках вхождений
+     */
+    public long postingCount() {
+        return postingCount;
+    }
+
+    public long fileSize() {
+        return HEADER_SIZE + metadataLength + dataLength;
+    }
+
+    /**
+     * Сверяет контрольную сумму содержимого с заголовком
+     *
+     * @throws IOException если файл поврежден
+     */
+    public void verify() throws IOException {
+        CRC32 crc = new CRC32();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long end = fileSize();
+            for (long position = HEADER_SIZE; position < end; position += MAX_CHUNK_SIZE) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_CHUNK_SIZE, end - position)));
+            }
+        }
+        if (crc.getValue() != checksum) {
+            throw new IOException("Контрольная сумма сегмента " + file + " не совпадает");
+        }
+    }
+
+    /**
+     * Передает получателю страницы, леммы и частоты сегмента. Списки вхождений не копируются:
+     * они читают данные из отображения файла, которое живет, пока на него есть ссылки.
+     */
+    public void read(Visitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer metadata = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, metadataLength);
+            for (int i = 0; i < pageCount; i++) {
+                visitor.page(metadata.getInt(), metadata.getInt(), metadata.get() != 0, metadata.getInt());
+            }
+
+            long dataStart = HEADER_SIZE + metadataLength;
+            MappedByteBuffer chunk = null;
+            long chunkStart = 0;
+            byte[] lemmaBytes = new byte[64];
+            for (int i = 0; i < termCount; i++) {
+                int lemmaId = metadata.getInt();
+                int lemmaLength = metadata.getShort() & 0xFFFF;
+                if (lemmaLength > lemmaBytes.length) {
+                    lemmaBytes = new byte[lemmaLength];
+                }
+                metadata.get(lemmaBytes, 0, lemmaLength);
+                String lemma = new String(lemmaBytes, 0, lemmaLength, StandardCharsets.UTF_8);
+                int size = metadata.getInt();
+                int lastPageId = metadata.getInt();
+                long offset = metadata.getLong();
+                int length = metadata.getInt();
+                int skipCount = metadata.getInt();
+                int[] skipPrevIds = new int[skipCount];
+                int[] skipOffsets = new int[skipCount];
+                for (int k = 0; k < skipCount; k++) {
+                    skipPrevIds[k] = metadata.getInt();
+                    skipOffsets[k] = metadata.getInt();
+                }
+
+                if (size == 0) {
+                    visitor.term(lemmaId, lemma, new PostingList());
+                    continue;
+                }
+                // Файл отображается частями не больше 2 ГБ; список целиком лежит в одной части
+                if (chunk == null || offset + length > chunkStart + chunk.capacity()) {
+                    chunkStart = offset;
+                    chunk = channel.map(FileChannel.MapMode.READ_ONLY, dataStart + offset,
+                            Math.min(MAX_CHUNK_SIZE, dataLength - offset));
+                }
+                ByteBuffer data = chunk.duplicate();
+                data.position((int) (offset - chunkStart));
+                data.limit((int) (offset - chunkStart) + length);
+                visitor.term(lemmaId, lemma, PostingList.mapped(data.slice(), size, lastPageId, skipPrevIds, skipOffsets));
+            }
+
+            for (int i = 0; i < frequencyCount; i++) {
+                visitor.frequency(metadata.getInt(), metadata.getInt(), metadata.get() != 0, metadata.getInt());
+            }
+        }
+    }
+
+    /**
+     * Пишет новый сегмент: сначала метаданные страниц, словарь и частоты, затем данные списков
+     */
+    public static class Writer {
+        private final Path file;
+        private final boolean delta;
+        private final long watermark;
+        private final ByteArrayOutputStream pageBytes = new ByteArrayOutputStream();
+        private final DataOutputStream pages = new DataOutputStream(pageBytes);
+        private final ByteArrayOutputStream termBytes = new ByteArrayOutputStream();
+        private final DataOutputStream terms = new DataOutputStream(termBytes);
+        private final ByteArrayOutputStream frequencyBytes = new ByteArrayOutputStream();
+        private final DataOutputStream frequencies = new DataOutputStream(frequencyBytes);
+        private final List<PostingList> lists = new ArrayList<>();
+        private int pageCount;
+        private int frequencyCount;
+        private long postingCount;
+        private long dataLength;
+
+        /**
+         * @param delta true для сегмента с изменениями после предыдущего
+         * @param watermark версия изменений базы данных, до которой учтены изменения
+         */
+        public Writer(Path file, boolean delta, long watermark) {
+            this.file = file;
+            this.delta = delta;
+            this.watermark = watermark;
+        }
+
+        public void addPage(int pageId, int siteId, boolean live, int length) throws IOException {
+            pages.writeInt(pageId);
+            pages.writeInt(siteId);
+            pages.writeByte(live ? 1 : 0);
+            pages.writeInt(length);
+            pageCount++;
+        }
+
+        public void addTerm(int lemmaId, String lemma, PostingList list) throws IOException {
+            byte[] lemmaBytes = lemma.getBytes(StandardCharsets.UTF_8);
+            terms.writeInt(lemmaId);
+            terms.writeShort(lemmaBytes.length);
+            terms.write(lemmaBytes);
+            terms.writeInt(list.size());
+            terms.writeInt(list.lastPageId());
+            terms.writeLong(dataLength);
+            terms.writeInt(list.byteSize());
+            terms.writeInt(list.skipCount());
+            for (int k = 0; k < list.skipCount(); k++) {
+                terms.writeInt(list.skipPrevId(k));
+                terms.writeInt(list.skipOffset(k));
+            }
+            lists.add(list);
+            postingCount += list.size();
+            dataLength += list.byteSize();
+        }
+
+        public void addFrequency(int siteId, int lemmaId, boolean live, int count) throws IOException {
+            frequencies.writeInt(siteId);
+            frequencies.writeInt(lemmaId);
+            frequencies.writeByte(live ? 1 : 0);
+            frequencies.writeInt(count);
+            frequencyCount++;
+        }
+
+        /**
+         * Записывает временный файл и атомарно переименовывает его в файл сегмента.
+         * Заголовок с контрольной суммой пишется последним.
+         */
+        public void finish() throws IOException {
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                CRC32 crc = new CRC32();
+                channel.position(HEADER_SIZE);
+                write(channel, crc, ByteBuffer.wrap(pageBytes.toByteArray()));
+                write(channel, crc, ByteBuffer.wrap(termBytes.toByteArray()));
+                write(channel, crc, ByteBuffer.wrap(frequencyBytes.toByteArray()));
+                for (PostingList list : lists) {
+                    write(channel, crc, list.data());
+                }
+
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC);
+                header.putInt(VERSION);
+                header.putInt(delta ? 1 : 0);
+                header.putLong(watermark);
+                header.putInt(pageCount);
+                header.putInt(lists.size());
+                header.putInt(frequencyCount);
+                header.putLong(postingCount);
+                header.putLong(pageBytes.size() + termBytes.size() + frequencyBytes.size());
+                header.putLong(dataLength);
+                header.putLong(crc.getValue());
+                header.flip();
+                channel.position(0);
+                write(channel, null, header);
+                channel.force(true);
+            }
+            Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private static void write(FileChannel channel, CRC32 crc, ByteBuffer buffer) throws IOException {
+            if (crc != null) {
+                crc.update(buffer.duplicate());
+            }
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
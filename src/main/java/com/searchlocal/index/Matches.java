@@ -0,0 +1,120 @@
+package com.searchlocal.index;
+
+import java.util.Arrays;
+
+/**
+ * Страницы, найденные пересечением списков вхождений, с абсолютной релевантностью
+ */
+public class Matches {
+    private int[] pageIds = new int[16];
+    private float[] scores = new float[16];
+    private int size;
+
+    void add(int pageId, float score) {
+        if (size == pageIds.length) {
+            pageIds = Arrays.copyOf(pageIds, size * 2);
+            scores = Arrays.copyOf(scores, size * 2);
+        }
+        pageIds[size] = pageId;
+        scores[size] = score;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int pageId(int i) {
+        return pageIds[i];
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+
+    public float maxScore() {
+        float max = 0;
+        for (int i = 0; i < size; i++) {
+            max = Math.max(max, scores[i]);
+        }
+        return max;
+    }
+
+    /**
+     * Возвращает номера k лучших совпадений по убыванию релевантности.
+     * Использует кучу размера k, поэтому не сортирует все совпадения.
+     */
+    public int[] top(int k) {
+        k = Math.min(k, size);
+        int[] heap = new int[k];
+        int heapSize = 0;
+        for (int i = 0; i < size; i++) {
+            if (heapSize < k) {
+                heap[heapSize] = i;
+                siftUp(heap, heapSize++);
+            } else if (k > 0 && better(i, heap[0])) {
+                heap[0] = i;
+                siftDown(heap, 0, heapSize);
+            }
+        }
+
+        // Извлекаем из кучи худшие первыми и заполняем результат с конца
+        int[] result = new int[heapSize];
+        for (int n = heapSize; n > 0; n--) {
+            result[n - 1] = heap[0];
+            heap[0] = heap[n - 1];
+            siftDown(heap, 0, n - 1);
+        }
+        return result;
+    }
+
+    /**
+     * Выше релевантность, при равенстве - меньше id страницы
+     */
+    private boolean better(int a, int b) {
+        if (scores[a] != scores[b]) {
+            return scores[a] > scores[b];
+        }
+        return pageIds[a] < pageIds[b];
+    }
+
+    private void siftUp(int[] heap, int i) {
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!better(heap[parent], heap[i])) {
+                break;
+            }
+            swap(heap, parent, i);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int[] heap, int i, int heapSize) {
+        while (true) {
+            int left = 2 * i + 1;
+            if (left >= heapSize) {
+                break;
+            }
+            int worst = left;
+            int right = left + 1;
+            if (right < heapSize && better(heap[left], heap[right])) {
+                worst = right;
+            }
+            if (!better(heap[i], heap[worst])) {
+                break;
+            }
+            swap(heap, i, worst);
+            i = worst;
+        }
+    }
+
+    private static void swap(int[] heap, int a, int b) {
+        int tmp = heap[a];
+        heap[a] = heap[b];
+        heap[b] = tmp;
+    }
+}
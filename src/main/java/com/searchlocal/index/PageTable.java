@@ -0,0 +1,127 @@
+package com.searchlocal.index;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Метаданные страниц индекса в массивах, индексированных id страницы: сайт, видимость и длина.
+ * id страниц выдаются последовательностью базы данных и идут плотно, поэтому на страницу
+ * приходится 8 байт без отдельных объектов на куче. Страницы сайта находятся проходом по массиву.
+ */
+class PageTable {
+
+    /**
+     * Получатель страниц таблицы
+     */
+    interface Visitor {
+        void page(int pageId, int siteId, boolean live, int length);
+    }
+
+    // id сайта видимой страницы, минус id сайта теневой страницы, 0 - страницы нет
+    private int[] sites = new int[0];
+    private int[] lengths = new int[0];
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int pageId) {
+        return pageId < sites.length && sites[pageId] != 0;
+    }
+
+    /**
+     * id сайта страницы или 0, если страницы нет
+     */
+    int site(int pageId) {
+        return pageId < sites.length ? Math.abs(sites[pageId]) : 0;
+    }
+
+    /**
+     * true, если страница есть и принадлежит теневому поколению
+     */
+    boolean isShadow(int pageId) {
+        return pageId < sites.length && sites[pageId] < 0;
+    }
+
+    int length(int pageId) {
+        return pageId < lengths.length ? lengths[pageId] : 0;
+    }
+
+    /**
+     * Регистрирует страницу сайта
+     *
+     * @return false, если страница уже есть
+     */
+    boolean add(int pageId, int siteId, boolean live) {
+        ensureCapacity(pageId);
+        if (sites[pageId] != 0) {
+            return false;
+        }
+        sites[pageId] = live ? siteId : -siteId;
+        size++;
+        return true;
+    }
+
+    /**
+     * Снимает регистрацию страницы вместе с ее длиной
+     */
+    void remove(int pageId) {
+        if (!contains(pageId)) {
+            return;
+        }
+        sites[pageId] = 0;
+        lengths[pageId] = 0;
+        size--;
+    }
+
+    void addLength(int pageId, int delta) {
+        ensureCapacity(pageId);
+        lengths[pageId] += delta;
+    }
+
+    /**
+     * Делает теневую страницу видимой
+     */
+    void setLive(int pageId) {
+        if (isShadow(pageId)) {
+            sites[pageId] = -sites[pageId];
+        }
+    }
+
+    /**
+     * Видимые или теневые страницы сайта
+     */
+    BitSet pages(int siteId, boolean live) {
+        int encoded = live ? siteId : -siteId;
+        BitSet pages = new BitSet();
+        for (int pageId = 0; pageId < sites.length; pageId++) {
+            if (sites[pageId] == encoded) {
+                pages.set(pageId);
+            }
+        }
+        return pages;
+    }
+
+    void forEach(Visitor visitor) {
+        for (int pageId = 0; pageId < sites.length; pageId++) {
+            if (sites[pageId] != 0) {
+                visitor.page(pageId, Math.abs(sites[pageId]), sites[pageId] > 0, lengths[pageId]);
+            }
+        }
+    }
+
+    void clear() {
+        sites = new int[0];
+        lengths = new int[0];
+        size = 0;
+    }
+
+    private void ensureCapacity(int pageId) {
+        if (pageId >= sites.length) {
+            int capacity = Math.max(pageId + 1, sites.length + (sites.length >> 1) + 16);
+            sites = Arrays.copyOf(sites, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.searchlocal.index;
+
+import java.util.Arrays;
+
+/**
+ * Сжатие позиций леммы на странице: возрастающие номера слов хранятся
+ * разностями в формате varint, поэтому большинство позиций занимает один байт
+ */
+public class PositionCodec {
+
+    private PositionCodec() {
+    }
+
+    /**
+     * Кодирует возрастающие позиции; для null возвращает null
+     */
+    public static byte[] encode(int[] positions) {
+        if (positions == null) {
+            return null;
+        }
+        byte[] buffer = new byte[positions.length * 5];
+        int length = 0;
+        int previous = -1;
+        for (int position : positions) {
+            length = writeVarInt(buffer, length, position - previous);
+            previous = position;
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    /**
+     * Декодирует позиции; для null возвращает null
+     */
+    public static int[] decode(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        int[] positions = new int[data.length];
+        int count = 0;
+        int position = -1;
+        int offset = 0;
+        while (offset < data.length) {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[offset++];
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            position += value;
+            positions[count++] = position;
+        }
+        return Arrays.copyOf(positions, count);
+    }
+
+    static int writeVarInt(byte[] buffer, int offset, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[offset++] = (byte) value;
+        return offset;
+    }
+}
@@ -0,0 +1,129 @@
+package com.searchlocal.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Условия запроса на позиции слов: фразы в кавычках должны встречаться подряд,
+ * а страницы, где леммы запроса стоят ближе друг к другу, получают надбавку к релевантности.
+ * Для страниц без сохраненных позиций условия не проверяются.
+ */
+public class PositionalQuery {
+    private final float proximityWeight;
+    private final List<int[]> phraseLemmaIds = new ArrayList<>();
+    private final List<int[]> phraseOffsets = new ArrayList<>();
+
+    /**
+     * @param proximityWeight надбавка для страницы, где все леммы запроса стоят подряд
+     */
+    public PositionalQuery(float proximityWeight) {
+        this.proximityWeight = proximityWeight;
+    }
+
+    /**
+     * Добавляет фразу
+     *
+     * @param lemmaIds id лемм фразы
+     * @param offsets позиция каждой леммы относительно начала фразы
+     */
+    public void addPhrase(int[] lemmaIds, int[] offsets) {
+        phraseLemmaIds.add(lemmaIds);
+        phraseOffsets.add(offsets);
+    }
+
+    /**
+     * Часть ключа кэша запросов, описывающая фразы
+     */
+    public String cacheKey() {
+        StringBuilder key = new StringBuilder();
+        for (int i = 0; i < phraseLemmaIds.size(); i++) {
+            key.append(Arrays.toString(phraseLemmaIds.get(i)))
+                    .append(Arrays.toString(phraseOffsets.get(i)));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Проверяет фразы и считает множитель релевантности страницы
+     *
+     * @param lemmaIds id лемм запроса
+     * @param positions позиции каждой леммы на странице, null - позиции не сохранены
+     * @return множитель релевантности или 0, если фраза на странице не найдена
+     */
+    float evaluate(List<Integer> lemmaIds, int[][] positions) {
+        for (int[] lemmaPositions : positions) {
+            if (lemmaPositions == null) {
+                return 1;
+            }
+        }
+
+        for (int i = 0; i < phraseLemmaIds.size(); i++) {
+            if (!containsPhrase(lemmaIds, positions, phraseLemmaIds.get(i), phraseOffsets.get(i))) {
+                return 0;
+            }
+        }
+
+        if (positions.length < 2 || proximityWeight == 0) {
+            return 1;
+        }
+        int span = minimalSpan(positions);
+        return 1 + proximityWeight * (positions.length - 1) / Math.max(span, positions.length - 1);
+    }
+
+    private static boolean containsPhrase(List<Integer> lemmaIds, int[][] positions, int[] phrase, int[] offsets) {
+        // Леммы фразы, исключенные из запроса как слишком частые, не проверяются
+        int[] terms = new int[phrase.length];
+        int count = 0;
+        for (int i = 0; i < phrase.length; i++) {
+            int index = lemmaIds.indexOf(phrase[i]);
+            if (index >= 0) {
+                terms[count] = i;
+                count++;
+            }
+        }
+        if (count < 2) {
+            return true;
+        }
+
+        int[] first = positions[lemmaIds.indexOf(phrase[terms[0]])];
+        for (int start : first) {
+            int phraseStart = start - offsets[terms[0]];
+            boolean matched = true;
+            for (int t = 1; t < count && matched; t++) {
+                int[] lemmaPositions = positions[lemmaIds.indexOf(phrase[terms[t]])];
+                matched = Arrays.binarySearch(lemmaPositions, phraseStart + offsets[terms[t]]) >= 0;
+            }
+            if (matched) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Наименьшее расстояние между первой и последней позицией окна,
+     * содержащего хотя бы одно вхождение каждой леммы
+     */
+    private static int minimalSpan(int[][] positions) {
+        int[] next = new int[positions.length];
+        int best = Integer.MAX_VALUE;
+        while (true) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            int minTerm = -1;
+            for (int t = 0; t < positions.length; t++) {
+                int position = positions[t][next[t]];
+                if (position < min) {
+                    min = position;
+                    minTerm = t;
+                }
+                max = Math.max(max, position);
+            }
+            best = Math.min(best, max - min);
+            if (++next[minTerm] >= positions[minTerm].length) {
+                return best;
+            }
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.searchlocal.index;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Сжатый список вхождений леммы: отсортированные id страниц с рангом и, для сайтов
+ * с позиционным индексом, позициями слов. Id хранятся дельтами в формате varint,
+ * ранг (количество вхождений) - varint, затем число позиций и их разности (см. {@link PositionCodec}).
+ * Каждые {@link #SKIP_INTERVAL} записей запоминается точка пропуска,
+ * по которой курсор перескакивает блоки при пересечении списков.
+ * Список из сегмента на диске читает данные прямо из отображенного в память файла
+ * и копирует их в кучу только при первом изменении.
+ */
+public class PostingList {
+    static final int SKIP_INTERVAL = 64;
+    /**
+     * Ранг в пакете {@link #update}, означающий удаление страницы
+     */
+    public static final int REMOVED = -1;
+
+    /**
+     * Получатель изменений состава списка при пакетном обновлении
+     */
+    public interface MembershipListener {
+        /**
+         * @param delta 1 - страница добавлена в список, -1 - удалена
+         */
+        void changed(int pageId, int delta);
+    }
+
+    private byte[] data;
+    // Данные в отображенном сегменте; null, если список хранится в куче
+    private ByteBuffer mapped;
+    private int length;
+    private int size;
+    private int lastPageId = -1;
+
+    // Для блока k: id страницы перед началом блока и смещение начала блока
+    private int[] skipPrevIds = new int[1];
+    private int[] skipOffsets = new int[1];
+    private int skipCount;
+    // Увеличивается при каждом изменении содержимого списка
+    private int version;
+
+    public PostingList() {
+        this(16);
+    }
+
+    private PostingList(int capacity) {
+        data = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Создает список поверх данных сегмента
+     *
+     * @param buffer данные списка, начиная с нулевого смещения
+     */
+    static PostingList mapped(ByteBuffer buffer, int size, int lastPageId, int[] skipPrevIds, int[] skipOffsets) {
+        PostingList list = new PostingList();
+        list.data = null;
+        list.mapped = buffer;
+        list.length = buffer.limit();
+        list.size = size;
+        list.lastPageId = lastPageId;
+        list.skipPrevIds = skipPrevIds;
+        list.skipOffsets = skipOffsets;
+        list.skipCount = skipPrevIds.length;
+        return list;
+    }
+
+    /**
+     * Неизменяемый вид текущего содержимого списка для записи в сегмент без блокировки индекса.
+     * Вид разделяет массивы со списком: дописывание в список идет за их концом,
+     * а пересборка создает новые массивы. Сам вид изменять нельзя.
+     */
+    PostingList snapshot() {
+        PostingList view = new PostingList();
+        view.data = data;
+        view.mapped = mapped;
+        view.length = length;
+        view.size = size;
+        view.lastPageId = lastPageId;
+        view.skipPrevIds = skipPrevIds;
+        view.skipOffsets = skipOffsets;
+        view.skipCount = skipCount;
+        return view;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Объем сжатых данных в байтах
+     */
+    public int byteSize() {
+        return length;
+    }
+
+    /**
+     * true, если данные списка читаются из сегмента на диске
+     */
+    public boolean isMapped() {
+        return mapped != null;
+    }
+
+    /**
+     * Номер изменения списка: по нему проверяется, что список не менялся
+     * с момента создания курсора
+     */
+    int version() {
+        return version;
+    }
+
+    int lastPageId() {
+        return lastPageId;
+    }
+
+    int skipCount() {
+        return skipCount;
+    }
+
+    int skipPrevId(int block) {
+        return skipPrevIds[block];
+    }
+
+    int skipOffset(int block) {
+        return skipOffsets[block];
+    }
+
+    /**
+     * Сжатые данные списка только для чтения
+     */
+    ByteBuffer data() {
+        return mapped != null ? mapped.asReadOnlyBuffer() : ByteBuffer.wrap(data, 0, length).slice();
+    }
+
+    /**
+     * Добавляет страницу в список или заменяет ее ранг. Страницы с возрастающими id
+     * дописываются в конец, остальные вставляются с пересборкой списка.
+     *
+     * @param positions возрастающие позиции слов или null, если позиции не хранятся
+     * @return true, если страницы не было в списке
+     */
+    public boolean add(int pageId, float rank, int[] positions) {
+        if (pageId > lastPageId) {
+            append(pageId, Math.round(rank), positions);
+            return true;
+        }
+        int[] delta = new int[1];
+        update(new int[]{pageId}, new int[]{Math.round(rank)}, new int[][]{positions}, 1,
+                (id, change) -> delta[0] = change);
+        return delta[0] > 0;
+    }
+
+    /**
+     * Удаляет страницу из списка
+     *
+     * @return true, если страница была в списке
+     */
+    public boolean remove(int pageId) {
+        int[] delta = new int[1];
+        update(new int[]{pageId}, new int[]{REMOVED}, new int[1][], 1, (id, change) -> delta[0] = change);
+        return delta[0] < 0;
+    }
+
+    /**
+     * Применяет пакет изменений одним слиянием со списком: страницы добавляются,
+     * их ранги заменяются или страницы удаляются, а список пересобирается один раз.
+     * Если все id пакета больше последнего id списка, записи просто дописываются в конец.
+     *
+     * @param pageIds возрастающие id страниц
+     * @param ranks новые ранги; {@link #REMOVED} - удалить страницу
+     * @param positions новые позиции или null
+     * @param count число изменений в массивах
+     * @param listener получает страницы, которые появились в списке или исчезли из него
+     */
+    public void update(int[] pageIds, int[] ranks, int[][] positions, int count, MembershipListener listener) {
+        if (count == 0) {
+            return;
+        }
+        if (pageIds[0] > lastPageId) {
+            for (int i = 0; i < count; i++) {
+                if (ranks[i] != REMOVED) {
+                    append(pageIds[i], ranks[i], positions[i]);
+                    listener.changed(pageIds[i], 1);
+                }
+            }
+            return;
+        }
+
+        PostingList merged = new PostingList(length + count * 8);
+        Cursor cursor = cursor();
+        boolean hasOld = cursor.next();
+        int i = 0;
+        while (hasOld || i < count) {
+            if (i >= count || (hasOld && cursor.pageId() < pageIds[i])) {
+                merged.appendFrom(cursor);
+                hasOld = cursor.next();
+                continue;
+            }
+            boolean present = hasOld && cursor.pageId() == pageIds[i];
+            if (ranks[i] != REMOVED) {
+                merged.append(pageIds[i], ranks[i], positions[i]);
+                if (!present) {
+                    listener.changed(pageIds[i], 1);
+                }
+            } else if (present) {
+                listener.changed(pageIds[i], -1);
+            }
+            if (present) {
+                hasOld = cursor.next();
+            }
+            i++;
+        }
+        replaceWith(merged);
+    }
+
+    /**
+     * Удаляет все страницы, подходящие под условие, с одной пересборкой списка
+     *
+     * @return количество удаленных страниц
+     */
+    public int removeAll(IntPredicate condition) {
+        PostingList kept = without(cursor(), condition);
+        int removed = size - kept.size;
+        if (removed > 0) {
+            replaceWith(kept);
+        }
+        return removed;
+    }
+
+    /**
+     * Новый список из оставшихся записей курсора, не подходящих под условие.
+     * Исходный список не меняется, поэтому новый можно строить без блокировки индекса.
+     */
+    static PostingList without(Cursor cursor, IntPredicate condition) {
+        PostingList kept = new PostingList(cursor.end);
+        while (cursor.next()) {
+            if (!condition.test(cursor.pageId())) {
+                kept.appendFrom(cursor);
+            }
+        }
+        return kept;
+    }
+
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    private void append(int pageId, int rank, int[] positions) {
+        int positionCount = positions != null ? positions.length : 0;
+        int start = startRecord(pageId, rank, positionCount, positionCount * 5);
+        int previous = -1;
+        for (int i = 0; i < positionCount; i++) {
+            start = PositionCodec.writeVarInt(data, start, positions[i] - previous);
+            previous = positions[i];
+        }
+        length = start;
+    }
+
+    /**
+     * Дописывает текущую запись курсора другого списка, копируя позиции без декодирования
+     */
+    private void appendFrom(Cursor cursor) {
+        int positionBytes = cursor.positionsEnd() - cursor.positionsOffset;
+        int start = startRecord(cursor.pageId(), cursor.rank(), cursor.positionCount, positionBytes);
+        cursor.copyPositions(data, start);
+        length = start + positionBytes;
+    }
+
+    /**
+     * Пишет id, ранг и число позиций новой записи и резервирует место под позиции
+     *
+     * @return смещение, с которого пишутся позиции
+     */
+    private int startRecord(int pageId, int rank, int positionCount, int positionBytes) {
+        if (mapped != null) {
+            detach();
+        }
+        if (size % SKIP_INTERVAL == 0) {
+            if (skipCount == skipPrevIds.length) {
+                skipPrevIds = Arrays.copyOf(skipPrevIds, skipCount * 2);
+                skipOffsets = Arrays.copyOf(skipOffsets, skipCount * 2);
+            }
+            skipPrevIds[skipCount] = lastPageId;
+            skipOffsets[skipCount] = length;
+            skipCount++;
+        }
+        ensureCapacity(length + 15 + positionBytes);
+        int offset = PositionCodec.writeVarInt(data, length, pageId - lastPageId);
+        offset = PositionCodec.writeVarInt(data, offset, rank);
+        offset = PositionCodec.writeVarInt(data, offset, positionCount);
+        lastPageId = pageId;
+        size++;
+        version++;
+        return offset;
+    }
+
+    /**
+     * Переключает список на данные пересобранного списка. Прежние массивы не изменяются,
+     * поэтому курсоры, открытые до пересборки, дочитывают прежнее содержимое.
+     */
+    private void replaceWith(PostingList other) {
+        data = other.data;
+        mapped = other.mapped;
+        length = other.length;
+        size = other.size;
+        lastPageId = other.lastPageId;
+        skipPrevIds = other.skipPrevIds;
+        skipOffsets = other.skipOffsets;
+        skipCount = other.skipCount;
+        version++;
+    }
+
+    /**
+     * Копирует данные сегмента в кучу перед изменением списка
+     */
+    private void detach() {
+        data = new byte[Math.max(16, length * 2)];
+        mapped.duplicate().get(data, 0, length);
+        mapped = null;
+        skipPrevIds = Arrays.copyOf(skipPrevIds, Math.max(1, skipCount));
+        skipOffsets = Arrays.copyOf(skipOffsets, Math.max(1, skipCount));
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > data.length) {
+            data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+        }
+    }
+
+    /**
+     * Последовательный курсор по списку с поддержкой перехода к id не меньше заданного
+     */
+    public class Cursor {
+        // Состояние списка на момент создания курсора: пересборка списка его не меняет
+        private final byte[] bytes = data;
+        private final ByteBuffer buffer = mapped;
+        private final int count = size;
+        private final int end = length;
+        private final int blocks = skipCount;
+        private final int[] blockPrevIds = skipPrevIds;
+        private final int[] blockOffsets = skipOffsets;
+        private int offset;
+        private int index = -1;
+        private int pageId = -1;
+        private int rank;
+        private int positionCount;
+        private int positionsOffset;
+
+        public int pageId() {
+            return pageId;
+        }
+
+        public int rank() {
+            return rank;
+        }
+
+        /**
+         * Переходит к следующей записи
+         */
+        public boolean next() {
+            if (index + 1 >= count) {
+                index = count;
+                pageId = Integer.MAX_VALUE;
+                return false;
+            }
+            pageId += readVarInt();
+            rank = readVarInt();
+            positionCount = readVarInt();
+            positionsOffset = offset;
+            // Пропускаем позиции, не декодируя их
+            for (int i = 0; i < positionCount; i++) {
+                skipVarInt();
+            }
+            index++;
+            return true;
+        }
+
+        /**
+         * Позиции слов текущей записи или null, если они не хранятся
+         */
+        public int[] positions() {
+            if (positionCount == 0) {
+                return null;
+            }
+            int saved = offset;
+            offset = positionsOffset;
+            int[] positions = new int[positionCount];
+            int position = -1;
+            for (int i = 0; i < positionCount; i++) {
+                position += readVarInt();
+                positions[i] = position;
+            }
+            offset = saved;
+            return positions;
+        }
+
+        /**
+         * Переходит к первой записи с id не меньше target.
+         * Сначала галопом ищет блок по точкам пропуска, затем декодирует блок.
+         */
+        public boolean advance(int target) {
+            if (index >= 0 && pageId >= target) {
+                return index < count;
+            }
+
+            int block = index < 0 ? 0 : index / SKIP_INTERVAL;
+            if (block + 1 < blocks && blockPrevIds[block + 1] < target) {
+                int low = block + 1;
+                int step = 1;
+                int high = low + step;
+                while (high < blocks && blockPrevIds[high] < target) {
+                    low = high;
+                    step <<= 1;
+                    high = low + step;
+                }
+                high = Math.min(high, blocks);
+                // Последний блок, начинающийся до target, в диапазоне [low, high)
+                while (low + 1 < high) {
+                    int mid = (low + high) >>> 1;
+                    if (blockPrevIds[mid] < target) {
+                        low = mid;
+                    } else {
+                        high = mid;
+                    }
+                }
+                offset = blockOffsets[low];
+                pageId = blockPrevIds[low];
+                index = low * SKIP_INTERVAL - 1;
+            }
+
+            while (next()) {
+                if (pageId >= target) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Смещение конца позиций текущей записи
+         */
+        int positionsEnd() {
+            return offset;
+        }
+
+        void copyPositions(byte[] target, int targetOffset) {
+            int length = offset - positionsOffset;
+            if (buffer != null) {
+                buffer.duplicate().position(positionsOffset).get(target, targetOffset, length);
+            } else {
+                System.arraycopy(bytes, positionsOffset, target, targetOffset, length);
+            }
+        }
+
+        private void skipVarInt() {
+            while ((read(offset) & 0x80) != 0) {
+                offset++;
+            }
+            offset++;
+        }
+
+        private int readVarInt() {
+            int value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = read(offset++);
+                value |= (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+
+        private byte read(int position) {
+            return buffer != null ? buffer.get(position) : bytes[position];
+        }
+    }
+}
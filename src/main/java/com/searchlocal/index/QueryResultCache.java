@@ -0,0 +1,100 @@
+package com.searchlocal.index;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кэш ранжированных результатов запросов с вытеснением давно не использованных.
+ * Запись действительна, только пока поколение индекса не изменилось:
+ * любая запись в индекс делает все ранее сохраненные результаты устаревшими.
+ */
+@Component
+public class QueryResultCache {
+    private final int capacity;
+    private final int depth;
+    private final Map<String, RankedPages> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public QueryResultCache(
+            @Value("${search.cache.size:1000}") int capacity,
+            @Value("${search.cache.depth:200}") int depth) {
+        this.capacity = capacity;
+        this.depth = depth;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, RankedPages> eldest) {
+                if (size() > QueryResultCache.this.capacity) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Ключ запроса: упорядоченный набор id лемм, фильтр по сайту и фразы
+     */
+    public static String key(Iterable<Integer> lemmaIds, Integer siteId, String phrases) {
+        StringBuilder key = new StringBuilder();
+        for (Integer lemmaId : lemmaIds) {
+            key.append(lemmaId).append(',');
+        }
+        return key.append('|').append(siteId).append('|').append(phrases).toString();
+    }
+
+    /**
+     * Возвращает результаты, если они посчитаны для текущего поколения индекса
+     * и покрывают запрошенные позиции
+     */
+    public synchronized RankedPages get(String key, long generation, int end) {
+        RankedPages ranked = entries.get(key);
+        if (ranked == null || ranked.getGeneration() != generation || !ranked.covers(end)) {
+            if (ranked != null && ranked.getGeneration() != generation) {
+                entries.remove(key);
+            }
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return ranked;
+    }
+
+    public synchronized void put(String key, RankedPages ranked) {
+        entries.put(key, ranked);
+    }
+
+    /**
+     * Сколько лучших страниц сохранять для запроса, чтобы отдавать из кэша следующие страницы выдачи
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+}
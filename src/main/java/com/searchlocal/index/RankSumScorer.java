@@ -0,0 +1,23 @@
+package com.searchlocal.index;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Исходная релевантность: сумма количеств вхождений лемм запроса на странице
+ */
+@Component
+public class RankSumScorer implements RelevanceScorer {
+    public static final String NAME = "rank-sum";
+
+    private static final TermScorer RANK = (rank, pageLength) -> rank;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public TermScorer termScorer(int documentFrequency, int pageCount, double averagePageLength) {
+        return RANK;
+    }
+}
@@ -0,0 +1,74 @@
+package com.searchlocal.index;
+
+/**
+ * Лучшие страницы по запросу в порядке убывания релевантности.
+ * Хранит не больше заданного числа страниц, но помнит общее количество совпадений.
+ */
+public class RankedPages {
+    private final long generation;
+    private final int total;
+    private final float maxScore;
+    private final int[] pageIds;
+    private final float[] scores;
+
+    private RankedPages(long generation, int total, float maxScore, int[] pageIds, float[] scores) {
+        this.generation = generation;
+        this.total = total;
+        this.maxScore = maxScore;
+        this.pageIds = pageIds;
+        this.scores = scores;
+    }
+
+    /**
+     * Отбирает depth лучших совпадений
+     *
+     * @param generation поколение индекса, по которому найдены совпадения
+     */
+    public static RankedPages of(Matches matches, int depth, long generation) {
+        int[] top = matches.top(depth);
+        int[] pageIds = new int[top.length];
+        float[] scores = new float[top.length];
+        for (int i = 0; i < top.length; i++) {
+            pageIds[i] = matches.pageId(top[i]);
+            scores[i] = matches.score(top[i]);
+        }
+        return new RankedPages(generation, matches.size(), matches.maxScore(), pageIds, scores);
+    }
+
+    public long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Общее количество найденных страниц
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    public float getMaxScore() {
+        return maxScore;
+    }
+
+    /**
+     * Количество сохраненных лучших страниц
+     */
+    public int size() {
+        return pageIds.length;
+    }
+
+    /**
+     * Хватает ли сохраненных страниц, чтобы отдать результаты до позиции end
+     */
+    public boolean covers(int end) {
+        return end <= pageIds.length || pageIds.length == total;
+    }
+
+    public int pageId(int i) {
+        return pageIds[i];
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+}
@@ -0,0 +1,34 @@
+package com.searchlocal.index;
+
+/**
+ * Способ расчета абсолютной релевантности страницы: сумма оценок лемм запроса.
+ * Оценка леммы зависит только от данных списка вхождений и статистик,
+ * посчитанных при индексации, поэтому считается без обращений к базе.
+ */
+public interface RelevanceScorer {
+
+    /**
+     * Оценка вхождений одной леммы запроса
+     */
+    interface TermScorer {
+        /**
+         * @param rank количество вхождений леммы на странице
+         * @param pageLength длина страницы в леммах
+         */
+        float score(int rank, int pageLength);
+    }
+
+    /**
+     * Имя для выбора в настройке search.scorer
+     */
+    String getName();
+
+    /**
+     * Готовит оценку леммы для запроса
+     *
+     * @param documentFrequency количество страниц с леммой в области поиска
+     * @param pageCount количество страниц в области поиска
+     * @param averagePageLength средняя длина страницы в области поиска
+     */
+    TermScorer termScorer(int documentFrequency, int pageCount, double averagePageLength);
+}
@@ -0,0 +1,1206 @@
+package com.searchlocal.index;
+
+import com.searchlocal.model.Lemma;
+import com.searchlocal.repository.IndexRepository;
+import com.searchlocal.repository.IndexStateRepository;
+import com.searchlocal.repository.LemmaRepository;
+import com.searchlocal.repository.PageRepository;
+import com.searchlocal.util.LemmaOccurrences;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Инвертированный индекс в памяти: лемма -> сжатый список страниц с рангом.
+ * Строится из таблиц lemma/index при старте и обновляется при индексации страниц;
+ * таблицы остаются источником истины, поиск работает только с памятью.
+ * Страницы теневого поколения сайта (переиндексация) хранятся в списках, но скрыты
+ * от поиска до атомарного переключения поколения.
+ * Число видимых страниц с леммой ведется отдельно для каждого сайта и для всего индекса,
+ * число теневых - по сайтам; при переключении поколения теневые частоты прибавляются к видимым,
+ * а новые списки без страниц старого поколения строятся до захвата блокировки записи.
+ * Длина страницы (сумма рангов ее лемм) считается при индексации и используется при оценке релевантности.
+ * Сайт, поколение и длина страницы хранятся в массивах по id страницы ({@link PageTable}),
+ * частоты лемм - в счетчиках без упаковки ({@link CountMap}).
+ * Изменения страниц одной транзакции применяются после коммита одним пакетом:
+ * каждый затронутый список вхождений пересобирается один раз.
+ * Изменения периодически записываются в фоне в дельту к базовому сегменту на диске ({@link IndexSegment}),
+ * после чего списки вхождений читаются из отображенного в память файла, а не из кучи.
+ * Каждая транзакция, меняющая индекс, при коммите увеличивает версию изменений в базе данных
+ * ({@link IndexStateRepository}); сегмент хранит версию, до которой учтены все изменения.
+ * При старте индекс открывается из цепочки сегментов, если она цела и ее версия совпадает с базой данных;
+ * при остановке приложения несохраненные изменения записываются в новый сегмент.
+ */
+@Component
+public class SearchIndex {
+    private static final Logger logger = LoggerFactory.getLogger(SearchIndex.class);
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    public static final String SOURCE_SEGMENT = "segment";
+    public static final String SOURCE_DATABASE = "database";
+    // Наибольшее число дельт после базового сегмента до их слияния
+    private static final int MAX_DELTAS = 32;
+
+    private final LemmaRepository lemmaRepository;
+    private final PageRepository pageRepository;
+    private final IndexRepository indexRepository;
+    private final IndexStateRepository indexStateRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Integer> lemmaIds = new HashMap<>();
+    private final Map<Integer, String> lemmaTexts = new HashMap<>();
+    private final Map<Integer, PostingList> postings = new HashMap<>();
+    // Сайт, поколение и длина страниц в массивах по id страницы
+    private final PageTable pageTable = new PageTable();
+    private final Map<Integer, Integer> sitePageCounts = new HashMap<>();
+    private int livePageCount;
+    // id леммы -> число видимых страниц; id сайта -> то же в пределах сайта
+    private final CountMap documentFrequencies = new CountMap();
+    private final Map<Integer, CountMap> siteDocumentFrequencies = new HashMap<>();
+    // id сайта -> id леммы -> число теневых страниц сайта с леммой
+    private final Map<Integer, CountMap> shadowFrequencies = new HashMap<>();
+    // Суммарная длина видимых страниц сайта и всего индекса
+    private final Map<Integer, Long> siteLengths = new HashMap<>();
+    private long totalLength;
+    private final AtomicLong generation = new AtomicLong();
+    // Ключ изменений индекса текущей транзакции
+    private final Object pendingChanges = new Object();
+    // Версия изменений базы данных, до которой применены все изменения, и примененные версии после пропуска
+    private long appliedVersion;
+    private final TreeSet<Long> appliedAhead = new TreeSet<>();
+    private volatile boolean loaded;
+
+    private final Path segmentDirectory;
+    private final long mergeIntervalMillis;
+    // Слияния выполняются по одному: цепочка сегментов, номер сегмента и отметки изменений
+    // меняются только под этой блокировкой
+    private final Lock mergeLock = new ReentrantLock();
+    private final ScheduledExecutorService merger = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "index-segment-merger");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Поколение индекса, записанное в последний сегмент, и номер последнего сегмента
+    private volatile long mergedGeneration = -1;
+    private long segmentNumber;
+    private volatile long segmentSize;
+    // Базовый сегмент и дельты после него; пусто, пока полный сегмент не записан
+    private final List<IndexSegment> segments = new ArrayList<>();
+    // Записи, изменившиеся после сбора последнего сегмента: страницы, леммы и леммы сайтов в частотах
+    private final Set<Integer> dirtyPages = new HashSet<>();
+    private final Set<Integer> dirtyLemmas = new HashSet<>();
+    private final Map<Integer, Set<Integer>> dirtyFrequencies = new HashMap<>();
+
+    // Откуда и за сколько загружен индекс, время от старта JVM до готовности к поиску
+    private volatile String loadSource;
+    private volatile long loadMillis;
+    private volatile long startupMillis;
+
+    public SearchIndex(
+            LemmaRepository lemmaRepository,
+            PageRepository pageRepository,
+            IndexRepository indexRepository,
+            IndexStateRepository indexStateRepository,
+            @Value("${search.segment.dir:index-segments}") String segmentDirectory,
+            @Value("${search.segment.merge-interval-ms:60000}") long mergeIntervalMillis) {
+        this.lemmaRepository = lemmaRepository;
+        this.pageRepository = pageRepository;
+        this.indexRepository = indexRepository;
+        this.indexStateRepository = indexStateRepository;
+        this.segmentDirectory = Paths.get(segmentDirectory);
+        this.mergeIntervalMillis = mergeIntervalMillis;
+    }
+
+    /**
+     * Загружает индекс после старта приложения: из цепочки сегментов на диске,
+     * если она соответствует базе данных, иначе из таблиц lemma/index
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    @Transactional(readOnly = true)
+    public void load() {
+        long start = System.currentTimeMillis();
+        lock.writeLock().lock();
+        try {
+            long databaseVersion = indexStateRepository.currentVersion();
+            List<IndexSegment> chain = openSegments();
+            if (chain != null && loadSegments(chain, databaseVersion)) {
+                loadSource = SOURCE_SEGMENT;
+                segments.addAll(chain);
+                for (IndexSegment segment : chain) {
+                    segmentSize += segment.fileSize();
+                }
+                mergedGeneration = generation.get() + 1;
+            } else {
+                loadDatabase();
+                loadSource = SOURCE_DATABASE;
+            }
+            clearDirty();
+            appliedVersion = databaseVersion;
+            appliedAhead.clear();
+            loaded = true;
+            generation.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        loadMillis = System.currentTimeMillis() - start;
+        startupMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+        logger.info("Поисковый индекс загружен из {} за {} мс ({} мс от старта): {} лемм, {} страниц",
+                SOURCE_SEGMENT.equals(loadSource) ? "сегментов" : "базы данных",
+                loadMillis, startupMillis, postings.size(), livePageCount);
+        merger.scheduleWithFixedDelay(this::mergeIfChanged, mergeIntervalMillis, mergeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Дожидается текущего слияния и записывает несохраненные изменения в сегмент.
+     * Если слияние не завершилось за минуту, последнее слияние не выполняется:
+     * несохраненные изменения будут загружены из базы данных при следующем старте.
+     */
+    @PreDestroy
+    public void shutdown() {
+        merger.shutdown();
+        try {
+            if (!merger.awaitTermination(1, TimeUnit.MINUTES)) {
+                logger.warn("Слияние сегментов индекса не завершилось за минуту, изменения не записаны");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        mergeIfChanged();
+    }
+
+    public String getLoadSource() {
+        return loadSource;
+    }
+
+    public long getLoadMillis() {
+        return loadMillis;
+    }
+
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    /**
+     * Размер базового сегмента и дельт на диске в байтах
+     */
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * Поколение индекса: увеличивается при каждом изменении, по нему сбрасывается кэш запросов
+     */
+    public long generation() {
+        return generation.get();
+    }
+
+    /**
+     * Добавляет страницу в индекс. Внутри транзакции изменение применяется после коммита
+     * вместе с остальными изменениями страниц транзакции.
+     *
+     * @param live false для страницы теневого поколения, скрытой до {@link #activateShadow}
+     * @param lemmaIdsByText лемма -> id леммы в таблице lemma
+     * @param lemmas количество вхождений и позиции лемм на странице
+     */
+    public void addPage(int pageId, int siteId, boolean live,
+                        Map<String, Integer> lemmaIdsByText, LemmaOccurrences lemmas) {
+        int length = 0;
+        for (Map.Entry<String, Integer> entry : lemmas.getRanks().entrySet()) {
+            if (lemmaIdsByText.containsKey(entry.getKey())) {
+                length += entry.getValue();
+            }
+        }
+        afterCommit(new PageChange(pageId, siteId, live, length, Collections.emptyList(), lemmaIdsByText, lemmas));
+    }
+
+    /**
+     * Обновляет леммы проиндексированной страницы: удаляет ее из списков исчезнувших лемм
+     * и добавляет или заменяет ранги остальных
+     *
+     * @param pageLength новая длина страницы - сумма рангов всех ее лемм
+     * @param removedLemmaIds id лемм, которых больше нет на странице
+     * @param lemmaIdsByText лемма -> id леммы в таблице lemma
+     * @param lemmas новые количества вхождений и позиции добавленных и изменившихся лемм
+     */
+    public void updatePage(int pageId, int pageLength, Collection<Integer> removedLemmaIds,
+                           Map<String, Integer> lemmaIdsByText, LemmaOccurrences lemmas) {
+        afterCommit(new PageChange(pageId, null, false, pageLength, removedLemmaIds, lemmaIdsByText, lemmas));
+    }
+
+    /**
+     * Атомарно переключает сайт на теневое поколение: видимые страницы сайта,
+     * кроме перенесенных в новое поколение, удаляются из списков вхождений,
+     * теневые становятся видимыми. Под блокировкой записи подставляются заранее
+     * построенные списки и переносятся счетчики теневых страниц.
+     *
+     * @param carriedPages id видимых страниц, перенесенных в новое поколение без изменений
+     */
+    public void activateShadow(int siteId, Collection<Integer> carriedPages) {
+        afterCommit(() -> {
+            Removal removal = prepareRemoval(siteId, true, carriedPages);
+            lock.writeLock().lock();
+            try {
+                removePages(siteId, true, carriedPages, removal);
+                BitSet newPages = pageTable.pages(siteId, false);
+                if (!newPages.isEmpty()) {
+                    long newLength = 0;
+                    for (int pageId = newPages.nextSetBit(0); pageId >= 0; pageId = newPages.nextSetBit(pageId + 1)) {
+                        pageTable.setLive(pageId);
+                        newLength += pageTable.length(pageId);
+                        dirtyPages.add(pageId);
+                    }
+                    siteLengths.merge(siteId, newLength, Long::sum);
+                    totalLength += newLength;
+                    sitePageCounts.merge(siteId, newPages.cardinality(), Integer::sum);
+                    livePageCount += newPages.cardinality();
+                }
+                CountMap frequencies = shadowFrequencies.remove(siteId);
+                if (frequencies != null) {
+                    frequencies.forEach((lemmaId, count) -> countLemma(siteId, lemmaId, count));
+                }
+                generation.incrementAndGet();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Удаляет теневые страницы сайта, оставшиеся от прерванной переиндексации
+     */
+    public void removeShadow(int siteId) {
+        afterCommit(() -> {
+            Removal removal = prepareRemoval(siteId, false, Collections.emptySet());
+            lock.writeLock().lock();
+            try {
+                removePages(siteId, false, Collections.emptySet(), removal);
+                generation.incrementAndGet();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Возвращает id леммы или null, если лемма не встречается ни на одной странице
+     */
+    public Integer lemmaId(String lemma) {
+        lock.readLock().lock();
+        try {
+            Integer id = lemmaIds.get(lemma);
+            return id != null && postings.containsKey(id) ? id : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Количество видимых страниц сайта или всего индекса (siteId == null), на которых встречается лемма
+     */
+    public int documentFrequency(int lemmaId, Integer siteId) {
+        lock.readLock().lock();
+        try {
+            CountMap frequencies = siteId == null
+                    ? documentFrequencies
+                    : siteDocumentFrequencies.get(siteId);
+            return frequencies != null ? frequencies.get(lemmaId) : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Количество страниц сайта или всего индекса, если siteId == null
+     */
+    public int pageCount(Integer siteId) {
+        lock.readLock().lock();
+        try {
+            return siteId == null ? livePageCount : sitePageCounts.getOrDefault(siteId, 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Количество различных лемм видимых страниц сайта или всего индекса, если siteId == null
+     */
+    public int lemmaCount(Integer siteId) {
+        lock.readLock().lock();
+        try {
+            if (siteId == null) {
+                return documentFrequencies.size();
+            }
+            CountMap frequencies = siteDocumentFrequencies.get(siteId);
+            return frequencies != null ? frequencies.size() : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Позиции лемм на странице из списков вхождений: курсор каждого списка переходит
+     * к странице по точкам пропуска
+     *
+     * @param lemmaIds id лемм; null - лемма не проиндексирована
+     * @return позиции для каждой леммы в порядке lemmaIds; null, если лемма не встречается
+     *         на странице или позиции для нее не хранятся
+     */
+    public int[][] positions(int pageId, List<Integer> lemmaIds) {
+        int[][] positions = new int[lemmaIds.size()][];
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < positions.length; i++) {
+                Integer lemmaId = lemmaIds.get(i);
+                PostingList list = lemmaId == null ? null : postings.get(lemmaId);
+                if (list == null) {
+                    continue;
+                }
+                PostingList.Cursor cursor = list.cursor();
+                if (cursor.advance(pageId) && cursor.pageId() == pageId) {
+                    positions[i] = cursor.positions();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return positions;
+    }
+
+    /**
+     * Находит страницы, содержащие все леммы, и суммирует оценки лемм по выбранному способу.
+     * Леммы должны быть упорядочены от самой редкой к самой частой:
+     * первая задает кандидатов, остальные догоняют ее курсором с пропусками.
+     *
+     * @param positional условия на позиции слов или null
+     */
+    public Matches intersect(List<Integer> orderedLemmaIds, Integer siteId, RelevanceScorer scorer,
+                             PositionalQuery positional) {
+        Matches matches = new Matches();
+        if (orderedLemmaIds.isEmpty()) {
+            return matches;
+        }
+
+        lock.readLock().lock();
+        try {
+            PostingList.Cursor[] cursors = new PostingList.Cursor[orderedLemmaIds.size()];
+            RelevanceScorer.TermScorer[] termScorers = new RelevanceScorer.TermScorer[cursors.length];
+            int pageCount = siteId == null ? livePageCount : sitePageCounts.getOrDefault(siteId, 0);
+            long length = siteId == null ? totalLength : siteLengths.getOrDefault(siteId, 0L);
+            double averageLength = pageCount > 0 ? (double) length / pageCount : 0;
+            CountMap frequencies = siteId == null
+                    ? documentFrequencies
+                    : siteDocumentFrequencies.getOrDefault(siteId, CountMap.EMPTY);
+            for (int i = 0; i < cursors.length; i++) {
+                Integer lemmaId = orderedLemmaIds.get(i);
+                PostingList list = postings.get(lemmaId);
+                if (list == null) {
+                    return matches;
+                }
+                cursors[i] = list.cursor();
+                termScorers[i] = scorer.termScorer(frequencies.get(lemmaId), pageCount, averageLength);
+            }
+
+            int[][] positions = new int[cursors.length][];
+            PostingList.Cursor lead = cursors[0];
+            if (!lead.next()) {
+                return matches;
+            }
+            int candidate = lead.pageId();
+            while (true) {
+                boolean matched = true;
+                for (int i = 1; i < cursors.length; i++) {
+                    if (!cursors[i].advance(candidate)) {
+                        return matches;
+                    }
+                    if (cursors[i].pageId() > candidate) {
+                        if (!lead.advance(cursors[i].pageId())) {
+                            return matches;
+                        }
+                        candidate = lead.pageId();
+                        matched = false;
+                        break;
+                    }
+                }
+                if (!matched) {
+                    continue;
+                }
+
+                if (!pageTable.isShadow(candidate) && (siteId == null || siteId == pageTable.site(candidate))) {
+                    int pageLength = pageTable.length(candidate);
+                    float score = 0;
+                    for (int i = 0; i < cursors.length; i++) {
+                        score += termScorers[i].score(cursors[i].rank(), pageLength);
+                    }
+                    float factor = 1;
+                    if (positional != null) {
+                        for (int i = 0; i < cursors.length; i++) {
+                            positions[i] = cursors[i].positions();
+                        }
+                        factor = positional.evaluate(orderedLemmaIds, positions);
+                    }
+                    if (factor > 0) {
+                        matches.add(candidate, score * factor);
+                    }
+                }
+                if (!lead.next()) {
+                    return matches;
+                }
+                candidate = lead.pageId();
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void clear() {
+        lemmaIds.clear();
+        lemmaTexts.clear();
+        postings.clear();
+        pageTable.clear();
+        sitePageCounts.clear();
+        livePageCount = 0;
+        documentFrequencies.clear();
+        siteDocumentFrequencies.clear();
+        shadowFrequencies.clear();
+        siteLengths.clear();
+        totalLength = 0;
+    }
+
+    private void loadDatabase() {
+        clear();
+        for (Lemma lemma : lemmaRepository.findAll()) {
+            putLemma(lemma.getLemma(), lemma.getId());
+        }
+        for (Object[] row : pageRepository.findAllPageSites()) {
+            registerPage((Integer) row[0], (Integer) row[1], row[2].equals(row[3]));
+        }
+        try (Stream<Object[]> rows = indexRepository.streamAllPostings()) {
+            rows.forEach(row -> {
+                Integer lemmaId = (Integer) row[0];
+                Integer pageId = (Integer) row[1];
+                Float rank = (Float) row[2];
+                postings.computeIfAbsent(lemmaId, id -> new PostingList())
+                        .add(pageId, rank, PositionCodec.decode((byte[]) row[3]));
+                addPageLength(pageId, Math.round(rank));
+                countPage(pageId, lemmaId, 1);
+            });
+        }
+    }
+
+    /**
+     * Читает цепочку сегментов и заполняет индекс, если сегменты учитывают все изменения
+     * базы данных, а контрольные суммы верны
+     *
+     * @param databaseVersion текущая версия изменений индекса в базе данных
+     * @return false, если сегмент поврежден, устарел или не читается
+     */
+    private boolean loadSegments(List<IndexSegment> chain, long databaseVersion) {
+        long watermark = chain.get(chain.size() - 1).watermark();
+        if (watermark != databaseVersion) {
+            logger.info("Сегменты {} учитывают изменения до версии {}, в базе данных версия {}",
+                    segmentDirectory, watermark, databaseVersion);
+            return false;
+        }
+        SegmentContents contents;
+        try {
+            contents = SegmentContents.read(chain);
+        } catch (IOException e) {
+            logger.warn("Не удалось прочитать сегменты {}: {}", segmentDirectory, e.getMessage());
+            return false;
+        }
+        clear();
+        for (Map.Entry<Integer, int[]> entry : contents.pages.entrySet()) {
+            int[] page = entry.getValue();
+            registerPage(entry.getKey(), page[0], page[1] != 0);
+            addPageLength(entry.getKey(), page[2]);
+        }
+        for (Map.Entry<Integer, PostingList> entry : contents.lists.entrySet()) {
+            putLemma(contents.lemmas.get(entry.getKey()), entry.getKey());
+            postings.put(entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Integer, Map<Integer, Integer>> site : contents.liveFrequencies.entrySet()) {
+            for (Map.Entry<Integer, Integer> entry : site.getValue().entrySet()) {
+                countLemma(site.getKey(), entry.getKey(), entry.getValue());
+            }
+        }
+        for (Map.Entry<Integer, Map<Integer, Integer>> site : contents.shadowFrequencies.entrySet()) {
+            for (Map.Entry<Integer, Integer> entry : site.getValue().entrySet()) {
+                countShadowLemma(site.getKey(), entry.getKey(), entry.getValue());
+            }
+        }
+        return true;
+    }
+
+    private void mergeIfChanged() {
+        mergeLock.lock();
+        try {
+            if (loaded && generation.get() != mergedGeneration) {
+                merge();
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Ошибка записи сегмента индекса: {}", e.getMessage(), e);
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    /**
+     * Записывает изменения индекса в сегмент на диске и переключает записанные списки на него.
+     * Под блокировкой чтения только собираются ссылки на изменившиеся списки, страницы и частоты,
+     * файл пишется без блокировки. Обычно это дельта с изменениями после предыдущего сегмента;
+     * полный сегмент пишется после загрузки из базы данных или ошибки записи.
+     * Когда дельт становится больше {@link #MAX_DELTAS} или они занимают больше половины
+     * базового сегмента, цепочка сливается в новый базовый сегмент.
+     * Выполняется только под {@link #mergeLock}.
+     */
+    private void merge() throws IOException {
+        long start = System.currentTimeMillis();
+        boolean delta = !segments.isEmpty();
+        SegmentContents contents;
+        long merged;
+        long watermark;
+        lock.readLock().lock();
+        try {
+            merged = generation.get();
+            watermark = appliedVersion;
+            contents = delta ? collectChanges() : collectAll();
+            clearDirty();
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Path file = segmentDirectory.resolve(SEGMENT_PREFIX + (segmentNumber + 1) + SEGMENT_SUFFIX);
+        IndexSegment segment;
+        try {
+            segment = contents.write(file, delta, watermark);
+        } catch (IOException | RuntimeException e) {
+            // Собранные изменения больше не отмечены, поэтому следующая запись будет полной
+            segments.clear();
+            throw e;
+        }
+        segmentNumber++;
+        if (!delta) {
+            segments.clear();
+        }
+        segments.add(segment);
+        int switched = switchToSegment(segment);
+        mergedGeneration = merged;
+        if (!delta) {
+            deleteSegmentsBefore(segmentNumber);
+        }
+        logger.info("Записан {} индекса {} ({} байт) за {} мс, списков читается из него: {}",
+                delta ? "дельта-сегмент" : "сегмент", file.getFileName(), segment.fileSize(),
+                System.currentTimeMillis() - start, switched);
+
+        long deltaSize = 0;
+        for (IndexSegment written : segments.subList(1, segments.size())) {
+            deltaSize += written.fileSize();
+        }
+        if (segments.size() > MAX_DELTAS + 1 || deltaSize * 2 > segments.get(0).fileSize()) {
+            try {
+                compact();
+            } catch (IOException | RuntimeException e) {
+                // Цепочка на диске цела, но следующая запись будет полной, чтобы не наращивать дельты
+                segments.clear();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Сливает базовый сегмент и дельты в новый базовый сегмент. Читает только файлы цепочки,
+     * поэтому идет без блокировки индекса.
+     */
+    private void compact() throws IOException {
+        long start = System.currentTimeMillis();
+        Path file = segmentDirectory.resolve(SEGMENT_PREFIX + (segmentNumber + 1) + SEGMENT_SUFFIX);
+        long watermark = segments.get(segments.size() - 1).watermark();
+        IndexSegment segment = SegmentContents.read(segments).write(file, false, watermark);
+        segmentNumber++;
+        segments.clear();
+        segments.add(segment);
+        switchToSegment(segment);
+        deleteSegmentsBefore(segmentNumber);
+        logger.info("Сегменты индекса слиты в {} ({} байт) за {} мс", file.getFileName(), segment.fileSize(),
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Изменившиеся записи индекса для дельты; удаленные записываются как удаления.
+     * Вызывается под блокировкой чтения, списки не копируются.
+     */
+    private SegmentContents collectChanges() {
+        SegmentContents contents = new SegmentContents(false);
+        for (Integer pageId : dirtyPages) {
+            if (!pageTable.contains(pageId)) {
+                contents.page(pageId, -1, false, 0);
+            } else {
+                contents.page(pageId, pageTable.site(pageId), !pageTable.isShadow(pageId), pageTable.length(pageId));
+            }
+        }
+        for (Integer lemmaId : dirtyLemmas) {
+            PostingList list = postings.get(lemmaId);
+            contents.term(lemmaId, lemmaTexts.getOrDefault(lemmaId, ""), list != null ? list.snapshot() : new PostingList());
+        }
+        for (Map.Entry<Integer, Set<Integer>> site : dirtyFrequencies.entrySet()) {
+            CountMap live = siteFrequencies(site.getKey(), true);
+            CountMap shadow = siteFrequencies(site.getKey(), false);
+            for (Integer lemmaId : site.getValue()) {
+                contents.frequency(site.getKey(), lemmaId, true, live.get(lemmaId));
+                contents.frequency(site.getKey(), lemmaId, false, shadow.get(lemmaId));
+            }
+        }
+        return contents;
+    }
+
+    /**
+     * Все записи индекса для полного сегмента. Вызывается под блокировкой чтения, списки не копируются.
+     */
+    private SegmentContents collectAll() {
+        SegmentContents contents = new SegmentContents(false);
+        pageTable.forEach(contents::page);
+        for (Map.Entry<Integer, PostingList> entry : postings.entrySet()) {
+            contents.term(entry.getKey(), lemmaTexts.getOrDefault(entry.getKey(), ""), entry.getValue().snapshot());
+        }
+        copyFrequencies(siteDocumentFrequencies, true, contents);
+        copyFrequencies(shadowFrequencies, false, contents);
+        return contents;
+    }
+
+    private static void copyFrequencies(Map<Integer, CountMap> frequencies, boolean live,
+                                        SegmentContents contents) {
+        for (Map.Entry<Integer, CountMap> site : frequencies.entrySet()) {
+            site.getValue().forEach((lemmaId, count) -> contents.frequency(site.getKey(), lemmaId, live, count));
+        }
+    }
+
+    /**
+     * Переключает на отображенные списки сегмента леммы, которые не менялись после сбора сегмента,
+     * и обновляет размер сегментов на диске
+     *
+     * @return число переключенных списков
+     */
+    private int switchToSegment(IndexSegment segment) throws IOException {
+        Map<Integer, PostingList> mappedLists = new HashMap<>();
+        segment.read(new IndexSegment.Visitor() {
+            @Override
+            public void page(int pageId, int siteId, boolean live, int length) {
+            }
+
+            @Override
+            public void term(int lemmaId, String lemma, PostingList list) {
+                if (!list.isEmpty()) {
+                    mappedLists.put(lemmaId, list);
+                }
+            }
+
+            @Override
+            public void frequency(int siteId, int lemmaId, boolean live, int count) {
+            }
+        });
+        int switched = 0;
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Integer, PostingList> entry : mappedLists.entrySet()) {
+                if (!dirtyLemmas.contains(entry.getKey()) && postings.containsKey(entry.getKey())) {
+                    postings.put(entry.getKey(), entry.getValue());
+                    switched++;
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        long size = 0;
+        for (IndexSegment written : segments) {
+            size += written.fileSize();
+        }
+        segmentSize = size;
+        return switched;
+    }
+
+    private void clearDirty() {
+        dirtyPages.clear();
+        dirtyLemmas.clear();
+        dirtyFrequencies.clear();
+    }
+
+    /**
+     * Открывает последний базовый сегмент и дельты после него и удаляет более старые файлы
+     *
+     * @return null, если сегментов нет или цепочка неполна
+     */
+    private List<IndexSegment> openSegments() {
+        if (!Files.isDirectory(segmentDirectory)) {
+            return null;
+        }
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(segmentDirectory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : stream) {
+                long number = segmentNumber(file);
+                if (number >= 0) {
+                    files.put(number, file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось прочитать каталог сегментов {}: {}", segmentDirectory, e.getMessage());
+            return null;
+        }
+        if (files.isEmpty()) {
+            return null;
+        }
+        segmentNumber = files.lastKey();
+
+        LinkedList<IndexSegment> chain = new LinkedList<>();
+        long expected = segmentNumber;
+        for (Map.Entry<Long, Path> entry : files.descendingMap().entrySet()) {
+            if (entry.getKey() != expected) {
+                logger.warn("В цепочке сегментов {} нет сегмента {}", segmentDirectory, expected);
+                return null;
+            }
+            try {
+                chain.addFirst(IndexSegment.open(entry.getValue()));
+            } catch (IOException e) {
+                logger.warn("Не удалось открыть сегмент {}: {}", entry.getValue(), e.getMessage());
+                return null;
+            }
+            if (!chain.getFirst().isDelta()) {
+                deleteSegmentsBefore(entry.getKey());
+                return chain;
+            }
+            expected--;
+        }
+        logger.warn("В каталоге {} нет базового сегмента", segmentDirectory);
+        return null;
+    }
+
+    /**
+     * Удаляет сегменты с меньшими номерами. Уже отображенные в память данные остаются доступны
+     * до сборки списков, которые на них ссылаются.
+     */
+    private void deleteSegmentsBefore(long number) {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(segmentDirectory, SEGMENT_PREFIX + "*")) {
+            for (Path file : files) {
+                long fileNumber = segmentNumber(file);
+                if (fileNumber >= 0 && fileNumber < number) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Не удалось удалить старые сегменты: {}", e.getMessage());
+        }
+    }
+
+    private static long segmentNumber(Path file) {
+        String name = file.getFileName().toString();
+        int end = name.indexOf('.', SEGMENT_PREFIX.length());
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), end < 0 ? name.length() : end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void registerPage(int pageId, int siteId, boolean live) {
+        if (!pageTable.add(pageId, siteId, live)) {
+            return;
+        }
+        dirtyPages.add(pageId);
+        if (live) {
+            sitePageCounts.merge(siteId, 1, Integer::sum);
+            livePageCount++;
+        }
+    }
+
+    private void unregisterPage(int pageId) {
+        if (!pageTable.contains(pageId)) {
+            return;
+        }
+        dirtyPages.add(pageId);
+        int siteId = pageTable.site(pageId);
+        int length = pageTable.length(pageId);
+        boolean shadow = pageTable.isShadow(pageId);
+        pageTable.remove(pageId);
+        if (!shadow) {
+            sitePageCounts.merge(siteId, -1, Integer::sum);
+            livePageCount--;
+            siteLengths.merge(siteId, (long) -length, Long::sum);
+            totalLength -= length;
+        }
+    }
+
+    /**
+     * Увеличивает длину страницы; для видимой страницы - и суммарные длины
+     */
+    private void addPageLength(int pageId, int delta) {
+        pageTable.addLength(pageId, delta);
+        dirtyPages.add(pageId);
+        if (pageTable.contains(pageId) && !pageTable.isShadow(pageId)) {
+            siteLengths.merge(pageTable.site(pageId), (long) delta, Long::sum);
+            totalLength += delta;
+        }
+    }
+
+    /**
+     * Копия видимых или теневых страниц сайта без исключенных
+     */
+    private BitSet sitePageSet(int siteId, boolean live, Collection<Integer> excluded) {
+        BitSet pages = pageTable.pages(siteId, live);
+        for (Integer pageId : excluded) {
+            pages.clear(pageId);
+        }
+        return pages;
+    }
+
+    /**
+     * Число видимых или теневых страниц сайта по леммам
+     */
+    private CountMap siteFrequencies(int siteId, boolean live) {
+        return (live ? siteDocumentFrequencies : shadowFrequencies).getOrDefault(siteId, CountMap.EMPTY);
+    }
+
+    /**
+     * Готовит удаление страниц сайта из списков вхождений: под блокировкой чтения запоминает
+     * страницы и курсоры списков их лемм, а списки без этих страниц строит уже без блокировки
+     *
+     * @param live true - удаляются видимые страницы сайта, false - теневые
+     */
+    private Removal prepareRemoval(int siteId, boolean live, Collection<Integer> excluded) {
+        Removal removal = new Removal();
+        Map<Integer, PostingList.Cursor> cursors = new HashMap<>();
+        lock.readLock().lock();
+        try {
+            removal.pages = sitePageSet(siteId, live, excluded);
+            if (removal.pages.isEmpty()) {
+                return removal;
+            }
+            for (int lemmaId : siteFrequencies(siteId, live).keys()) {
+                PostingList list = postings.get(lemmaId);
+                if (list != null) {
+                    cursors.put(lemmaId, list.cursor());
+                    removal.versions.put(lemmaId, list.version());
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        for (Map.Entry<Integer, PostingList.Cursor> entry : cursors.entrySet()) {
+            removal.lists.put(entry.getKey(), PostingList.without(entry.getValue(), removal.pages::get));
+        }
+        return removal;
+    }
+
+    /**
+     * Удаляет страницы сайта из списков и снимает их регистрацию. Вызывается под блокировкой записи:
+     * подготовленный список подставляется, если исходный с тех пор не менялся,
+     * иначе страницы удаляются из списка на месте.
+     */
+    private void removePages(int siteId, boolean live, Collection<Integer> excluded, Removal removal) {
+        BitSet pages = sitePageSet(siteId, live, excluded);
+        if (pages.isEmpty()) {
+            return;
+        }
+        boolean prepared = pages.equals(removal.pages);
+        for (int lemmaId : siteFrequencies(siteId, live).keys()) {
+            PostingList list = postings.get(lemmaId);
+            if (list == null) {
+                continue;
+            }
+            int removed;
+            Integer version = prepared ? removal.versions.get(lemmaId) : null;
+            if (version != null && version == list.version()) {
+                PostingList kept = removal.lists.get(lemmaId);
+                removed = list.size() - kept.size();
+                if (removed > 0) {
+                    list = kept;
+                }
+            } else {
+                removed = list.removeAll(pages::get);
+            }
+            if (removed > 0) {
+                dirtyLemmas.add(lemmaId);
+                if (live) {
+                    countLemma(siteId, lemmaId, -removed);
+                } else {
+                    countShadowLemma(siteId, lemmaId, -removed);
+                }
+            }
+            if (list.isEmpty()) {
+                postings.remove(lemmaId);
+            } else {
+                postings.put(lemmaId, list);
+            }
+        }
+        for (int pageId = pages.nextSetBit(0); pageId >= 0; pageId = pages.nextSetBit(pageId + 1)) {
+            unregisterPage(pageId);
+        }
+    }
+
+    /**
+     * Учитывает появление страницы в списке леммы или ее удаление в частотах сайта страницы
+     */
+    private void countPage(int pageId, int lemmaId, int delta) {
+        int siteId = pageTable.site(pageId);
+        if (siteId == 0) {
+            return;
+        }
+        if (pageTable.isShadow(pageId)) {
+            countShadowLemma(siteId, lemmaId, delta);
+        } else {
+            countLemma(siteId, lemmaId, delta);
+        }
+    }
+
+    private void putLemma(String lemma, int lemmaId) {
+        lemmaIds.put(lemma, lemmaId);
+        lemmaTexts.put(lemmaId, lemma);
+    }
+
+    private void countLemma(int siteId, int lemmaId, int delta) {
+        dirtyFrequencies.computeIfAbsent(siteId, id -> new HashSet<>()).add(lemmaId);
+        documentFrequencies.add(lemmaId, delta);
+        CountMap siteFrequencies = siteDocumentFrequencies.computeIfAbsent(siteId, id -> new CountMap());
+        siteFrequencies.add(lemmaId, delta);
+        if (siteFrequencies.isEmpty()) {
+            siteDocumentFrequencies.remove(siteId);
+        }
+    }
+
+    private void countShadowLemma(int siteId, int lemmaId, int delta) {
+        dirtyFrequencies.computeIfAbsent(siteId, id -> new HashSet<>()).add(lemmaId);
+        CountMap frequencies = shadowFrequencies.computeIfAbsent(siteId, id -> new CountMap());
+        frequencies.add(lemmaId, delta);
+        if (frequencies.isEmpty()) {
+            shadowFrequencies.remove(siteId);
+        }
+    }
+
+    /**
+     * Применяет изменения страниц пакетом: изменения группируются по леммам,
+     * и каждый затронутый список пересобирается одним слиянием
+     */
+    private void applyChanges(List<PageChange> changes) {
+        lock.writeLock().lock();
+        try {
+            Map<Integer, TreeMap<Integer, PageChange.Posting>> lemmaChanges = new HashMap<>();
+            for (PageChange change : changes) {
+                if (change.siteId != null) {
+                    registerPage(change.pageId, change.siteId, change.live);
+                }
+                addPageLength(change.pageId, change.length - pageTable.length(change.pageId));
+                for (Integer lemmaId : change.removedLemmaIds) {
+                    lemmaChanges.computeIfAbsent(lemmaId, id -> new TreeMap<>())
+                            .put(change.pageId, PageChange.Posting.REMOVED);
+                }
+                for (Map.Entry<String, Integer> entry : change.lemmas.getRanks().entrySet()) {
+                    Integer lemmaId = change.lemmaIds.get(entry.getKey());
+                    if (lemmaId == null) {
+                        continue;
+                    }
+                    putLemma(entry.getKey(), lemmaId);
+                    lemmaChanges.computeIfAbsent(lemmaId, id -> new TreeMap<>()).put(change.pageId,
+                            new PageChange.Posting(entry.getValue(), change.lemmas.positionsOf(entry.getKey())));
+                }
+            }
+
+            for (Map.Entry<Integer, TreeMap<Integer, PageChange.Posting>> entry : lemmaChanges.entrySet()) {
+                int lemmaId = entry.getKey();
+                int count = entry.getValue().size();
+                int[] pageIds = new int[count];
+                int[] ranks = new int[count];
+                int[][] positions = new int[count][];
+                int i = 0;
+                for (Map.Entry<Integer, PageChange.Posting> posting : entry.getValue().entrySet()) {
+                    pageIds[i] = posting.getKey();
+                    ranks[i] = posting.getValue().rank;
+                    positions[i] = posting.getValue().positions;
+                    i++;
+                }
+                PostingList list = postings.get(lemmaId);
+                if (list == null) {
+                    list = new PostingList();
+                }
+                dirtyLemmas.add(lemmaId);
+                list.update(pageIds, ranks, positions, count, (pageId, delta) -> countPage(pageId, lemmaId, delta));
+                if (list.isEmpty()) {
+                    postings.remove(lemmaId);
+                } else {
+                    postings.put(lemmaId, list);
+                }
+            }
+            generation.incrementAndGet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Откладывает изменение страницы до коммита транзакции; изменения одной транзакции
+     * накапливаются и применяются одним пакетом
+     */
+    private void afterCommit(PageChange change) {
+        PendingChanges pending = pendingChanges();
+        if (pending == null) {
+            applyChanges(Collections.singletonList(change));
+            return;
+        }
+        if (pending.pages.isEmpty()) {
+            pending.actions.add(() -> applyChanges(pending.pages));
+        }
+        pending.pages.add(change);
+    }
+
+    private void afterCommit(Runnable action) {
+        PendingChanges pending = pendingChanges();
+        if (pending == null) {
+            action.run();
+            return;
+        }
+        pending.actions.add(action);
+    }
+
+    /**
+     * Изменения индекса текущей транзакции или null вне транзакции. При первом изменении
+     * регистрирует синхронизацию: перед коммитом транзакция получает версию изменений,
+     * после коммита изменения применяются и версия отмечается примененной.
+     */
+    private PendingChanges pendingChanges() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        PendingChanges pending = (PendingChanges) TransactionSynchronizationManager.getResource(pendingChanges);
+        if (pending != null) {
+            return pending;
+        }
+        PendingChanges changes = new PendingChanges();
+        TransactionSynchronizationManager.bindResource(pendingChanges, changes);
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCommit(boolean readOnly) {
+                changes.version = indexStateRepository.nextVersion();
+            }
+
+            @Override
+            public void afterCommit() {
+                for (Runnable action : changes.actions) {
+                    action.run();
+                }
+                markApplied(changes.version);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                TransactionSynchronizationManager.unbindResourceIfPossible(pendingChanges);
+            }
+        });
+        return changes;
+    }
+
+    /**
+     * Отмечает версию изменений примененной. Транзакции применяют изменения после коммита
+     * не обязательно в порядке версий, поэтому сохраняемая в сегмент версия растет
+     * только до первой еще не примененной.
+     */
+    private void markApplied(long version) {
+        lock.writeLock().lock();
+        try {
+            if (version <= appliedVersion) {
+                return;
+            }
+            appliedAhead.add(version);
+            while (!appliedAhead.isEmpty() && appliedAhead.first() == appliedVersion + 1) {
+                appliedVersion = appliedAhead.pollFirst();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Изменения индекса одной транзакции в порядке вызовов и версия, полученная при коммите
+     */
+    private static class PendingChanges {
+        private final List<PageChange> pages = new ArrayList<>();
+        private final List<Runnable> actions = new ArrayList<>();
+        private long version;
+    }
+
+    /**
+     * Подготовленное удаление страниц: страницы, номера изменений исходных списков
+     * и новые списки без этих страниц по id леммы
+     */
+    private static class Removal {
+        private BitSet pages = new BitSet();
+        private final Map<Integer, Integer> versions = new HashMap<>();
+        private final Map<Integer, PostingList> lists = new HashMap<>();
+    }
+
+    /**
+     * Добавление или обновление страницы: новые ранги и позиции лемм и исчезнувшие леммы
+     */
+    private static class PageChange {
+        private final int pageId;
+        // Сайт новой страницы; null, если страница уже есть в индексе
+        private final Integer siteId;
+        private final boolean live;
+        private final int length;
+        private final Collection<Integer> removedLemmaIds;
+        private final Map<String, Integer> lemmaIds;
+        private final LemmaOccurrences lemmas;
+
+        PageChange(int pageId, Integer siteId, boolean live, int length, Collection<Integer> removedLemmaIds,
+                   Map<String, Integer> lemmaIds, LemmaOccurrences lemmas) {
+            this.pageId = pageId;
+            this.siteId = siteId;
+            this.live = live;
+            this.length = length;
+            this.removedLemmaIds = removedLemmaIds;
+            this.lemmaIds = lemmaIds;
+            this.lemmas = lemmas;
+        }
+
+        /**
+         * Новая запись страницы в списке леммы или удаление записи
+         */
+        private static class Posting {
+            static final Posting REMOVED = new Posting(PostingList.REMOVED, null);
+
+            private final int rank;
+            private final int[] positions;
+
+            Posting(int rank, int[] positions) {
+                this.rank = rank;
+                this.positions = positions;
+            }
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.searchlocal.index;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Записи сегмента в памяти: страницы, леммы со списками вхождений и частоты лемм по сайтам.
+ * Собирается из индекса перед записью сегмента или читается из цепочки сегментов на диске:
+ * базового сегмента и дельт, применяемых к нему по порядку.
+ */
+class SegmentContents implements IndexSegment.Visitor {
+    // id страницы -> id сайта, видимость (1 или 0) и длина; id сайта < 0 - страница удалена
+    final Map<Integer, int[]> pages = new HashMap<>();
+    final Map<Integer, String> lemmas = new HashMap<>();
+    final Map<Integer, PostingList> lists = new HashMap<>();
+    // id сайта -> id леммы -> число видимых и теневых страниц сайта с леммой
+    final Map<Integer, Map<Integer, Integer>> liveFrequencies = new HashMap<>();
+    final Map<Integer, Map<Integer, Integer>> shadowFrequencies = new HashMap<>();
+    // true - записи-удаления применяются при чтении, false - сохраняются для записи дельты
+    private final boolean applyDeletes;
+
+    SegmentContents(boolean applyDeletes) {
+        this.applyDeletes = applyDeletes;
+    }
+
+    /**
+     * Читает цепочку сегментов, проверяя контрольную сумму каждого
+     *
+     * @param chain базовый сегмент и следующие за ним дельты
+     * @throws IOException если сегмент поврежден или не читается
+     */
+    static SegmentContents read(List<IndexSegment> chain) throws IOException {
+        SegmentContents contents = new SegmentContents(true);
+        for (IndexSegment segment : chain) {
+            segment.verify();
+            segment.read(contents);
+        }
+        return contents;
+    }
+
+    @Override
+    public void page(int pageId, int siteId, boolean live, int length) {
+        if (siteId < 0 && applyDeletes) {
+            pages.remove(pageId);
+        } else {
+            pages.put(pageId, new int[]{siteId, live ? 1 : 0, length});
+        }
+    }
+
+    @Override
+    public void term(int lemmaId, String lemma, PostingList list) {
+        if (list.isEmpty() && applyDeletes) {
+            lemmas.remove(lemmaId);
+            lists.remove(lemmaId);
+        } else {
+            lemmas.put(lemmaId, lemma);
+            lists.put(lemmaId, list);
+        }
+    }
+
+    @Override
+    public void frequency(int siteId, int lemmaId, boolean live, int count) {
+        Map<Integer, Map<Integer, Integer>> frequencies = live ? liveFrequencies : shadowFrequencies;
+        if (count == 0 && applyDeletes) {
+            Map<Integer, Integer> site = frequencies.getOrDefault(siteId, Collections.emptyMap());
+            if (site.remove(lemmaId) != null && site.isEmpty()) {
+                frequencies.remove(siteId);
+            }
+        } else {
+            frequencies.computeIfAbsent(siteId, id -> new HashMap<>()).put(lemmaId, count);
+        }
+    }
+
+    /**
+     * Суммарное число записей во всех списках вхождений
+     */
+    long postingCount() {
+        long count = 0;
+        for (PostingList list : lists.values()) {
+            count += list.size();
+        }
+        return count;
+    }
+
+    /**
+     * Записывает содержимое в новый файл сегмента
+     *
+     * @param delta true, если записываются только изменения после предыдущего сегмента
+     * @param watermark версия изменений базы данных, до которой учтены изменения
+     */
+    IndexSegment write(Path file, boolean delta, long watermark) throws IOException {
+        IndexSegment.Writer writer = new IndexSegment.Writer(file, delta, watermark);
+        for (Map.Entry<Integer, int[]> entry : pages.entrySet()) {
+            int[] page = entry.getValue();
+            writer.addPage(entry.getKey(), page[0], page[1] != 0, page[2]);
+        }
+        for (Map.Entry<Integer, PostingList> entry : lists.entrySet()) {
+            writer.addTerm(entry.getKey(), lemmas.getOrDefault(entry.getKey(), ""), entry.getValue());
+        }
+        writeFrequencies(writer, liveFrequencies, true);
+        writeFrequencies(writer, shadowFrequencies, false);
+        writer.finish();
+        return IndexSegment.open(file);
+    }
+
+    private static void writeFrequencies(IndexSegment.Writer writer, Map<Integer, Map<Integer, Integer>> frequencies,
+                                         boolean live) throws IOException {
+        for (Map.Entry<Integer, Map<Integer, Integer>> site : frequencies.entrySet()) {
+            for (Map.Entry<Integer, Integer> entry : site.getValue().entrySet()) {
+                writer.addFrequency(site.getKey(), entry.getKey(), live, entry.getValue());
+            }
+        }
+    }
+}
@@ -3,7 +3,10 @@ package com.searchlocal.model;
 import javax.persistence.*;
 
 @Entity
-@Table(name = "index")
+@Table(name = "index", indexes = {
+        @javax.persistence.Index(name = "idx_index_page", columnList = "page_id"),
+        @javax.persistence.Index(name = "idx_index_lemma", columnList = "lemma_id")
+})
 public class Index {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -20,6 +23,10 @@ public class Index {
     @Column(name = "rank")
     private Float rank;
     
+    // Позиции слов леммы на странице, сжатые PositionCodec; только для сайтов с позиционным индексом
+    @Column(columnDefinition = "BYTEA")
+    private byte[] positions;
+    
     public Index() {
     }
     
@@ -60,5 +67,13 @@ public class Index {
     public void setRank(Float rank) {
         this.rank = rank;
     }
+    
+    public byte[] getPositions() {
+        return positions;
+    }
+    
+    public void setPositions(byte[] positions) {
+        this.positions = positions;
+    }
 }
 
@@ -0,0 +1,36 @@
+package com.searchlocal.model;
+
+import javax.persistence.*;
+
+/**
+ * Счетчик изменений индекса в базе данных: единственная строка, версия которой
+ * увеличивается при коммите каждой транзакции, меняющей индекс
+ */
+@Entity
+@Table(name = "index_state")
+public class IndexState {
+    @Id
+    private Integer id;
+    
+    @Column(columnDefinition = "BIGINT NOT NULL DEFAULT 0")
+    private long version;
+    
+    public IndexState() {
+    }
+    
+    public Integer getId() {
+        return id;
+    }
+    
+    public void setId(Integer id) {
+        this.id = id;
+    }
+    
+    public long getVersion() {
+        return version;
+    }
+    
+    public void setVersion(long version) {
+        this.version = version;
+    }
+}
@@ -3,7 +3,10 @@ package com.searchlocal.model;
 import javax.persistence.*;
 
 @Entity
-@Table(name = "page", indexes = @javax.persistence.Index(name = "idx_path", columnList = "path"))
+@Table(name = "page", indexes = {
+        @javax.persistence.Index(name = "idx_path", columnList = "path"),
+        @javax.persistence.Index(name = "idx_page_site", columnList = "site_id")
+})
 public class Page {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -21,6 +24,42 @@ public class Page {
     @Column(columnDefinition = "TEXT")
     private String content;
     
+    // Заголовок и видимый текст извлекаются при индексации, чтобы поиск не разбирал HTML
+    @Column(columnDefinition = "TEXT")
+    private String title;
+    
+    @Column(name = "plain_text", columnDefinition = "TEXT")
+    private String text;
+    
+    @Column(columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int generation;
+    
+    // Поколение переиндексации, в котором страница проверена и перенесена без перезаписи
+    @Column(name = "checked_generation", columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int checkedGeneration;
+    
+    // Хэш проиндексированного текста и валидаторы HTTP для условных запросов
+    @Column(name = "content_hash", columnDefinition = "VARCHAR(64)")
+    private String contentHash;
+    
+    @Column(columnDefinition = "VARCHAR(255)")
+    private String etag;
+    
+    @Column(name = "last_modified", columnDefinition = "VARCHAR(64)")
+    private String lastModified;
+    
+    // Дата изменения из карты сайта: пока она прежняя, страница не загружается повторно
+    @Column(name = "sitemap_lastmod", columnDefinition = "VARCHAR(64)")
+    private String sitemapLastModified;
+    
+    // SimHash текста для поиска почти совпадающих страниц при обходе
+    private Long simhash;
+    
+    // Смещения слов заголовка и текста по номеру позиции (см. PositionCodec) для сниппетов;
+    // только для сайтов с позиционным индексом
+    @Column(name = "word_offsets", columnDefinition = "BYTEA")
+    private byte[] wordOffsets;
+    
     public Page() {
     }
     
@@ -70,5 +109,84 @@ public class Page {
     public void setContent(String content) {
         this.content = content;
     }
+    
+    public String getTitle() {
+        return title;
+    }
+    
+    public void setTitle(String title) {
+        this.title = title;
+    }
+    
+    public String getText() {
+        return text;
+    }
+    
+    public void setText(String text) {
+        this.text = text;
+    }
+    
+    public int getGeneration() {
+        return generation;
+    }
+    
+    public void setGeneration(int generation) {
+        this.generation = generation;
+    }
+    
+    public int getCheckedGeneration() {
+        return checkedGeneration;
+    }
+    
+    public void setCheckedGeneration(int checkedGeneration) {
+        this.checkedGeneration = checkedGeneration;
+    }
+    
+    public String getContentHash() {
+        return contentHash;
+    }
+    
+    public void setContentHash(String contentHash) {
+        this.contentHash = contentHash;
+    }
+    
+    public String getEtag() {
+        return etag;
+    }
+    
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+    
+    public String getLastModified() {
+        return lastModified;
+    }
+    
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+    
+    public String getSitemapLastModified() {
+        return sitemapLastModified;
+    }
+    
+    public void setSitemapLastModified(String sitemapLastModified) {
+        this.sitemapLastModified = sitemapLastModified;
+    }
+    
+    public Long getSimhash() {
+        return simhash;
+    }
+    
+    public void setSimhash(Long simhash) {
+        this.simhash = simhash;
+    }
+    
+    public byte[] getWordOffsets() {
+        return wordOffsets;
+    }
+    
+    public void setWordOffsets(byte[] wordOffsets) {
+        this.wordOffsets = wordOffsets;
+    }
 }
-
@@ -0,0 +1,21 @@
+package com.searchlocal.model;
+
+/**
+ * Состояние проиндексированной страницы для повторного обхода: валидаторы HTTP,
+ * дата изменения из карты сайта и хэши текста
+ */
+public interface PageState {
+    Integer getId();
+    
+    String getPath();
+    
+    String getContentHash();
+    
+    String getEtag();
+    
+    String getLastModified();
+    
+    String getSitemapLastModified();
+    
+    Long getSimhash();
+}
@@ -0,0 +1,18 @@
+package com.searchlocal.model;
+
+/**
+ * Данные страницы, нужные для выдачи результатов поиска, без HTML
+ */
+public interface PageSummary {
+    Integer getId();
+    
+    String getSiteUrl();
+    
+    String getPath();
+    
+    String getTitle();
+    
+    String getText();
+    
+    byte[] getWordOffsets();
+}
@@ -0,0 +1,28 @@
+package com.searchlocal.model;
+
+import java.util.List;
+
+/**
+ * Страница результатов поиска и общее количество найденных страниц
+ */
+public class SearchResults {
+    private final int total;
+    private final List<SearchResult> results;
+
+    public SearchResults(int total, List<SearchResult> results) {
+        this.total = total;
+        this.results = results;
+    }
+
+    public static SearchResults empty() {
+        return new SearchResults(0, List.of());
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public List<SearchResult> getResults() {
+        return results;
+    }
+}
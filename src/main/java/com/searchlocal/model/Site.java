@@ -26,6 +26,14 @@ public class Site {
     @Column(columnDefinition = "VARCHAR(255)")
     private String name;
     
+    // Поколение страниц, видимое поиску; переиндексация пишет в следующее
+    @Column(columnDefinition = "INT NOT NULL DEFAULT 0")
+    private int generation;
+    
+    // Сохранять позиции слов для поиска фраз и близости
+    @Column(columnDefinition = "BOOLEAN NOT NULL DEFAULT FALSE")
+    private boolean positional;
+    
     public Site() {
     }
     
@@ -84,5 +92,21 @@ public class Site {
     public void setName(String name) {
         this.name = name;
     }
+    
+    public int getGeneration() {
+        return generation;
+    }
+    
+    public void setGeneration(int generation) {
+        this.generation = generation;
+    }
+    
+    public boolean isPositional() {
+        return positional;
+    }
+    
+    public void setPositional(boolean positional) {
+        this.positional = positional;
+    }
 }
 
@@ -0,0 +1,272 @@
+package com.searchlocal.repository;
+
+import com.searchlocal.index.PositionCodec;
+import com.searchlocal.model.Page;
+import com.searchlocal.util.LemmaOccurrences;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.PreparedStatement;
+import java.util.*;
+
+/**
+ * Пакетная запись лемм и индекса одним набором SQL-запросов вместо
+ * сохранения каждой сущности через JPA (IDENTITY отключает батчинг Hibernate).
+ * Использует возможности PostgreSQL: unnest массивов и ON CONFLICT.
+ */
+@Repository
+public class IndexBatchRepository {
+    private static final String UPSERT_LEMMAS =
+            "INSERT INTO lemma (lemma, frequency) " +
+            "SELECT * FROM unnest(?::varchar[], ?::int[]) " +
+            "ON CONFLICT (lemma) DO UPDATE SET frequency = lemma.frequency + EXCLUDED.frequency " +
+            "RETURNING id, lemma";
+
+    private static final String INSERT_INDEXES =
+            "INSERT INTO index (page_id, lemma_id, rank, positions) " +
+            "SELECT * FROM unnest(?::int[], ?::int[], ?::real[], ?::bytea[])";
+
+    // frequency леммы - число страниц с ней, поэтому уменьшается на число страниц сайта с леммой
+    private static final String DECREMENT_SITE_LEMMAS =
+            "UPDATE lemma l SET frequency = l.frequency - c.pages " +
+            "FROM (SELECT i.lemma_id, COUNT(*) AS pages FROM index i " +
+            "JOIN page p ON p.id = i.page_id WHERE p.site_id = ? AND p.generation <> ? GROUP BY i.lemma_id) c " +
+            "WHERE l.id = c.lemma_id RETURNING l.id";
+
+    private static final String DELETE_SITE_INDEXES =
+            "DELETE FROM index i USING page p WHERE i.page_id = p.id AND p.site_id = ? AND p.generation <> ?";
+
+    private static final String DELETE_SITE_PAGES =
+            "DELETE FROM page WHERE site_id = ? AND generation <> ?";
+
+    // Отметки проверки от прерванной переиндексации больше не действительны
+    private static final String RESET_CHECKED_PAGES =
+            "UPDATE page SET checked_generation = generation " +
+            "WHERE site_id = ? AND checked_generation <> generation";
+
+    private static final String MARK_CHECKED_PAGES =
+            "UPDATE page p SET checked_generation = ?, etag = v.etag, last_modified = v.last_modified, " +
+            "sitemap_lastmod = v.sitemap_lastmod " +
+            "FROM unnest(?::int[], ?::varchar[], ?::varchar[], ?::varchar[]) " +
+            "AS v(id, etag, last_modified, sitemap_lastmod) " +
+            "WHERE p.id = v.id";
+
+    private static final String PROMOTE_CHECKED_PAGES =
+            "UPDATE page SET generation = ? " +
+            "WHERE site_id = ? AND generation = ? AND checked_generation = ? RETURNING id";
+
+    private static final String DELETE_PAGE_INDEXES =
+            "DELETE FROM index WHERE page_id = ? AND lemma_id = ANY(?::int[])";
+
+    private static final String DECREMENT_LEMMAS =
+            "UPDATE lemma SET frequency = frequency - 1 WHERE id = ANY(?::int[])";
+
+    private static final String DELETE_UNUSED_LEMMAS_BY_ID =
+            "DELETE FROM lemma WHERE id = ANY(?::int[]) AND frequency <= 0";
+
+    private static final String UPDATE_INDEXES =
+            "UPDATE index i SET rank = v.rank, positions = v.positions " +
+            "FROM unnest(?::int[], ?::real[], ?::bytea[]) AS v(lemma_id, rank, positions) " +
+            "WHERE i.page_id = ? AND i.lemma_id = v.lemma_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IndexBatchRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Создает недостающие леммы и увеличивает frequency существующих одним запросом
+     *
+     * @param frequencyDeltas лемма -> на сколько страниц увеличить frequency
+     * @return лемма -> id
+     */
+    public Map<String, Integer> upsertLemmas(Map<String, Integer> frequencyDeltas) {
+        Map<String, Integer> lemmaIds = new HashMap<>();
+        if (frequencyDeltas.isEmpty()) {
+            return lemmaIds;
+        }
+
+        // Единый порядок блокировок строк при параллельной индексации
+        String[] lemmas = frequencyDeltas.keySet().toArray(new String[0]);
+        Arrays.sort(lemmas);
+        Integer[] deltas = new Integer[lemmas.length];
+        for (int i = 0; i < lemmas.length; i++) {
+            deltas[i] = frequencyDeltas.get(lemmas[i]);
+        }
+
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPSERT_LEMMAS);
+            statement.setArray(1, connection.createArrayOf("varchar", lemmas));
+            statement.setArray(2, connection.createArrayOf("int4", deltas));
+            return statement;
+        }, rs -> {
+            lemmaIds.put(rs.getString("lemma"), rs.getInt("id"));
+        });
+        return lemmaIds;
+    }
+
+    /**
+     * Вставляет все записи индекса пакета страниц одним запросом.
+     * Позиции сохраняются сжатыми, если они собраны для страницы.
+     *
+     * @param lemmaIds лемма -> id
+     * @param pages id страницы -> леммы страницы
+     */
+    public void insertIndexes(Map<String, Integer> lemmaIds, Map<Integer, LemmaOccurrences> pages) {
+        int size = 0;
+        for (LemmaOccurrences lemmas : pages.values()) {
+            size += lemmas.getRanks().size();
+        }
+        if (size == 0) {
+            return;
+        }
+
+        Integer[] pageIds = new Integer[size];
+        Integer[] lemmaIdValues = new Integer[size];
+        Float[] rankValues = new Float[size];
+        byte[][] positionValues = new byte[size][];
+        int i = 0;
+        for (Map.Entry<Integer, LemmaOccurrences> page : pages.entrySet()) {
+            for (Map.Entry<String, Integer> entry : page.getValue().getRanks().entrySet()) {
+                pageIds[i] = page.getKey();
+                lemmaIdValues[i] = lemmaIds.get(entry.getKey());
+                rankValues[i] = entry.getValue().floatValue();
+                positionValues[i] = PositionCodec.encode(page.getValue().positionsOf(entry.getKey()));
+                i++;
+            }
+        }
+
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(INSERT_INDEXES);
+            statement.setArray(1, connection.createArrayOf("int4", pageIds));
+            statement.setArray(2, connection.createArrayOf("int4", lemmaIdValues));
+            statement.setArray(3, connection.createArrayOf("float4", rankValues));
+            statement.setArray(4, connection.createArrayOf("bytea", positionValues));
+            return statement;
+        });
+    }
+
+    /**
+     * Удаляет страницы сайта всех поколений, кроме указанного, вместе с их индексом
+     * четырьмя запросами: групповое уменьшение frequency лемм, удаление индекса,
+     * ставших неиспользуемыми лемм (только среди уменьшенных) и страниц.
+     * Сбрасывает отметки проверки оставшихся страниц.
+     *
+     * @return количество удаленных страниц
+     */
+    public int purgeOtherGenerations(int siteId, int keptGeneration) {
+        List<Integer> lemmaIds = jdbcTemplate.queryForList(DECREMENT_SITE_LEMMAS, Integer.class,
+                siteId, keptGeneration);
+        jdbcTemplate.update(DELETE_SITE_INDEXES, siteId, keptGeneration);
+        if (!lemmaIds.isEmpty()) {
+            updateByIds(DELETE_UNUSED_LEMMAS_BY_ID, lemmaIds.toArray(new Integer[0]));
+        }
+        int deleted = jdbcTemplate.update(DELETE_SITE_PAGES, siteId, keptGeneration);
+        jdbcTemplate.update(RESET_CHECKED_PAGES, siteId);
+        return deleted;
+    }
+
+    /**
+     * Отмечает неизменившиеся страницы проверенными в поколении и обновляет их валидаторы HTTP
+     * и дату изменения из карты сайта
+     */
+    public void markChecked(Collection<Page> pages, int generation) {
+        if (pages.isEmpty()) {
+            return;
+        }
+
+        Integer[] ids = new Integer[pages.size()];
+        String[] etags = new String[ids.length];
+        String[] lastModified = new String[ids.length];
+        String[] sitemapLastModified = new String[ids.length];
+        int i = 0;
+        for (Page page : pages) {
+            ids[i] = page.getId();
+            etags[i] = page.getEtag();
+            lastModified[i] = page.getLastModified();
+            sitemapLastModified[i] = page.getSitemapLastModified();
+            i++;
+        }
+
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(MARK_CHECKED_PAGES);
+            statement.setInt(1, generation);
+            statement.setArray(2, connection.createArrayOf("int4", ids));
+            statement.setArray(3, connection.createArrayOf("varchar", etags));
+            statement.setArray(4, connection.createArrayOf("varchar", lastModified));
+            statement.setArray(5, connection.createArrayOf("varchar", sitemapLastModified));
+            return statement;
+        });
+    }
+
+    /**
+     * Переносит проверенные страницы текущего поколения сайта в новое
+     *
+     * @return id перенесенных страниц
+     */
+    public List<Integer> promoteCheckedPages(int siteId, int fromGeneration, int toGeneration) {
+        return jdbcTemplate.queryForList(PROMOTE_CHECKED_PAGES, Integer.class,
+                toGeneration, siteId, fromGeneration, toGeneration);
+    }
+
+    /**
+     * Удаляет записи индекса страницы по леммам и уменьшает frequency этих лемм
+     */
+    public void removePageLemmas(int pageId, Collection<Integer> lemmaIds) {
+        if (lemmaIds.isEmpty()) {
+            return;
+        }
+
+        Integer[] ids = lemmaIds.toArray(new Integer[0]);
+        Arrays.sort(ids);
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(DELETE_PAGE_INDEXES);
+            statement.setInt(1, pageId);
+            statement.setArray(2, connection.createArrayOf("int4", ids));
+            return statement;
+        });
+        updateByIds(DECREMENT_LEMMAS, ids);
+        updateByIds(DELETE_UNUSED_LEMMAS_BY_ID, ids);
+    }
+
+    /**
+     * Обновляет ранги и позиции существующих записей индекса страницы одним запросом
+     *
+     * @param ranks id леммы -> новый ранг
+     * @param positions id леммы -> новые сжатые позиции или null
+     */
+    public void updateIndexes(int pageId, Map<Integer, Integer> ranks, Map<Integer, byte[]> positions) {
+        if (ranks.isEmpty()) {
+            return;
+        }
+
+        Integer[] lemmaIds = new Integer[ranks.size()];
+        Float[] rankValues = new Float[lemmaIds.length];
+        byte[][] positionValues = new byte[lemmaIds.length][];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : ranks.entrySet()) {
+            lemmaIds[i] = entry.getKey();
+            rankValues[i] = entry.getValue().floatValue();
+            positionValues[i] = positions.get(entry.getKey());
+            i++;
+        }
+
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPDATE_INDEXES);
+            statement.setArray(1, connection.createArrayOf("int4", lemmaIds));
+            statement.setArray(2, connection.createArrayOf("float4", rankValues));
+            statement.setArray(3, connection.createArrayOf("bytea", positionValues));
+            statement.setInt(4, pageId);
+            return statement;
+        });
+    }
+
+    private void updateByIds(String sql, Integer[] ids) {
+        jdbcTemplate.update(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setArray(1, connection.createArrayOf("int4", ids));
+            return statement;
+        });
+    }
+}
@@ -4,13 +4,26 @@ import com.searchlocal.model.Index;
 import com.searchlocal.model.Lemma;
 import com.searchlocal.model.Page;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
+import java.util.stream.Stream;
 
 @Repository
 public interface IndexRepository extends JpaRepository<Index, Integer> {
     List<Index> findByLemma(Lemma lemma);
     List<Index> findByPage(Page page);
+    
+    @Query("SELECT i.lemma.id, i.page.id, i.rank, i.positions FROM Index i ORDER BY i.lemma.id, i.page.id")
+    Stream<Object[]> streamAllPostings();
+    
+    @Query("SELECT l.lemma, l.id, i.rank, i.positions FROM Index i JOIN i.lemma l WHERE i.page.id = :pageId")
+    List<Object[]> findPageLemmas(@Param("pageId") Integer pageId);
+    
+    @Query("SELECT s.id, COUNT(DISTINCT i.lemma.id) FROM Index i JOIN i.page p JOIN p.site s " +
+           "WHERE p.generation = s.generation GROUP BY s.id")
+    List<Object[]> countLemmasBySite();
 }
 
@@ -0,0 +1,41 @@
+package com.searchlocal.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * Версия изменений индекса в таблице index_state. Увеличение версии блокирует строку
+ * до конца транзакции, поэтому транзакции, меняющие индекс, получают версии в порядке коммита.
+ */
+@Repository
+public class IndexStateRepository {
+    private static final String INCREMENT_VERSION =
+            "INSERT INTO index_state (id, version) VALUES (1, 1) " +
+            "ON CONFLICT (id) DO UPDATE SET version = index_state.version + 1 " +
+            "RETURNING version";
+
+    private static final String SELECT_VERSION =
+            "SELECT COALESCE(MAX(version), 0) FROM index_state";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public IndexStateRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Увеличивает версию в текущей транзакции
+     *
+     * @return новая версия
+     */
+    public long nextVersion() {
+        return jdbcTemplate.queryForObject(INCREMENT_VERSION, Long.class);
+    }
+
+    /**
+     * Последняя закоммиченная версия или 0, если индекс еще не менялся
+     */
+    public long currentVersion() {
+        return jdbcTemplate.queryForObject(SELECT_VERSION, Long.class);
+    }
+}
@@ -1,15 +1,66 @@
 package com.searchlocal.repository;
 
 import com.searchlocal.model.Page;
+import com.searchlocal.model.PageState;
+import com.searchlocal.model.PageSummary;
 import com.searchlocal.model.Site;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 
 @Repository
 public interface PageRepository extends JpaRepository<Page, Integer> {
-    Optional<Page> findBySiteAndPath(Site site, String path);
-    boolean existsBySiteAndPath(Site site, String path);
+    Optional<Page> findBySiteAndPathAndGeneration(Site site, String path, int generation);
+    
+    @Query("SELECT p.path FROM Page p WHERE p.site = :site AND p.generation = :generation AND p.path IN :paths")
+    Set<String> findExistingPaths(@Param("site") Site site, @Param("generation") int generation,
+                                  @Param("paths") Collection<String> paths);
+    
+    @Query("SELECT p.path FROM Page p WHERE p.site = :site " +
+           "AND (p.generation = :generation OR p.checkedGeneration = :generation)")
+    List<String> findProcessedPaths(@Param("site") Site site, @Param("generation") int generation);
+    
+    @Query("SELECT p.simhash FROM Page p WHERE p.site = :site AND p.simhash IS NOT NULL " +
+           "AND (p.generation = :generation OR p.checkedGeneration = :generation)")
+    List<Long> findProcessedSimhashes(@Param("site") Site site, @Param("generation") int generation);
+    
+    @Query("SELECT p.id AS id, p.path AS path, p.contentHash AS contentHash, " +
+           "p.etag AS etag, p.lastModified AS lastModified, p.sitemapLastModified AS sitemapLastModified, " +
+           "p.simhash AS simhash " +
+           "FROM Page p WHERE p.site = :site AND p.generation = :generation")
+    List<PageState> findStates(@Param("site") Site site, @Param("generation") int generation);
+    
+    @Query("SELECT p.content FROM Page p WHERE p.id = :id")
+    String findContentById(@Param("id") Integer id);
+    
+    @Query("SELECT p.id AS id, s.url AS siteUrl, p.path AS path, p.title AS title, p.text AS text, " +
+           "p.wordOffsets AS wordOffsets " +
+           "FROM Page p JOIN p.site s WHERE p.id IN :ids")
+    List<PageSummary> findSummariesByIdIn(@Param("ids") Collection<Integer> ids);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Page p SET p.title = :title, p.text = :text WHERE p.id = :id")
+    void updateTitleAndText(@Param("id") Integer id, @Param("title") String title, @Param("text") String text);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Page p SET p.contentHash = NULL, p.etag = NULL, p.lastModified = NULL, " +
+           "p.sitemapLastModified = NULL WHERE p.site = :site")
+    void clearValidators(@Param("site") Site site);
+    
+    @Query("SELECT p.id, s.id, p.generation, s.generation FROM Page p JOIN p.site s")
+    List<Object[]> findAllPageSites();
+    
+    @Query("SELECT s.id, COUNT(p) FROM Page p JOIN p.site s WHERE p.generation = s.generation GROUP BY s.id")
+    List<Object[]> countPagesBySite();
 }
 
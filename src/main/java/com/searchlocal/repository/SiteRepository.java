@@ -3,8 +3,13 @@ package com.searchlocal.repository;
 import com.searchlocal.model.Site;
 import com.searchlocal.model.SiteStatus;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -12,5 +17,35 @@ import java.util.Optional;
 public interface SiteRepository extends JpaRepository<Site, Integer> {
     Optional<Site> findByUrl(String url);
     List<Site> findByStatus(SiteStatus status);
+    
+    // Статус и поколение меняются точечными запросами, а не записью всей строки из копии сайта:
+    // остановка из другого потока не может вернуть сайту старое поколение
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Site s SET s.generation = :generation, s.status = :status, s.statusTime = :time " +
+           "WHERE s.id = :id")
+    int updateGeneration(@Param("id") Integer id, @Param("generation") int generation,
+                         @Param("status") SiteStatus status, @Param("time") LocalDateTime time);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Site s SET s.status = :status, s.lastError = :error, s.statusTime = :time " +
+           "WHERE s.url = :url AND s.status = :expected")
+    int updateStatusIf(@Param("url") String url, @Param("expected") SiteStatus expected,
+                       @Param("status") SiteStatus status, @Param("error") String error,
+                       @Param("time") LocalDateTime time);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Site s SET s.status = :status, s.lastError = :error, s.statusTime = :time " +
+           "WHERE s.url = :url")
+    int updateStatus(@Param("url") String url, @Param("status") SiteStatus status,
+                     @Param("error") String error, @Param("time") LocalDateTime time);
+    
+    @Transactional
+    @Modifying
+    @Query("UPDATE Site s SET s.statusTime = :time WHERE s.id = :id")
+    void updateStatusTime(@Param("id") Integer id, @Param("time") LocalDateTime time);
 }
 
@@ -1,237 +1,594 @@
 package com.searchlocal.service;
 
+import com.searchlocal.crawler.CrawlFrontier;
+import com.searchlocal.crawler.CrawlPipeline;
+import com.searchlocal.crawler.CrawlSavings;
+import com.searchlocal.crawler.FetchedPage;
+import com.searchlocal.crawler.FingerprintSet;
+import com.searchlocal.crawler.HostRateLimiter;
+import com.searchlocal.crawler.NearDuplicateIndex;
+import com.searchlocal.crawler.PageFetcher;
+import com.searchlocal.crawler.RobotsRules;
+import com.searchlocal.crawler.Sitemap;
+import com.searchlocal.crawler.UrlCanonicalizer;
 import com.searchlocal.model.*;
 import com.searchlocal.repository.*;
+import com.searchlocal.util.ContentHasher;
+import com.searchlocal.util.HtmlTextExtractor;
+import com.searchlocal.util.LemmaOccurrences;
 import com.searchlocal.util.Lemmatizer;
+import com.searchlocal.util.SimHash;
+import com.searchlocal.util.WordTokenizer;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
 import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 @Service
 public class CrawlingService {
     private static final Logger logger = LoggerFactory.getLogger(CrawlingService.class);
+    private static final int HTTP_NOT_MODIFIED = 304;
     
     private final SiteRepository siteRepository;
     private final PageRepository pageRepository;
-    private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
     private final IndexingService indexingService;
+    private final PageFetcher pageFetcher;
+    private final int parallelism;
+    private final HostRateLimiter rateLimiter;
+    private final int queueCapacity;
+    private final int persistBatchSize;
+    private final Path frontierDirectory;
+    private final UrlCanonicalizer canonicalizer;
+    private final int duplicateDistance;
+    private final int duplicateMinWords;
+    private final String robotsAgent;
+    private final int sitemapMaxFiles;
+    private final int sitemapMaxUrls;
     
     public CrawlingService(
             SiteRepository siteRepository,
             PageRepository pageRepository,
-            LemmaRepository lemmaRepository,
-            IndexRepository indexRepository,
-            IndexingService indexingService) {
+            IndexingService indexingService,
+            PageFetcher pageFetcher,
+            @Value("${crawler.parallelism:8}") int parallelism,
+            @Value("${crawler.host-delay-ms:500}") long hostDelayMillis,
+            @Value("${crawler.queue-capacity:100}") int queueCapacity,
+            @Value("${crawler.persist-batch-size:20}") int persistBatchSize,
+            @Value("${crawler.frontier-dir:crawl-frontier}") String frontierDirectory,
+            @Value("${crawler.canonical.ignore-params:utm_*,fbclid,gclid,yclid}") String[] ignoredParams,
+            @Value("${crawler.canonical.ignore-extensions:}") String[] ignoredExtensions,
+            @Value("${crawler.canonical.ignore-paths:}") String[] ignoredPaths,
+            @Value("${crawler.canonical.strip-trailing-slash:true}") boolean stripTrailingSlash,
+            @Value("${crawler.duplicate-distance:3}") int duplicateDistance,
+            @Value("${crawler.duplicate-min-words:50}") int duplicateMinWords,
+            @Value("${crawler.user-agent:searchlocal}") String robotsAgent,
+            @Value("${crawler.sitemap.max-files:50}") int sitemapMaxFiles,
+            @Value("${crawler.sitemap.max-urls:100000}") int sitemapMaxUrls) {
         this.siteRepository = siteRepository;
         this.pageRepository = pageRepository;
-        this.lemmaRepository = lemmaRepository;
-        this.indexRepository = indexRepository;
         this.indexingService = indexingService;
+        this.pageFetcher = pageFetcher;
+        this.parallelism = parallelism;
+        this.rateLimiter = new HostRateLimiter(hostDelayMillis);
+        this.queueCapacity = queueCapacity;
+        this.persistBatchSize = persistBatchSize;
+        this.frontierDirectory = Paths.get(frontierDirectory);
+        this.canonicalizer = new UrlCanonicalizer(Arrays.asList(ignoredParams),
+                Arrays.asList(ignoredExtensions), Arrays.asList(ignoredPaths), stripTrailingSlash);
+        this.duplicateDistance = duplicateDistance;
+        this.duplicateMinWords = duplicateMinWords;
+        this.robotsAgent = robotsAgent;
+        this.sitemapMaxFiles = sitemapMaxFiles;
+        this.sitemapMaxUrls = sitemapMaxUrls;
     }
     
     private final Lemmatizer lemmatizer = new Lemmatizer();
-    private final Map<String, AtomicBoolean> stopFlags = new ConcurrentHashMap<>();
+    private final Map<String, CrawlPipeline<?, ?>> pipelines = new ConcurrentHashMap<>();
+    private final Map<String, SiteStages> siteStages = new ConcurrentHashMap<>();
     
     /**
-     * Запускает индексацию сайта
+     * Индексирует сайт задачи планировщика в текущем потоке
      */
-    public void startIndexing(String siteUrl) {
-        stopFlags.put(siteUrl, new AtomicBoolean(false));
+    public void indexSite(IndexingTask task) {
+        String siteUrl = task.getSiteUrl();
+        if (task.isStopped()) {
+            return;
+        }
+        try {
+            Site site = siteRepository.findByUrl(siteUrl)
+                    .orElseGet(() -> {
+                        Site newSite = new Site(siteUrl, extractSiteName(siteUrl));
+                        return siteRepository.save(newSite);
+                    });
+            
+            // Обходим сайт в новое поколение, текущее остается доступным поиску
+            int generation = site.getGeneration() + 1;
+            Path frontierPath = frontierPath(site, generation);
+            
+            // Прерванный обход продолжается по сохраненной очереди, если режим позиций не меняется
+            Boolean positional = task.getPositional();
+            boolean positionalChanged = positional != null && positional != site.isPositional();
+            boolean resume = !positionalChanged && frontierPath.toFile().isDirectory();
+            if (!resume) {
+                // Удаляем остатки прерванной переиндексации
+                CrawlFrontier.discard(frontierPath);
+                indexingService.purgeStaleGenerations(site);
+            }
+            
+            // При смене режима позиций все страницы нужно лемматизировать заново
+            if (positionalChanged) {
+                site.setPositional(positional);
+                pageRepository.clearValidators(site);
+            }
+            
+            // Обновляем статус
+            site.setStatus(SiteStatus.INDEXING);
+            site.setLastError(null);
+            siteRepository.save(site);
+            
+            crawlSite(site, siteUrl, generation, task, frontierPath, resume);
+            
+            // Переключаем поиск на новое поколение и удаляем старое
+            if (task.isStopped()) {
+                markStopped(siteUrl);
+            } else {
+                indexingService.activateGeneration(site, generation);
+                logger.info("Индексация сайта {} завершена", siteUrl);
+                indexingService.purgeStaleGenerations(site);
+            }
+            
+        } catch (Exception e) {
+            logger.error("Ошибка при индексации сайта {}: {}", siteUrl, e.getMessage(), e);
+            siteRepository.updateStatus(siteUrl, SiteStatus.FAILED, e.getMessage(), LocalDateTime.now());
+        }
+    }
+    
+    /**
+     * Отмечает сайт, индексация которого остановлена пользователем. Меняется только статус
+     * и только у индексируемого сайта, поэтому переключение поколения в потоке обхода
+     * не перезаписывается.
+     */
+    public void markStopped(String siteUrl) {
+        siteRepository.updateStatusIf(siteUrl, SiteStatus.INDEXING, SiteStatus.FAILED,
+                "Индексация остановлена пользователем", LocalDateTime.now());
+    }
+    
+    /**
+     * Отмечает все индексируемые сайты как остановленные пользователем
+     */
+    public void markAllStopped() {
+        for (Site site : siteRepository.findByStatus(SiteStatus.INDEXING)) {
+            markStopped(site.getUrl());
+        }
+    }
+    
+    /**
+     * Обходит сайт конвейером: загрузка, разбор с лемматизацией и пакетная запись
+     * выполняются разными стадиями параллельно. Перед обходом загружаются robots.txt
+     * и карта сайта: запрещенные адреса не загружаются, запросы идут с интервалом
+     * из Crawl-delay, а страницы из карты ставятся в очередь первыми.
+     */
+    private void crawlSite(Site site, String baseUrl, int generation, IndexingTask task,
+                           Path frontierPath, boolean resume) throws IOException, InterruptedException {
+        URI siteUri = URI.create(baseUrl);
+        RobotsRules robots = loadRobots(siteUri, task);
+        rateLimiter.setInterval(baseUrl, robots.getCrawlDelayMillis());
+        List<Sitemap.Entry> sitemapEntries = loadSitemaps(siteUri, robots, task);
+        logger.info("Сайт {}: Crawl-delay {} мс, в карте сайта {} URL",
+                baseUrl, robots.getCrawlDelayMillis(), sitemapEntries.size());
+        
+        // При продолжении обхода уже записанные в новое поколение и проверенные страницы пропускаются
+        FingerprintSet processedPaths = new FingerprintSet();
+        if (resume) {
+            pageRepository.findProcessedPaths(site, generation).forEach(processedPaths::add);
+        }
+        CrawlFrontier frontier = CrawlFrontier.open(frontierPath,
+                url -> processedPaths.size() > 0 && processedPaths.contains(extractPath(url, baseUrl)));
+        if (frontier.isResumed()) {
+            logger.info("Обход сайта {} продолжается: в очереди {} URL, обработано {} страниц",
+                    baseUrl, frontier.size(), processedPaths.size());
+        }
+        
+        SiteStages stages = new SiteStages(site, baseUrl, generation, task, robots, resume);
+        stages.seed(frontier, sitemapEntries);
         
-        CompletableFuture.runAsync(() -> {
+        CrawlPipeline<FetchedPage, ParsedPage> pipeline = new CrawlPipeline<>(
+                stages,
+                frontier,
+                parallelism,
+                Runtime.getRuntime().availableProcessors(),
+                queueCapacity,
+                persistBatchSize,
+                task.getStopFlag());
+        
+        pipelines.put(site.getUrl(), pipeline);
+        siteStages.put(site.getUrl(), stages);
+        boolean completed = false;
+        try {
+            pipeline.run(stages.canonicalUrl(baseUrl));
+            completed = !task.isStopped();
+            CrawlSavings savings = stages.savings();
+            logger.info("Обход сайта {}: нормализация ссылок сэкономила {} загрузок, пропущено {} дубликатов " +
+                            "(около {} строк индекса), оставлено в индексе {} ранее сохраненных дубликатов, " +
+                            "не загружено по карте сайта {} страниц", baseUrl,
+                    savings.getSkippedFetches(), savings.getDuplicatePages(), savings.getSkippedIndexRows(),
+                    savings.getKeptDuplicates(), savings.getUnchangedBySitemap());
+        } finally {
+            pipelines.remove(site.getUrl());
+            siteStages.remove(site.getUrl());
+            if (completed) {
+                frontier.delete();
+            } else {
+                frontier.close();
+            }
+        }
+    }
+    
+    /**
+     * Загружает robots.txt сайта. Если файла нет (код 4xx), обход не ограничивается.
+     * Ошибка сервера (5xx) или сети означает, что правила неизвестны (RFC 9309): обход откладывается
+     * исключением, и поиск продолжает работать с текущим поколением сайта.
+     *
+     * @throws IOException если robots.txt недоступен из-за ошибки сервера или сети
+     */
+    private RobotsRules loadRobots(URI siteUri, IndexingTask task) throws IOException, InterruptedException {
+        String url = siteUri.getScheme() + "://" + siteUri.getRawAuthority() + "/robots.txt";
+        if (!task.awaitFetch()) {
+            return RobotsRules.allowAll();
+        }
+        FetchedPage response;
+        try {
+            rateLimiter.acquire(url);
+            response = pageFetcher.fetch(url, Collections.emptyMap());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Не удалось загрузить {}: {}", url, e.getMessage());
+            return RobotsRules.allowAll();
+        } catch (IOException e) {
+            throw new IOException("Не удалось загрузить " + url + ", обход отложен: " + e.getMessage(), e);
+        }
+        if (response.statusCode() >= 500) {
+            throw new IOException("Сервер вернул код " + response.statusCode() + " на " + url + ", обход отложен");
+        }
+        if (response.statusCode() >= 400 || !response.isHtml()) {
+            return RobotsRules.allowAll();
+        }
+        return RobotsRules.parse(response.text(), robotsAgent);
+    }
+    
+    /**
+     * Загружает карты сайта из robots.txt, а если их там нет - /sitemap.xml,
+     * вместе с вложенными картами из sitemapindex в пределах лимитов
+     */
+    private List<Sitemap.Entry> loadSitemaps(URI siteUri, RobotsRules robots, IndexingTask task)
+            throws InterruptedException {
+        Deque<String> pending = new ArrayDeque<>(robots.getSitemaps());
+        if (pending.isEmpty()) {
+            pending.add(siteUri.getScheme() + "://" + siteUri.getRawAuthority() + "/sitemap.xml");
+        }
+        Set<String> loaded = new HashSet<>();
+        List<Sitemap.Entry> entries = new ArrayList<>();
+        while (!pending.isEmpty() && loaded.size() < sitemapMaxFiles && entries.size() < sitemapMaxUrls) {
+            String url = pending.poll();
+            if (!loaded.add(url)) {
+                continue;
+            }
+            if (!task.awaitFetch()) {
+                break;
+            }
             try {
-                Site site = siteRepository.findByUrl(siteUrl)
-                        .orElseGet(() -> {
-                            Site newSite = new Site(siteUrl, extractSiteName(siteUrl));
-                            return siteRepository.save(newSite);
-                        });
-                
-                // Удаляем старые данные
-                deleteSiteData(site);
-                
-                // Обновляем статус
-                site.setStatus(SiteStatus.INDEXING);
-                site.setLastError(null);
-                siteRepository.save(site);
-                
-                // Обходим сайт
-                crawlSite(site, siteUrl);
-                
-                // Обновляем статус
-                if (!stopFlags.get(siteUrl).get()) {
-                    site.setStatus(SiteStatus.INDEXED);
-                    siteRepository.save(site);
-                    logger.info("Индексация сайта {} завершена", siteUrl);
-                }
-                
-            } catch (Exception e) {
-                logger.error("Ошибка при индексации сайта {}: {}", siteUrl, e.getMessage(), e);
-                Site site = siteRepository.findByUrl(siteUrl).orElse(null);
-                if (site != null) {
-                    site.setStatus(SiteStatus.FAILED);
-                    site.setLastError(e.getMessage());
-                    siteRepository.save(site);
+                rateLimiter.acquire(url);
+                // Карта может быть сжата (.xml.gz), поэтому тело читается при любом типе
+                FetchedPage response = pageFetcher.fetchFile(url);
+                if (response.statusCode() >= 400 || !response.hasBody()) {
+                    continue;
                 }
-            } finally {
-                stopFlags.remove(siteUrl);
+                Sitemap sitemap = Sitemap.parse(response);
+                pending.addAll(sitemap.getSitemaps());
+                List<Sitemap.Entry> urls = sitemap.getUrls();
+                entries.addAll(urls.subList(0, Math.min(urls.size(), sitemapMaxUrls - entries.size())));
+            } catch (IOException | IllegalArgumentException e) {
+                logger.warn("Не удалось загрузить карту сайта {}: {}", url, e.getMessage());
             }
-        });
+        }
+        return entries;
+    }
+    
+    private Path frontierPath(Site site, int generation) {
+        return frontierDirectory.resolve("site-" + site.getId() + "-" + generation);
     }
     
     /**
-     * Останавливает индексацию
+     * Возвращает метрики конвейера обхода сайта или null, если сайт не обходится
      */
-    public void stopIndexing() {
-        stopFlags.values().forEach(flag -> flag.set(true));
-        
-        // Обновляем статусы всех индексируемых сайтов
-        List<Site> indexingSites = siteRepository.findByStatus(SiteStatus.INDEXING);
-        for (Site site : indexingSites) {
-            site.setStatus(SiteStatus.FAILED);
-            site.setLastError("Индексация остановлена пользователем");
-            siteRepository.save(site);
-        }
+    public CrawlPipeline.Metrics getPipelineMetrics(String siteUrl) {
+        CrawlPipeline<?, ?> pipeline = pipelines.get(siteUrl);
+        return pipeline != null ? pipeline.metrics() : null;
+    }
+    
+    /**
+     * Возвращает сэкономленные обходом сайта загрузки и записи или null, если сайт не обходится
+     */
+    public CrawlSavings getCrawlSavings(String siteUrl) {
+        SiteStages stages = siteStages.get(siteUrl);
+        return stages != null ? stages.savings() : null;
     }
     
     /**
-     * Обходит сайт
+     * Стадии конвейера обхода одного сайта. Уже проиндексированные страницы
+     * запрашиваются условно; неизменившиеся не лемматизируются и не перезаписываются.
+     * Ссылки нормализуются до постановки в очередь, а новые страницы, почти совпадающие
+     * по тексту с уже обойденными, не сохраняются и не индексируются; уже проиндексированные
+     * страницы-дубликаты только учитываются. Короткие тексты на дубликаты не проверяются.
+     * Загрузка и запись ждут общих лимитов планировщика и паузы задачи.
      */
-    private void crawlSite(Site site, String baseUrl) {
-        Set<String> visited = ConcurrentHashMap.newKeySet();
-        Queue<String> queue = new ConcurrentLinkedQueue<>();
-        queue.offer(baseUrl);
-        visited.add(baseUrl);
+    private class SiteStages implements CrawlPipeline.Stages<FetchedPage, ParsedPage> {
+        private final Site site;
+        private final String baseUrl;
+        private final URI siteUri;
+        private final int generation;
+        private final IndexingTask task;
+        private final RobotsRules robots;
+        private final Map<String, PageState> knownPages = new HashMap<>();
+        // Канонический URL -> lastmod из карты сайта; заполняется до начала обхода
+        private final Map<String, String> sitemapLastModified = new HashMap<>();
+        private final NearDuplicateIndex duplicates;
+        // Различные ссылки сайта до и после нормализации, для подсчета сэкономленных загрузок
+        private final FingerprintSet rawLinks = new FingerprintSet();
+        private final FingerprintSet canonicalLinks = new FingerprintSet();
+        private final AtomicLong duplicatePages = new AtomicLong();
+        private final AtomicLong keptDuplicates = new AtomicLong();
+        private final AtomicLong skippedIndexRows = new AtomicLong();
+        private final AtomicLong unchangedBySitemap = new AtomicLong();
         
-        ForkJoinPool pool = new ForkJoinPool();
+        SiteStages(Site site, String baseUrl, int generation, IndexingTask task, RobotsRules robots,
+                   boolean resume) {
+            this.site = site;
+            this.baseUrl = baseUrl;
+            this.siteUri = URI.create(baseUrl);
+            this.generation = generation;
+            this.task = task;
+            this.robots = robots;
+            this.duplicates = duplicateDistance >= 0 ? new NearDuplicateIndex(duplicateDistance) : null;
+            for (PageState state : pageRepository.findStates(site, site.getGeneration())) {
+                knownPages.put(state.getPath(), state);
+            }
+            if (resume && duplicates != null) {
+                // Отпечатки страниц, обработанных до остановки, иначе их дубликаты пройдут проверку
+                pageRepository.findProcessedSimhashes(site, generation).forEach(duplicates::put);
+            }
+        }
         
-        while (!queue.isEmpty() && !stopFlags.get(site.getUrl()).get()) {
-            String url = queue.poll();
-            if (url == null) continue;
+        /**
+         * Ставит в очередь начальный URL и разрешенные страницы из карты сайта,
+         * недавно измененные первыми
+         */
+        void seed(CrawlFrontier frontier, List<Sitemap.Entry> entries) throws IOException {
+            frontier.add(canonicalUrl(baseUrl), 0);
+            List<Sitemap.Entry> sorted = new ArrayList<>(entries);
+            sorted.sort(Comparator.comparing(Sitemap.Entry::getLastModifiedTime,
+                    Comparator.nullsLast(Comparator.reverseOrder())));
+            for (Sitemap.Entry entry : sorted) {
+                String url = canonicalizer.canonicalize(entry.getUrl(), siteUri);
+                if (url == null || !robots.isAllowed(url)) {
+                    continue;
+                }
+                if (entry.getLastModified() != null) {
+                    sitemapLastModified.putIfAbsent(url, entry.getLastModified());
+                }
+                frontier.add(url, 0);
+            }
+            frontier.flush();
+        }
+        
+        @Override
+        public FetchedPage fetch(String url) throws IOException, InterruptedException {
+            if (!robots.isAllowed(url)) {
+                return null;
+            }
+            PageState known = knownPages.get(extractPath(url, baseUrl));
+            String lastModified = sitemapLastModified.get(url);
+            if (known != null && lastModified != null && lastModified.equals(known.getSitemapLastModified())) {
+                // Дата изменения в карте сайта прежняя: страница не загружается
+                unchangedBySitemap.incrementAndGet();
+                return FetchedPage.notModified(url);
+            }
+            
+            if (!task.awaitFetch()) {
+                return null;
+            }
+            rateLimiter.acquire(url);
+            
+            Map<String, String> headers = new HashMap<>();
+            if (known != null && known.getEtag() != null) {
+                headers.put("If-None-Match", known.getEtag());
+            }
+            if (known != null && known.getLastModified() != null) {
+                headers.put("If-Modified-Since", known.getLastModified());
+            }
+            // Тело читается целиком в стадии загрузки, чтобы разбор не ждал сеть;
+            // перенаправления выполняются только на адреса сайта, которые можно обходить
+            FetchedPage response = pageFetcher.fetch(url, headers, this::isCrawlable);
             
+            if (response.statusCode() >= 400
+                    || (response.statusCode() != HTTP_NOT_MODIFIED && !response.isHtml())) {
+                return null;
+            }
+            return response;
+        }
+        
+        @Override
+        public ParsedPage parse(FetchedPage response, Consumer<String> links) throws IOException {
+            String url = canonicalUrl(response.url());
+            String path = extractPath(url, baseUrl);
+            PageState known = knownPages.get(path);
+            
+            if (response.statusCode() == HTTP_NOT_MODIFIED && known != null) {
+                // Тело не передано: ссылки берем из сохраненного HTML
+                String html = pageRepository.findContentById(known.getId());
+                collectLinks(Jsoup.parse(html != null ? html : "", response.url()), links);
+                if (duplicates != null && known.getSimhash() != null) {
+                    duplicates.put(known.getSimhash());
+                }
+                Page page = new Page();
+                page.setId(known.getId());
+                page.setEtag(known.getEtag());
+                page.setLastModified(known.getLastModified());
+                page.setSitemapLastModified(sitemapLastModified.get(url));
+                return new ParsedPage(page, null, true);
+            }
+            
+            Document doc = response.parse();
+            collectLinks(doc, links);
+            
+            Page page = new Page(site, path, response.statusCode(), response.html(doc));
+            page.setTitle(HtmlTextExtractor.extractTitle(doc));
+            page.setText(HtmlTextExtractor.extractText(doc.body()));
+            page.setContentHash(ContentHasher.hash(page.getTitle() + "\n" + page.getText()));
+            page.setEtag(response.header("ETag"));
+            page.setLastModified(response.header("Last-Modified"));
+            page.setSitemapLastModified(sitemapLastModified.get(url));
+            page.setSimhash(SimHash.of(page.getTitle() + " " + page.getText(), duplicateMinWords));
+            
+            if (duplicates != null && page.getSimhash() != null && !duplicates.add(page.getSimhash())) {
+                if (known == null) {
+                    duplicatePages.incrementAndGet();
+                    skippedIndexRows.addAndGet(countDistinctWords(page.getTitle() + " " + page.getText()));
+                    logger.debug("Страница {} почти совпадает с уже обойденной и пропущена", response.url());
+                    return null;
+                }
+                // Уже проиндексированная страница не удаляется из поиска, а только учитывается
+                keptDuplicates.incrementAndGet();
+                logger.debug("Страница {} почти совпадает с уже обойденной, но остается в индексе", response.url());
+            }
+            
+            if (known == null) {
+                page.setGeneration(generation);
+                return new ParsedPage(page, lemmatize(page), false);
+            }
+            
+            // Существующая страница остается в текущем поколении и переносится при переключении
+            page.setId(known.getId());
+            page.setGeneration(site.getGeneration());
+            if (page.getContentHash().equals(known.getContentHash())) {
+                return new ParsedPage(page, null, true);
+            }
+            return new ParsedPage(page, lemmatize(page), true);
+        }
+        
+        @Override
+        public void persist(List<ParsedPage> batch) throws InterruptedException {
+            Map<Page, LemmaOccurrences> newPages = new LinkedHashMap<>();
+            Map<Page, LemmaOccurrences> changedPages = new LinkedHashMap<>();
+            List<Page> unchangedPages = new ArrayList<>();
+            for (ParsedPage parsed : batch) {
+                if (!parsed.existing) {
+                    newPages.put(parsed.page, parsed.lemmas);
+                } else if (parsed.lemmas != null) {
+                    changedPages.put(parsed.page, parsed.lemmas);
+                } else {
+                    unchangedPages.add(parsed.page);
+                }
+            }
+            
+            task.acquireWriter();
             try {
-                // Задержка между запросами
-                Thread.sleep(500 + (long)(Math.random() * 4500));
-                
-                Document doc = Jsoup.connect(url)
-                        .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36")
-                        .referrer("http://www.google.com")
-                        .timeout(10000)
-                        .get();
-                
-                int statusCode = doc.connection().response().statusCode();
-                
-                if (statusCode >= 400) {
-                    continue;
+                if (!newPages.isEmpty()) {
+                    indexingService.savePages(site, generation, newPages);
                 }
-                
-                String path = extractPath(url, baseUrl);
-                
-                // Проверяем, не посещали ли мы эту страницу
-                if (pageRepository.existsBySiteAndPath(site, path)) {
+                if (!changedPages.isEmpty() || !unchangedPages.isEmpty()) {
+                    indexingService.refreshPages(changedPages, unchangedPages, generation);
+                }
+            } finally {
+                task.releaseWriter();
+            }
+        }
+        
+        private LemmaOccurrences lemmatize(Page page) {
+            return lemmatizer.getOccurrences(page.getTitle() + " " + page.getText(), site.isPositional());
+        }
+        
+        private void collectLinks(Document doc, Consumer<String> links) {
+            Elements elements = doc.select("a[href]");
+            for (Element link : elements) {
+                String href = link.attr("abs:href");
+                if (href == null || href.isEmpty()) {
                     continue;
                 }
-                
-                String html = doc.html();
-                String cleanText = lemmatizer.cleanHtml(html);
-                
-                // Сохраняем страницу
-                Page page = new Page(site, path, statusCode, html);
-                page = pageRepository.save(page);
-                
-                // Обновляем время статуса
-                site.setStatusTime(java.time.LocalDateTime.now());
-                siteRepository.save(site);
-                
-                // Индексируем страницу
-                indexPage(page, cleanText);
-                
-                // Извлекаем ссылки
-                Elements links = doc.select("a[href]");
-                for (Element link : links) {
-                    String href = link.attr("abs:href");
-                    if (href != null && !href.isEmpty() && href.startsWith(baseUrl)) {
-                        if (!visited.contains(href)) {
-                            visited.add(href);
-                            queue.offer(href);
+                String url = canonicalizer.canonicalize(href, siteUri);
+                if (href.startsWith(baseUrl)) {
+                    synchronized (rawLinks) {
+                        rawLinks.add(href);
+                        if (url != null) {
+                            canonicalLinks.add(url);
                         }
                     }
                 }
-                
-            } catch (Exception e) {
-                logger.warn("Ошибка при обходе страницы {}: {}", url, e.getMessage());
+                if (url != null && robots.isAllowed(url)) {
+                    links.accept(url);
+                }
             }
         }
         
-        pool.shutdown();
-    }
-    
-    /**
-     * Индексирует страницу (лемматизация и сохранение)
-     */
-    @Transactional
-    private void indexPage(Page page, String cleanText) {
-        Map<String, Integer> lemmas = lemmatizer.getLemmas(cleanText);
+        private boolean isCrawlable(URI uri) {
+            String url = canonicalizer.canonicalize(uri.toString(), siteUri);
+            return url != null && robots.isAllowed(url);
+        }
         
-        for (Map.Entry<String, Integer> entry : lemmas.entrySet()) {
-            String lemmaText = entry.getKey();
-            Integer count = entry.getValue();
-            
-            // Получаем или создаем лемму
-            Lemma lemma = lemmaRepository.findByLemma(lemmaText)
-                    .orElseGet(() -> {
-                        Lemma newLemma = new Lemma(lemmaText, 0);
-                        return lemmaRepository.save(newLemma);
-                    });
-            
-            // Увеличиваем frequency
-            lemma.setFrequency(lemma.getFrequency() + 1);
-            lemmaRepository.save(lemma);
-            
-            // Создаем запись в индексе
-            Index index = new Index(page, lemma, count.floatValue());
-            indexRepository.save(index);
+        /**
+         * Канонический URL страницы сайта; адрес, не прошедший нормализацию, остается как есть
+         */
+        String canonicalUrl(String url) {
+            String canonical = canonicalizer.canonicalize(url, siteUri);
+            return canonical != null ? canonical : url;
+        }
+        
+        CrawlSavings savings() {
+            long skippedFetches;
+            synchronized (rawLinks) {
+                skippedFetches = rawLinks.size() - canonicalLinks.size();
+            }
+            return new CrawlSavings(skippedFetches, duplicatePages.get(), keptDuplicates.get(),
+                    skippedIndexRows.get(), unchangedBySitemap.get());
         }
     }
     
     /**
-     * Удаляет данные сайта
+     * Разобранная страница, ожидающая записи.
+     * Для существующей страницы без изменений леммы не вычисляются (null).
      */
-    @Transactional
-    private void deleteSiteData(Site site) {
-        List<Page> pages = pageRepository.findAll().stream()
-                .filter(p -> p.getSite().equals(site))
-                .toList();
+    private static class ParsedPage {
+        private final Page page;
+        private final LemmaOccurrences lemmas;
+        private final boolean existing;
         
-        for (Page page : pages) {
-            indexRepository.findByPage(page).forEach(index -> {
-                Lemma lemma = index.getLemma();
-                indexRepository.delete(index);
-                
-                lemma.setFrequency(Math.max(0, lemma.getFrequency() - 1));
-                if (lemma.getFrequency() == 0) {
-                    lemmaRepository.delete(lemma);
-                } else {
-                    lemmaRepository.save(lemma);
-                }
-            });
-            
-            pageRepository.delete(page);
+        ParsedPage(Page page, LemmaOccurrences lemmas, boolean existing) {
+            this.page = page;
+            this.lemmas = lemmas;
+            this.existing = existing;
         }
     }
     
+    private static int countDistinctWords(String text) {
+        Set<String> words = new HashSet<>();
+        WordTokenizer.forEachWord(text, 1, (word, start, end) -> words.add(word));
+        return words.size();
+    }
+    
     private String extractSiteName(String url) {
         try {
             URI uri = new URI(url);
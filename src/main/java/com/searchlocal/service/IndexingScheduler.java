@@ -0,0 +1,155 @@
+package com.searchlocal.service;
+
+import com.searchlocal.crawler.RateLimiter;
+import com.searchlocal.exception.IndexingException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Планировщик индексации сайтов: принимает пачку адресов, ставит их в общую очередь
+ * и обходит не больше заданного числа сайтов одновременно на собственном пуле потоков.
+ * Для всех обходов действуют общие лимиты: частота загрузки страниц и число
+ * одновременных записей в базу. Каждый сайт можно остановить, приостановить и возобновить.
+ */
+@Service
+public class IndexingScheduler {
+    private static final Logger logger = LoggerFactory.getLogger(IndexingScheduler.class);
+
+    private final CrawlingService crawlingService;
+    private final ThreadPoolExecutor executor;
+    private final RateLimiter fetchLimiter;
+    private final Semaphore writerSlots;
+    private final Map<String, IndexingTask> tasks = new ConcurrentHashMap<>();
+
+    public IndexingScheduler(
+            CrawlingService crawlingService,
+            @Value("${indexing.max-concurrent-sites:2}") int maxConcurrentSites,
+            @Value("${indexing.max-fetch-rate:20}") double maxFetchRate,
+            @Value("${indexing.db-writers:2}") int dbWriters) {
+        this.crawlingService = crawlingService;
+        this.fetchLimiter = RateLimiter.perSecond(maxFetchRate);
+        this.writerSlots = new Semaphore(dbWriters, true);
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxConcurrentSites, maxConcurrentSites,
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(),
+                runnable -> new Thread(runnable, "indexing-site-" + threadNumber.incrementAndGet()));
+    }
+
+    /**
+     * Ставит сайты в очередь индексации. Уже запланированные сайты пропускаются.
+     *
+     * @param positional сохранять ли позиции слов для поиска фраз; null - оставить как есть
+     * @return количество поставленных в очередь сайтов
+     */
+    public int schedule(Collection<String> siteUrls, Boolean positional) {
+        int scheduled = 0;
+        for (String siteUrl : siteUrls) {
+            IndexingTask task = new IndexingTask(siteUrl, positional, this::run, fetchLimiter, writerSlots);
+            if (tasks.putIfAbsent(siteUrl, task) != null) {
+                logger.info("Сайт {} уже в очереди индексации", siteUrl);
+                continue;
+            }
+            executor.execute(task);
+            scheduled++;
+        }
+        return scheduled;
+    }
+
+    /**
+     * Останавливает индексацию сайта: ожидающий сайт убирается из очереди,
+     * обход запущенного прерывается
+     */
+    public void stop(String siteUrl) {
+        IndexingTask task = requireTask(siteUrl);
+        task.stop();
+        if (executor.remove(task)) {
+            tasks.remove(siteUrl, task);
+        } else {
+            crawlingService.markStopped(siteUrl);
+        }
+        logger.info("Индексация сайта {} остановлена", siteUrl);
+    }
+
+    /**
+     * Останавливает индексацию всех сайтов и очищает очередь
+     */
+    public void stopAll() {
+        for (IndexingTask task : tasks.values()) {
+            task.stop();
+            if (executor.remove(task)) {
+                tasks.remove(task.getSiteUrl(), task);
+            }
+        }
+        crawlingService.markAllStopped();
+    }
+
+    /**
+     * Приостанавливает загрузку страниц сайта; уже загруженные дописываются в базу
+     */
+    public void pause(String siteUrl) {
+        requireTask(siteUrl).pause();
+    }
+
+    public void resume(String siteUrl) {
+        requireTask(siteUrl).resume();
+    }
+
+    /**
+     * Запланированные сайты: сначала обходимые, затем ожидающие в порядке очереди
+     */
+    public List<IndexingTask> getTasks() {
+        List<IndexingTask> result = new ArrayList<>();
+        for (IndexingTask task : tasks.values()) {
+            if (queuePosition(task) == 0) {
+                result.add(task);
+            }
+        }
+        for (Runnable queued : executor.getQueue()) {
+            result.add((IndexingTask) queued);
+        }
+        return result;
+    }
+
+    /**
+     * Позиция сайта в очереди, начиная с 1; 0 - сайт уже обходится
+     */
+    public int queuePosition(IndexingTask task) {
+        int position = 1;
+        for (Runnable queued : executor.getQueue()) {
+            if (queued == task) {
+                return position;
+            }
+            position++;
+        }
+        return 0;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopAll();
+        executor.shutdownNow();
+    }
+
+    private void run(IndexingTask task) {
+        try {
+            crawlingService.indexSite(task);
+        } finally {
+            tasks.remove(task.getSiteUrl(), task);
+        }
+    }
+
+    private IndexingTask requireTask(String siteUrl) {
+        IndexingTask task = tasks.get(siteUrl);
+        if (task == null) {
+            throw new IndexingException("Сайт " + siteUrl + " не индексируется");
+        }
+        return task;
+    }
+}
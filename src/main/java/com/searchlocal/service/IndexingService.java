@@ -1,20 +1,27 @@
 package com.searchlocal.service;
 
+import com.searchlocal.crawler.FetchedPage;
+import com.searchlocal.crawler.PageFetcher;
+import com.searchlocal.index.PositionCodec;
+import com.searchlocal.index.SearchIndex;
 import com.searchlocal.model.*;
 import com.searchlocal.repository.*;
+import com.searchlocal.util.ContentHasher;
+import com.searchlocal.util.HtmlTextExtractor;
+import com.searchlocal.util.LemmaOccurrences;
 import com.searchlocal.util.Lemmatizer;
-import org.jsoup.Jsoup;
+import com.searchlocal.util.SimHash;
 import org.jsoup.nodes.Document;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
 
 @Service
 public class IndexingService {
@@ -24,16 +31,28 @@ public class IndexingService {
     private final PageRepository pageRepository;
     private final LemmaRepository lemmaRepository;
     private final IndexRepository indexRepository;
+    private final IndexBatchRepository indexBatchRepository;
+    private final SearchIndex searchIndex;
+    private final PageFetcher pageFetcher;
+    private final int duplicateMinWords;
     
     public IndexingService(
             SiteRepository siteRepository,
             PageRepository pageRepository,
             LemmaRepository lemmaRepository,
-            IndexRepository indexRepository) {
+            IndexRepository indexRepository,
+            IndexBatchRepository indexBatchRepository,
+            SearchIndex searchIndex,
+            PageFetcher pageFetcher,
+            @Value("${crawler.duplicate-min-words:50}") int duplicateMinWords) {
         this.siteRepository = siteRepository;
         this.pageRepository = pageRepository;
         this.lemmaRepository = lemmaRepository;
         this.indexRepository = indexRepository;
+        this.indexBatchRepository = indexBatchRepository;
+        this.searchIndex = searchIndex;
+        this.pageFetcher = pageFetcher;
+        this.duplicateMinWords = duplicateMinWords;
     }
     
     private final Lemmatizer lemmatizer = new Lemmatizer();
@@ -63,66 +82,66 @@ public class IndexingService {
             String path = extractPath(url, siteUrl);
             
             // Проверяем, существует ли страница
-            Optional<Page> existingPage = pageRepository.findBySiteAndPath(site, path);
-            if (existingPage.isPresent()) {
-                // Удаляем старую информацию
-                deletePageData(existingPage.get());
-            }
+            Optional<Page> existingPage = pageRepository.findBySiteAndPathAndGeneration(
+                    site, path, site.getGeneration());
             
             // Загружаем страницу
-            Document doc = Jsoup.connect(url)
-                    .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36")
-                    .referrer("http://www.google.com")
-                    .timeout(10000)
-                    .get();
+            FetchedPage response = pageFetcher.fetch(url, Collections.emptyMap());
             
-            int statusCode = doc.connection().response().statusCode();
+            int statusCode = response.statusCode();
             
             // Сохраняем только страницы с успешными кодами
             if (statusCode >= 400) {
                 logger.warn("Пропущена страница с кодом ошибки {}: {}", statusCode, url);
                 return;
             }
+            if (!response.isHtml()) {
+                throw new IllegalArgumentException("Страница не является HTML-документом");
+            }
             
-            String html = doc.html();
-            String cleanText = lemmatizer.cleanHtml(html);
+            Document doc = response.parse();
+            String html = response.html(doc);
             
             // Создаем запись страницы
             Page page = new Page(site, path, statusCode, html);
-            page = pageRepository.save(page);
+            page.setGeneration(site.getGeneration());
+            page.setTitle(HtmlTextExtractor.extractTitle(doc));
+            page.setText(HtmlTextExtractor.extractText(doc.body()));
+            page.setContentHash(ContentHasher.hash(page.getTitle() + "\n" + page.getText()));
+            page.setEtag(response.header("ETag"));
+            page.setLastModified(response.header("Last-Modified"));
+            page.setSimhash(SimHash.of(page.getTitle() + " " + page.getText(), duplicateMinWords));
             
-            // Получаем леммы
-            Map<String, Integer> lemmas = lemmatizer.getLemmas(cleanText);
-            
-            // Сохраняем леммы и индексы
-            for (Map.Entry<String, Integer> entry : lemmas.entrySet()) {
-                String lemmaText = entry.getKey();
-                Integer count = entry.getValue();
-                
-                // Получаем или создаем лемму
-                Lemma lemma = lemmaRepository.findByLemma(lemmaText)
-                        .orElseGet(() -> {
-                            Lemma newLemma = new Lemma(lemmaText, 0);
-                            return lemmaRepository.save(newLemma);
-                        });
-                
-                // Увеличиваем frequency только если это новая страница для этой леммы
-                if (!indexRepository.findByPage(page).stream()
-                        .anyMatch(idx -> idx.getLemma().equals(lemma))) {
-                    lemma.setFrequency(lemma.getFrequency() + 1);
-                    lemmaRepository.save(lemma);
+            if (existingPage.isPresent()) {
+                Page existing = existingPage.get();
+                if (page.getContentHash().equals(existing.getContentHash())) {
+                    logger.info("Страница не изменилась: {}", url);
+                    return;
                 }
-                
-                // Создаем запись в индексе
-                Index index = new Index(page, lemma, count.floatValue());
-                indexRepository.save(index);
+                // Обновляем страницу на месте, перезаписывая только отличающиеся леммы
+                page.setId(existing.getId());
+                refreshPages(Map.of(page, lemmatizer.getOccurrences(
+                                page.getTitle() + " " + page.getText(), site.isPositional())),
+                        Collections.emptyList(), site.getGeneration());
+                logger.info("Страница переиндексирована: {}", url);
+                return;
             }
             
+            // Получаем леммы и сохраняем их вместе с индексом
+            LemmaOccurrences lemmas = lemmatizer.getOccurrences(
+                    page.getTitle() + " " + page.getText(), site.isPositional());
+            page.setWordOffsets(PositionCodec.encode(lemmas.getWordOffsets()));
+            page = pageRepository.save(page);
+            indexLemmas(page, lemmas);
+            
             logger.info("Страница проиндексирована: {}", url);
             
         } catch (IOException e) {
             logger.error("Ошибка при загрузке страницы {}: {}", url, e.getMessage(), e);
             throw new RuntimeException("Не удалось загрузить страницу: " + e.getMessage(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Загрузка страницы прервана", e);
         } catch (Exception e) {
             logger.error("Ошибка при индексации страницы {}: {}", url, e.getMessage(), e);
             throw e;
@@ -130,26 +149,153 @@ public class IndexingService {
     }
     
     /**
-     * Удаляет данные страницы из всех таблиц
+     * Сохраняет леммы страницы и записи индекса пакетно:
+     * один upsert лемм с увеличением frequency и одна вставка индекса
+     */
+    @Transactional
+    public void indexLemmas(Page page, LemmaOccurrences lemmas) {
+        indexPages(Map.of(page, lemmas));
+    }
+    
+    /**
+     * Сохраняет новые страницы поколения сайта пакетом в одной транзакции.
+     * Страницы, пути которых уже есть в этом поколении, пропускаются.
+     *
+     * @return количество сохраненных страниц
+     */
+    @Transactional
+    public int savePages(Site site, int generation, Map<Page, LemmaOccurrences> pages) {
+        Set<String> paths = new HashSet<>();
+        pages.keySet().forEach(page -> paths.add(page.getPath()));
+        Set<String> existingPaths = new HashSet<>(pageRepository.findExistingPaths(site, generation, paths));
+        
+        Map<Page, LemmaOccurrences> newPages = new LinkedHashMap<>();
+        for (Map.Entry<Page, LemmaOccurrences> entry : pages.entrySet()) {
+            if (existingPaths.add(entry.getKey().getPath())) {
+                entry.getKey().setWordOffsets(PositionCodec.encode(entry.getValue().getWordOffsets()));
+                newPages.put(pageRepository.save(entry.getKey()), entry.getValue());
+            }
+        }
+        
+        indexPages(newPages);
+        
+        site.setStatusTime(java.time.LocalDateTime.now());
+        siteRepository.updateStatusTime(site.getId(), site.getStatusTime());
+        return newPages.size();
+    }
+    
+    /**
+     * Обновляет уже проиндексированные страницы при повторном обходе.
+     * Для изменившихся страниц перезаписываются только исчезнувшие, новые
+     * и изменившие ранг или позиции леммы; неизменившиеся страницы лишь
+     * отмечаются проверенными с новыми валидаторами HTTP.
+     *
+     * @param changed страницы с id существующих записей -> новые леммы
+     * @param unchanged страницы с id существующих записей и актуальными валидаторами
+     * @param checkedGeneration поколение переиндексации, в которое переносятся страницы
      */
     @Transactional
-    private void deletePageData(Page page) {
-        // Удаляем индексы
-        indexRepository.findByPage(page).forEach(index -> {
-            Lemma lemma = index.getLemma();
-            indexRepository.delete(index);
-            
-            // Уменьшаем frequency леммы
-            lemma.setFrequency(Math.max(0, lemma.getFrequency() - 1));
-            if (lemma.getFrequency() == 0) {
-                lemmaRepository.delete(lemma);
-            } else {
-                lemmaRepository.save(lemma);
+    public void refreshPages(Map<Page, LemmaOccurrences> changed, Collection<Page> unchanged,
+                             int checkedGeneration) {
+        indexBatchRepository.markChecked(unchanged, checkedGeneration);
+        
+        for (Map.Entry<Page, LemmaOccurrences> entry : changed.entrySet()) {
+            Page page = entry.getKey();
+            LemmaOccurrences lemmas = entry.getValue();
+            page.setCheckedGeneration(checkedGeneration);
+            page.setWordOffsets(PositionCodec.encode(lemmas.getWordOffsets()));
+            pageRepository.save(page);
+            
+            // Сравниваем новый набор лемм с сохраненным
+            Map<String, Integer> lemmaIds = new HashMap<>();
+            List<Integer> removedLemmaIds = new ArrayList<>();
+            Map<Integer, Integer> changedRanks = new HashMap<>();
+            Map<Integer, byte[]> changedPositions = new HashMap<>();
+            Map<String, Integer> changedLemmas = new HashMap<>();
+            Map<String, Integer> addedLemmas = new HashMap<>(lemmas.getRanks());
+            for (Object[] row : indexRepository.findPageLemmas(page.getId())) {
+                String lemma = (String) row[0];
+                Integer lemmaId = (Integer) row[1];
+                int oldRank = Math.round((Float) row[2]);
+                byte[] newPositions = PositionCodec.encode(lemmas.positionsOf(lemma));
+                Integer newRank = addedLemmas.remove(lemma);
+                if (newRank == null) {
+                    removedLemmaIds.add(lemmaId);
+                } else if (newRank != oldRank || !Arrays.equals(newPositions, (byte[]) row[3])) {
+                    lemmaIds.put(lemma, lemmaId);
+                    changedRanks.put(lemmaId, newRank);
+                    changedPositions.put(lemmaId, newPositions);
+                    changedLemmas.put(lemma, newRank);
+                }
+            }
+            
+            indexBatchRepository.removePageLemmas(page.getId(), removedLemmaIds);
+            indexBatchRepository.updateIndexes(page.getId(), changedRanks, changedPositions);
+            Map<String, Integer> frequencyDeltas = new HashMap<>();
+            addedLemmas.keySet().forEach(lemma -> frequencyDeltas.put(lemma, 1));
+            lemmaIds.putAll(indexBatchRepository.upsertLemmas(frequencyDeltas));
+            indexBatchRepository.insertIndexes(lemmaIds,
+                    Map.of(page.getId(), new LemmaOccurrences(addedLemmas, lemmas.getPositions())));
+            
+            changedLemmas.putAll(addedLemmas);
+            int pageLength = lemmas.getRanks().values().stream().mapToInt(Integer::intValue).sum();
+            searchIndex.updatePage(page.getId(), pageLength, removedLemmaIds, lemmaIds,
+                    new LemmaOccurrences(changedLemmas, lemmas.getPositions()));
+        }
+    }
+    
+    /**
+     * Индексирует пакет сохраненных страниц: леммы всех страниц
+     * создаются одним upsert, записи индекса - одной вставкой
+     */
+    private void indexPages(Map<Page, LemmaOccurrences> pages) {
+        Map<String, Integer> frequencyDeltas = new HashMap<>();
+        Map<Integer, LemmaOccurrences> pageLemmas = new LinkedHashMap<>();
+        for (Map.Entry<Page, LemmaOccurrences> entry : pages.entrySet()) {
+            for (String lemma : entry.getValue().getRanks().keySet()) {
+                frequencyDeltas.merge(lemma, 1, Integer::sum);
             }
-        });
+            pageLemmas.put(entry.getKey().getId(), entry.getValue());
+        }
+        
+        Map<String, Integer> lemmaIds = indexBatchRepository.upsertLemmas(frequencyDeltas);
+        indexBatchRepository.insertIndexes(lemmaIds, pageLemmas);
         
-        // Удаляем страницу
-        pageRepository.delete(page);
+        for (Map.Entry<Page, LemmaOccurrences> entry : pages.entrySet()) {
+            Page page = entry.getKey();
+            boolean live = page.getGeneration() == page.getSite().getGeneration();
+            searchIndex.addPage(page.getId(), page.getSite().getId(), live, lemmaIds, entry.getValue());
+        }
+    }
+    
+    /**
+     * Делает поколение страниц сайта видимым поиску: проверенные при обходе страницы
+     * переносятся в него, номер поколения сайта и статус меняются одним запросом UPDATE,
+     * индекс в памяти переключается после коммита
+     */
+    @Transactional
+    public void activateGeneration(Site site, int generation) {
+        List<Integer> carriedPages = indexBatchRepository.promoteCheckedPages(
+                site.getId(), site.getGeneration(), generation);
+        site.setGeneration(generation);
+        site.setStatus(SiteStatus.INDEXED);
+        siteRepository.updateGeneration(site.getId(), generation, SiteStatus.INDEXED, site.getStatusTime());
+        searchIndex.activateShadow(site.getId(), carriedPages);
+        logger.info("Сайт {} переключен на поколение {}, перенесено без изменений {} страниц",
+                site.getUrl(), generation, carriedPages.size());
+    }
+    
+    /**
+     * Удаляет страницы сайта всех поколений, кроме текущего, их индекс
+     * и ставшие ненужными леммы пакетными запросами, не загружая сущности
+     */
+    @Transactional
+    public void purgeStaleGenerations(Site site) {
+        int deleted = indexBatchRepository.purgeOtherGenerations(site.getId(), site.getGeneration());
+        searchIndex.removeShadow(site.getId());
+        if (deleted > 0) {
+            logger.info("Удалено {} устаревших страниц сайта {}", deleted, site.getUrl());
+        }
     }
     
     /**
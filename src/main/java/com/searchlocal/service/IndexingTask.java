@@ -0,0 +1,118 @@
+package com.searchlocal.service;
+
+import com.searchlocal.crawler.RateLimiter;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * Задача индексации одного сайта в {@link IndexingScheduler}: состояние, остановка и пауза.
+ * Стадии обхода получают через задачу разрешения общих лимитов планировщика:
+ * частоты загрузки страниц и числа одновременных записей в базу.
+ */
+public class IndexingTask implements Runnable {
+
+    public enum State {
+        QUEUED,
+        RUNNING,
+        PAUSED
+    }
+
+    private final String siteUrl;
+    private final Boolean positional;
+    private final Consumer<IndexingTask> body;
+    private final RateLimiter fetchLimiter;
+    private final Semaphore writerSlots;
+
+    private final AtomicBoolean stopFlag = new AtomicBoolean();
+    private final Object pauseLock = new Object();
+    private volatile boolean paused;
+    private volatile boolean started;
+
+    IndexingTask(String siteUrl, Boolean positional, Consumer<IndexingTask> body,
+                 RateLimiter fetchLimiter, Semaphore writerSlots) {
+        this.siteUrl = siteUrl;
+        this.positional = positional;
+        this.body = body;
+        this.fetchLimiter = fetchLimiter;
+        this.writerSlots = writerSlots;
+    }
+
+    @Override
+    public void run() {
+        started = true;
+        body.accept(this);
+    }
+
+    public String getSiteUrl() {
+        return siteUrl;
+    }
+
+    /**
+     * Сохранять ли позиции слов; null - оставить режим сайта как есть
+     */
+    public Boolean getPositional() {
+        return positional;
+    }
+
+    public State getState() {
+        if (paused) {
+            return State.PAUSED;
+        }
+        return started ? State.RUNNING : State.QUEUED;
+    }
+
+    public AtomicBoolean getStopFlag() {
+        return stopFlag;
+    }
+
+    public boolean isStopped() {
+        return stopFlag.get();
+    }
+
+    void pause() {
+        paused = true;
+    }
+
+    void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    void stop() {
+        stopFlag.set(true);
+        resume();
+    }
+
+    /**
+     * Ждет снятия паузы и общего слота частоты загрузки
+     *
+     * @return false, если задача остановлена и страницу загружать не нужно
+     */
+    public boolean awaitFetch() throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused && !stopFlag.get()) {
+                pauseLock.wait();
+            }
+        }
+        if (stopFlag.get()) {
+            return false;
+        }
+        fetchLimiter.acquire();
+        return !stopFlag.get();
+    }
+
+    /**
+     * Занимает один из общих слотов записи в базу
+     */
+    public void acquireWriter() throws InterruptedException {
+        writerSlots.acquire();
+    }
+
+    public void releaseWriter() {
+        writerSlots.release();
+    }
+}
@@ -1,18 +1,28 @@
 package com.searchlocal.service;
 
+import com.searchlocal.exception.SearchException;
+import com.searchlocal.index.Bm25Scorer;
+import com.searchlocal.index.Matches;
+import com.searchlocal.index.PositionCodec;
+import com.searchlocal.index.PositionalQuery;
+import com.searchlocal.index.QueryResultCache;
+import com.searchlocal.index.RankedPages;
+import com.searchlocal.index.RelevanceScorer;
+import com.searchlocal.index.SearchIndex;
 import com.searchlocal.model.*;
 import com.searchlocal.repository.*;
+import com.searchlocal.util.HtmlTextExtractor;
+import com.searchlocal.util.LemmaOccurrences;
 import com.searchlocal.util.Lemmatizer;
+import com.searchlocal.util.SnippetBuilder;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 public class SearchService {
@@ -21,27 +31,51 @@ public class SearchService {
     // Процент страниц, при превышении которого лемма исключается (80%)
     private static final double MAX_LEMMA_PERCENTAGE = 0.8;
     
-    private final LemmaRepository lemmaRepository;
-    private final IndexRepository indexRepository;
+    // Длина сниппета в символах
+    private static final int SNIPPET_LENGTH = 200;
+    
     private final PageRepository pageRepository;
     private final SiteRepository siteRepository;
+    private final SearchIndex searchIndex;
+    private final QueryResultCache queryCache;
+    private final RelevanceScorer scorer;
+    private final float proximityWeight;
     
     private final Lemmatizer lemmatizer = new Lemmatizer();
     
     public SearchService(
-            LemmaRepository lemmaRepository,
-            IndexRepository indexRepository,
             PageRepository pageRepository,
-            SiteRepository siteRepository) {
-        this.lemmaRepository = lemmaRepository;
-        this.indexRepository = indexRepository;
+            SiteRepository siteRepository,
+            SearchIndex searchIndex,
+            QueryResultCache queryCache,
+            List<RelevanceScorer> scorers,
+            @Value("${search.scorer:" + Bm25Scorer.NAME + "}") String scorerName,
+            @Value("${search.proximity-weight:0.5}") float proximityWeight) {
         this.pageRepository = pageRepository;
         this.siteRepository = siteRepository;
+        this.searchIndex = searchIndex;
+        this.queryCache = queryCache;
+        this.proximityWeight = proximityWeight;
+        this.scorer = scorers.stream()
+                .filter(s -> s.getName().equals(scorerName))
+                .findFirst()
+                .orElseThrow(() -> new IllegalStateException("Неизвестный способ оценки релевантности: " + scorerName));
+        logger.info("Релевантность рассчитывается способом {}", scorerName);
     }
     
-    public List<SearchResult> search(String query, String siteUrl) {
+    /**
+     * Ищет страницы по запросу и возвращает страницу результатов
+     *
+     * @param offset сколько лучших результатов пропустить
+     * @param limit максимальное количество результатов
+     */
+    public SearchResults search(String query, String siteUrl, int offset, int limit) {
+        if (offset < 0 || limit <= 0) {
+            throw new IllegalArgumentException("Некорректные параметры offset и limit");
+        }
+        
         if (query == null || query.trim().isEmpty()) {
-            return Collections.emptyList();
+            return SearchResults.empty();
         }
         
         logger.info("Поиск по запросу: '{}', сайт: {}", query, siteUrl);
@@ -52,229 +86,238 @@ public class SearchService {
         
         if (queryLemmaStrings.isEmpty()) {
             logger.info("Не найдено лемм в запросе");
-            return Collections.emptyList();
+            return SearchResults.empty();
+        }
+        
+        if (!searchIndex.isLoaded()) {
+            throw new SearchException("Поисковый индекс еще загружается, повторите запрос позже");
+        }
+        
+        Integer siteId = null;
+        if (siteUrl != null) {
+            Optional<Site> site = siteRepository.findByUrl(siteUrl);
+            if (site.isEmpty()) {
+                return SearchResults.empty();
+            }
+            siteId = site.get().getId();
         }
         
         // Получаем общее количество страниц для расчета процента
-        long totalPages = siteUrl != null 
-            ? pageRepository.findAll().stream()
-                .filter(p -> p.getSite().getUrl().equals(siteUrl))
-                .count()
-            : pageRepository.count();
+        long totalPages = searchIndex.pageCount(siteId);
         
         if (totalPages == 0) {
-            return Collections.emptyList();
+            return SearchResults.empty();
         }
         
-        // 2. Находим леммы в БД и исключаем те, что встречаются на слишком большом количестве страниц
+        // 2. Находим леммы в индексе и исключаем те, что встречаются на слишком большом количестве страниц
         // Если страниц мало (меньше 10), не применяем фильтр по проценту
         boolean applyPercentageFilter = totalPages >= 10;
         
-        List<Lemma> foundLemmas = new ArrayList<>();
+        Map<Integer, Integer> lemmaFrequencies = new HashMap<>();
         for (String lemmaText : queryLemmaStrings) {
-            Optional<Lemma> lemmaOpt = lemmaRepository.findByLemma(lemmaText);
-            if (lemmaOpt.isPresent()) {
-                Lemma lemma = lemmaOpt.get();
-                
-                if (applyPercentageFilter) {
-                    // Исключаем леммы, которые встречаются на более чем MAX_LEMMA_PERCENTAGE страниц
-                    double lemmaPercentage = (double) lemma.getFrequency() / totalPages;
-                    if (lemmaPercentage <= MAX_LEMMA_PERCENTAGE) {
-                        foundLemmas.add(lemma);
-                    } else {
-                        logger.debug("Лемма '{}' исключена (встречается на {:.2f}% страниц)", 
-                            lemmaText, lemmaPercentage * 100);
-                    }
+            Integer lemmaId = searchIndex.lemmaId(lemmaText);
+            if (lemmaId == null) {
+                continue;
+            }
+            int frequency = searchIndex.documentFrequency(lemmaId, siteId);
+            if (frequency == 0) {
+                continue;
+            }
+            
+            if (applyPercentageFilter) {
+                // Исключаем леммы, которые встречаются на более чем MAX_LEMMA_PERCENTAGE страниц
+                double lemmaPercentage = (double) frequency / totalPages;
+                if (lemmaPercentage <= MAX_LEMMA_PERCENTAGE) {
+                    lemmaFrequencies.put(lemmaId, frequency);
                 } else {
-                    // Если страниц мало, не фильтруем по проценту
-                    foundLemmas.add(lemma);
+                    logger.debug("Лемма '{}' исключена (встречается на {}% страниц)", 
+                        lemmaText, Math.round(lemmaPercentage * 100));
                 }
+            } else {
+                // Если страниц мало, не фильтруем по проценту
+                lemmaFrequencies.put(lemmaId, frequency);
             }
         }
         
-        if (foundLemmas.isEmpty()) {
+        if (lemmaFrequencies.isEmpty()) {
             logger.info("Не найдено подходящих лемм после фильтрации");
-            return Collections.emptyList();
+            return SearchResults.empty();
         }
         
         // 3. Сортируем леммы по возрастанию частоты (от самых редких к самым частым)
-        foundLemmas.sort(Comparator.comparingInt(Lemma::getFrequency));
+        List<Integer> foundLemmas = new ArrayList<>(lemmaFrequencies.keySet());
+        foundLemmas.sort(Comparator.comparingInt(lemmaFrequencies::get));
         
         logger.debug("Найдено {} лемм после фильтрации, отсортировано по частоте", foundLemmas.size());
         
-        // 4. Находим страницы для самой редкой леммы
-        Lemma firstLemma = foundLemmas.get(0);
-        Set<Page> candidatePages = indexRepository.findByLemma(firstLemma).stream()
-            .map(Index::getPage)
-            .filter(page -> siteUrl == null || page.getSite().getUrl().equals(siteUrl))
-            .collect(Collectors.toSet());
+        int end = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        RankedPages ranked = rankPages(foundLemmas, siteId, buildPositionalQuery(query, foundLemmas), end);
         
-        if (candidatePages.isEmpty()) {
-            logger.info("Не найдено страниц для первой леммы");
-            return Collections.emptyList();
+        if (ranked.getTotal() == 0) {
+            logger.info("Не найдено страниц, содержащих все леммы запроса");
+            return SearchResults.empty();
         }
-        
-        // 5. Для каждой следующей леммы находим страницы, которые есть и в предыдущем списке
-        for (int i = 1; i < foundLemmas.size(); i++) {
-            Lemma lemma = foundLemmas.get(i);
-            Set<Page> pagesForLemma = indexRepository.findByLemma(lemma).stream()
-                .map(Index::getPage)
-                .filter(page -> siteUrl == null || page.getSite().getUrl().equals(siteUrl))
-                .collect(Collectors.toSet());
-            
-            // Пересечение: оставляем только страницы, которые есть в обоих множествах
-            candidatePages.retainAll(pagesForLemma);
-            
-            // 6. Если страниц не осталось - возвращаем пустой список
-            if (candidatePages.isEmpty()) {
-                logger.info("Не осталось страниц после обработки леммы {}", lemma.getLemma());
-                return Collections.emptyList();
-            }
+        if (offset >= ranked.size()) {
+            return new SearchResults(ranked.getTotal(), Collections.emptyList());
         }
         
-        logger.debug("Найдено {} страниц-кандидатов", candidatePages.size());
+        Map<Integer, Float> pageScores = new LinkedHashMap<>();
+        for (int i = offset; i < Math.min(end, ranked.size()); i++) {
+            pageScores.put(ranked.pageId(i), ranked.score(i));
+        }
         
-        // 7. Рассчитываем абсолютную релевантность для каждой страницы
-        Map<Page, Double> absoluteRelevance = new HashMap<>();
+        // Максимальная абсолютная релевантность по всем совпадениям
+        float maxAbsoluteRelevance = ranked.getMaxScore();
         
-        for (Page page : candidatePages) {
-            double absRelevance = 0.0;
-            for (Lemma lemma : foundLemmas) {
-                Optional<Index> indexOpt = indexRepository.findByLemma(lemma).stream()
-                    .filter(idx -> idx.getPage().equals(page))
-                    .findFirst();
-                if (indexOpt.isPresent()) {
-                    absRelevance += indexOpt.get().getRank();
-                }
-            }
-            absoluteRelevance.put(page, absRelevance);
+        // 9. Рассчитываем относительную релевантность и создаем результаты только для отобранных страниц
+        Map<Integer, PageSummary> summaries = new HashMap<>();
+        for (PageSummary page : pageRepository.findSummariesByIdIn(pageScores.keySet())) {
+            summaries.put(page.getId(), page);
         }
         
-        // Находим максимальную абсолютную релевантность
-        double maxAbsoluteRelevance = absoluteRelevance.values().stream()
-            .mapToDouble(Double::doubleValue)
-            .max()
-            .orElse(1.0);
+        // Леммы сниппета - все леммы запроса, включая отброшенные из-за частоты
+        List<Integer> snippetLemmaIds = new ArrayList<>();
+        for (String lemmaText : queryLemmaStrings) {
+            snippetLemmaIds.add(searchIndex.lemmaId(lemmaText));
+        }
         
-        // 8. Рассчитываем относительную релевантность и создаем результаты
         List<SearchResult> results = new ArrayList<>();
-        for (Map.Entry<Page, Double> entry : absoluteRelevance.entrySet()) {
-            Page page = entry.getKey();
-            double absRel = entry.getValue();
+        for (Map.Entry<Integer, Float> entry : pageScores.entrySet()) {
+            PageSummary page = summaries.get(entry.getKey());
+            if (page == null) {
+                continue;
+            }
             // Относительная релевантность = абсолютная / максимальная абсолютная
             double relativeRelevance = maxAbsoluteRelevance > 0 
-                ? absRel / maxAbsoluteRelevance 
+                ? entry.getValue() / maxAbsoluteRelevance 
                 : 0.0;
             
-            String uri = page.getSite().getUrl() + page.getPath();
-            String title = extractTitle(page.getContent());
-            String snippet = createSnippet(page.getContent(), query, queryLemmaStrings);
+            String title = page.getTitle();
+            String text = page.getText();
+            if (text == null) {
+                // Страница проиндексирована до появления сохраненного текста
+                Page stored = backfillTitleAndText(page.getId());
+                title = stored.getTitle();
+                text = stored.getText();
+            }
+            
+            String uri = page.getSiteUrl() + page.getPath();
+            String snippet;
+            if (page.getWordOffsets() != null) {
+                // Смещения слов считались по заголовку и тексту, разделенным пробелом
+                snippet = SnippetBuilder.build(text, String.valueOf(title).length() + 1,
+                    PositionCodec.decode(page.getWordOffsets()),
+                    searchIndex.positions(page.getId(), snippetLemmaIds), SNIPPET_LENGTH);
+            } else {
+                snippet = SnippetBuilder.build(text, queryLemmaStrings, lemmatizer, SNIPPET_LENGTH);
+            }
             
             results.add(new SearchResult(uri, title, snippet, relativeRelevance));
         }
         
-        // 9. Сортируем по убыванию относительной релевантности
-        results.sort((a, b) -> Double.compare(b.getRelevance(), a.getRelevance()));
+        logger.info("Найдено {} результатов поиска, возвращено {}", ranked.getTotal(), results.size());
         
-        logger.info("Найдено {} результатов поиска", results.size());
-        
-        return results;
+        return new SearchResults(ranked.getTotal(), results);
     }
     
     /**
-     * Извлекает заголовок из HTML
+     * Возвращает лучшие страницы по леммам из кэша запросов или пересечением индекса.
+     * Списки пересекаются начиная с самой редкой леммы, оценки лемм суммируются - абсолютная релевантность,
+     * лучшие end страниц (но не меньше глубины кэша) отбираются кучей ограниченного размера.
      */
-    private String extractTitle(String html) {
-        if (html == null || html.isEmpty()) {
-            return "";
-        }
+    private RankedPages rankPages(List<Integer> orderedLemmaIds, Integer siteId,
+                                  PositionalQuery positional, int end) {
+        // Поколение читается до пересечения: изменения во время поиска сделают запись устаревшей
+        long generation = searchIndex.generation();
+        List<Integer> keyLemmaIds = new ArrayList<>(orderedLemmaIds);
+        Collections.sort(keyLemmaIds);
+        String key = QueryResultCache.key(keyLemmaIds, siteId,
+                positional != null ? positional.cacheKey() : "");
         
-        try {
-            Document doc = Jsoup.parse(html);
-            Element titleElement = doc.selectFirst("title");
-            if (titleElement != null) {
-                return titleElement.text().trim();
-            }
-            
-            // Если нет title, пробуем h1
-            Element h1 = doc.selectFirst("h1");
-            if (h1 != null) {
-                return h1.text().trim();
-            }
-        } catch (Exception e) {
-            logger.warn("Ошибка при извлечении заголовка: {}", e.getMessage());
+        RankedPages ranked = queryCache.get(key, generation, end);
+        if (ranked != null) {
+            return ranked;
         }
         
-        return "";
+        Matches matches = searchIndex.intersect(orderedLemmaIds, siteId, scorer, positional);
+        logger.debug("Найдено {} страниц-кандидатов", matches.size());
+        
+        ranked = RankedPages.of(matches, Math.max(end, queryCache.getDepth()), generation);
+        queryCache.put(key, ranked);
+        return ranked;
     }
     
     /**
-     * Создает сниппет текста с выделением найденных слов
+     * Собирает условия на позиции слов: фразы в кавычках и надбавку за близость лемм.
+     * Возвращает null, если проверять нечего.
      */
-    private String createSnippet(String html, String query, Set<String> queryLemmas) {
-        if (html == null || html.isEmpty()) {
-            return "";
+    private PositionalQuery buildPositionalQuery(String query, List<Integer> foundLemmas) {
+        List<String> phrases = extractPhrases(query);
+        if (phrases.isEmpty() && (foundLemmas.size() < 2 || proximityWeight == 0)) {
+            return null;
         }
         
-        try {
-            Document doc = Jsoup.parse(html);
-            
-            // Удаляем script и style
-            doc.select("script, style").remove();
-            
-            // Получаем текст из body
-            String text = doc.body() != null ? doc.body().text() : doc.text();
-            
-            if (text == null || text.isEmpty()) {
-                return "";
-            }
-            
-            // Ищем первое вхождение любого из слов запроса (в нижнем регистре)
-            String lowerText = text.toLowerCase();
-            int snippetStart = -1;
-            int snippetLength = 200;
-            
-            for (String lemma : queryLemmas) {
-                int pos = lowerText.indexOf(lemma.toLowerCase());
-                if (pos != -1) {
-                    snippetStart = Math.max(0, pos - 50);
-                    break;
+        PositionalQuery positional = new PositionalQuery(proximityWeight);
+        for (String phrase : phrases) {
+            // Позиции лемм внутри фразы задают требуемые расстояния между ними
+            LemmaOccurrences occurrences = lemmatizer.getOccurrences(phrase, true);
+            TreeMap<Integer, Integer> lemmaIdsByPosition = new TreeMap<>();
+            for (Map.Entry<String, int[]> entry : occurrences.getPositions().entrySet()) {
+                Integer lemmaId = searchIndex.lemmaId(entry.getKey());
+                if (lemmaId == null) {
+                    continue;
+                }
+                for (int position : entry.getValue()) {
+                    lemmaIdsByPosition.put(position, lemmaId);
                 }
             }
-            
-            if (snippetStart == -1) {
-                snippetStart = 0;
-            }
-            
-            // Берем фрагмент текста
-            int end = Math.min(text.length(), snippetStart + snippetLength);
-            String snippet = text.substring(snippetStart, end);
-            
-            // Выделяем найденные слова тегами <b>
-            for (String lemma : queryLemmas) {
-                // Используем регулярное выражение для поиска слова целиком (с учетом регистра)
-                String pattern = "(?i)\\b(" + java.util.regex.Pattern.quote(lemma) + ")\\b";
-                snippet = snippet.replaceAll(pattern, "<b>$1</b>");
+            if (lemmaIdsByPosition.size() < 2) {
+                continue;
             }
             
-            // Добавляем многоточие, если текст обрезан
-            if (snippetStart > 0) {
-                snippet = "..." + snippet;
+            int[] lemmaIds = new int[lemmaIdsByPosition.size()];
+            int[] offsets = new int[lemmaIds.length];
+            int i = 0;
+            for (Map.Entry<Integer, Integer> entry : lemmaIdsByPosition.entrySet()) {
+                lemmaIds[i] = entry.getValue();
+                offsets[i] = entry.getKey();
+                i++;
             }
-            if (end < text.length()) {
-                snippet = snippet + "...";
-            }
-            
-            return snippet.trim();
-            
-        } catch (Exception e) {
-            logger.warn("Ошибка при создании сниппета: {}", e.getMessage());
-            // Fallback: просто очищаем HTML
-            String text = lemmatizer.cleanHtml(html);
-            if (text.length() > 200) {
-                text = text.substring(0, 200) + "...";
+            positional.addPhrase(lemmaIds, offsets);
+        }
+        return positional;
+    }
+    
+    /**
+     * Возвращает части запроса, заключенные в кавычки
+     */
+    private List<String> extractPhrases(String query) {
+        List<String> phrases = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i < query.length(); i++) {
+            char c = query.charAt(i);
+            if (c == '"' || c == '«' || c == '»') {
+                if (start < 0) {
+                    start = i + 1;
+                } else {
+                    phrases.add(query.substring(start, i));
+                    start = -1;
+                }
             }
-            return text;
         }
+        return phrases;
+    }
+    
+    /**
+     * Извлекает заголовок и текст из HTML страницы и сохраняет их,
+     * чтобы следующие запросы не разбирали HTML повторно
+     */
+    private Page backfillTitleAndText(Integer pageId) {
+        Page page = pageRepository.findById(pageId).orElseThrow();
+        Document doc = Jsoup.parse(page.getContent() != null ? page.getContent() : "");
+        page.setTitle(HtmlTextExtractor.extractTitle(doc));
+        page.setText(HtmlTextExtractor.extractText(doc.body()));
+        pageRepository.updateTitleAndText(pageId, page.getTitle(), page.getText());
+        return page;
     }
 }
@@ -1,12 +1,20 @@
 package com.searchlocal.service;
 
+import com.searchlocal.crawler.CrawlPipeline;
+import com.searchlocal.crawler.CrawlSavings;
 import com.searchlocal.dto.StatisticsResponse;
+import com.searchlocal.index.QueryResultCache;
+import com.searchlocal.index.SearchIndex;
 import com.searchlocal.model.*;
 import com.searchlocal.repository.*;
+import com.searchlocal.util.LemmaCache;
+import com.searchlocal.util.Lemmatizer;
 import org.springframework.stereotype.Service;
 
 import java.time.ZoneOffset;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 @Service
@@ -16,25 +24,58 @@ public class StatisticsService {
     private final PageRepository pageRepository;
     private final LemmaRepository lemmaRepository;
     private final IndexRepository indexRepository;
+    private final CrawlingService crawlingService;
+    private final IndexingScheduler indexingScheduler;
+    private final QueryResultCache queryCache;
+    private final SearchIndex searchIndex;
     
     public StatisticsService(
             SiteRepository siteRepository,
             PageRepository pageRepository,
             LemmaRepository lemmaRepository,
-            IndexRepository indexRepository) {
+            IndexRepository indexRepository,
+            CrawlingService crawlingService,
+            IndexingScheduler indexingScheduler,
+            QueryResultCache queryCache,
+            SearchIndex searchIndex) {
         this.siteRepository = siteRepository;
         this.pageRepository = pageRepository;
         this.lemmaRepository = lemmaRepository;
         this.indexRepository = indexRepository;
+        this.crawlingService = crawlingService;
+        this.indexingScheduler = indexingScheduler;
+        this.queryCache = queryCache;
+        this.searchIndex = searchIndex;
     }
     
     public StatisticsResponse getStatistics() {
         List<Site> sites = siteRepository.findAll();
-        long totalPages = pageRepository.count();
-        long totalLemmas = lemmaRepository.count();
-        boolean isIndexing = sites.stream()
+        List<IndexingTask> tasks = indexingScheduler.getTasks();
+        boolean isIndexing = !tasks.isEmpty() || sites.stream()
                 .anyMatch(s -> s.getStatus() == SiteStatus.INDEXING);
         
+        // Счетчики видимых страниц и лемм поддерживаются индексом в памяти;
+        // пока он не загружен, они считаются агрегирующими запросами
+        long totalPages;
+        long totalLemmas;
+        Map<Integer, Long> pagesBySite;
+        Map<Integer, Long> lemmasBySite;
+        if (searchIndex.isLoaded()) {
+            pagesBySite = new HashMap<>();
+            lemmasBySite = new HashMap<>();
+            totalPages = searchIndex.pageCount(null);
+            totalLemmas = searchIndex.lemmaCount(null);
+            for (Site site : sites) {
+                pagesBySite.put(site.getId(), (long) searchIndex.pageCount(site.getId()));
+                lemmasBySite.put(site.getId(), (long) searchIndex.lemmaCount(site.getId()));
+            }
+        } else {
+            pagesBySite = toCounts(pageRepository.countPagesBySite());
+            lemmasBySite = toCounts(indexRepository.countLemmasBySite());
+            totalPages = pagesBySite.values().stream().mapToLong(Long::longValue).sum();
+            totalLemmas = lemmaRepository.count();
+        }
+        
         StatisticsResponse.TotalStatistics total = new StatisticsResponse.TotalStatistics(
                 sites.size(),
                 (int) totalPages,
@@ -43,13 +84,38 @@ public class StatisticsService {
         );
         
         List<StatisticsResponse.DetailedStatisticsItem> detailed = sites.stream()
-                .map(this::mapSiteToDetailedStatistics)
+                .map(site -> mapSiteToDetailedStatistics(site,
+                        pagesBySite.getOrDefault(site.getId(), 0L),
+                        lemmasBySite.getOrDefault(site.getId(), 0L)))
                 .collect(Collectors.toList());
         
-        return new StatisticsResponse(total, detailed);
+        StatisticsResponse response = new StatisticsResponse(total, detailed);
+        LemmaCache lemmaCache = Lemmatizer.getCache();
+        response.setLemmaCache(new StatisticsResponse.CacheStatistics(
+                lemmaCache.size(),
+                lemmaCache.getCapacity(),
+                lemmaCache.getHits(),
+                lemmaCache.getMisses(),
+                lemmaCache.getEvictions()));
+        response.setQueryCache(new StatisticsResponse.CacheStatistics(
+                queryCache.size(),
+                queryCache.getCapacity(),
+                queryCache.getHits(),
+                queryCache.getMisses(),
+                queryCache.getEvictions()));
+        response.setIndex(new StatisticsResponse.IndexStatistics(
+                searchIndex.getLoadSource(),
+                searchIndex.getLoadMillis(),
+                searchIndex.getStartupMillis(),
+                searchIndex.getSegmentSize()));
+        response.setIndexing(tasks.stream()
+                .map(this::mapIndexingProgress)
+                .collect(Collectors.toList()));
+        return response;
     }
     
-    private StatisticsResponse.DetailedStatisticsItem mapSiteToDetailedStatistics(Site site) {
+    private StatisticsResponse.DetailedStatisticsItem mapSiteToDetailedStatistics(
+            Site site, long pagesCount, long lemmasCount) {
         StatisticsResponse.DetailedStatisticsItem item = new StatisticsResponse.DetailedStatisticsItem();
         item.setUrl(site.getUrl());
         item.setName(site.getName());
@@ -58,18 +124,51 @@ public class StatisticsService {
                 site.getStatusTime().toEpochSecond(ZoneOffset.UTC) : 0);
         item.setLastError(site.getLastError());
         
-        long pagesCount = pageRepository.findAll().stream()
-                .filter(p -> p.getSite().equals(site))
-                .count();
         item.setPages((int) pagesCount);
-        
-        long lemmasCount = indexRepository.findAll().stream()
-                .filter(idx -> idx.getPage().getSite().equals(site))
-                .map(idx -> idx.getLemma().getId())
-                .distinct()
-                .count();
         item.setLemmas((int) lemmasCount);
+        item.setCrawl(mapCrawlStatistics(crawlingService.getPipelineMetrics(site.getUrl()),
+                crawlingService.getCrawlSavings(site.getUrl())));
         
         return item;
     }
+    
+    private StatisticsResponse.IndexingProgress mapIndexingProgress(IndexingTask task) {
+        StatisticsResponse.IndexingProgress progress = new StatisticsResponse.IndexingProgress();
+        progress.setUrl(task.getSiteUrl());
+        progress.setState(task.getState().name());
+        progress.setQueuePosition(indexingScheduler.queuePosition(task));
+        progress.setCrawl(mapCrawlStatistics(crawlingService.getPipelineMetrics(task.getSiteUrl()),
+                crawlingService.getCrawlSavings(task.getSiteUrl())));
+        return progress;
+    }
+    
+    private Map<Integer, Long> toCounts(List<Object[]> rows) {
+        Map<Integer, Long> counts = new HashMap<>();
+        for (Object[] row : rows) {
+            counts.put((Integer) row[0], ((Number) row[1]).longValue());
+        }
+        return counts;
+    }
+    
+    private StatisticsResponse.CrawlStatistics mapCrawlStatistics(CrawlPipeline.Metrics metrics,
+                                                                  CrawlSavings savings) {
+        if (metrics == null) {
+            return null;
+        }
+        StatisticsResponse.CrawlStatistics crawl = new StatisticsResponse.CrawlStatistics();
+        crawl.setFetchQueue(metrics.getFetchQueue());
+        crawl.setParseQueue(metrics.getParseQueue());
+        crawl.setPersistQueue(metrics.getPersistQueue());
+        crawl.setFetched(metrics.getFetched());
+        crawl.setParsed(metrics.getParsed());
+        crawl.setSaved(metrics.getPersisted());
+        if (savings != null) {
+            crawl.setSkippedFetches(savings.getSkippedFetches());
+            crawl.setDuplicatePages(savings.getDuplicatePages());
+            crawl.setKeptDuplicates(savings.getKeptDuplicates());
+            crawl.setSkippedIndexRows(savings.getSkippedIndexRows());
+            crawl.setUnchangedBySitemap(savings.getUnchangedBySitemap());
+        }
+        return crawl;
+    }
 }
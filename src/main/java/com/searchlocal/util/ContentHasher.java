@@ -0,0 +1,34 @@
+package com.searchlocal.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Хэш содержимого страницы для определения изменений при повторном обходе
+ */
+public class ContentHasher {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private ContentHasher() {
+    }
+
+    /**
+     * Возвращает SHA-256 текста в шестнадцатеричном виде
+     */
+    public static String hash(String text) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest(text.getBytes(StandardCharsets.UTF_8));
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX[(bytes[i] >> 4) & 0x0F];
+            hex[i * 2 + 1] = HEX[bytes[i] & 0x0F];
+        }
+        return new String(hex);
+    }
+}
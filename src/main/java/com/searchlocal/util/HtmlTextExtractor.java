@@ -0,0 +1,95 @@
+package com.searchlocal.util;
+
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.nodes.Node;
+import org.jsoup.nodes.TextNode;
+import org.jsoup.select.NodeFilter;
+import org.jsoup.select.NodeTraversor;
+
+import java.util.Set;
+
+/**
+ * Извлекает видимый текст из уже разобранного документа за один обход дерева.
+ * Сущности декодированы парсером, невидимые элементы пропускаются целиком,
+ * пробельные символы схлопываются прямо при записи в результат.
+ */
+public class HtmlTextExtractor {
+    private static final Set<String> SKIPPED_TAGS = Set.of(
+            "script", "style", "noscript", "template"
+    );
+
+    private HtmlTextExtractor() {
+    }
+
+    /**
+     * Возвращает видимый текст узла и его потомков
+     */
+    public static String extractText(Node root) {
+        if (root == null) {
+            return "";
+        }
+
+        StringBuilder text = new StringBuilder();
+        NodeTraversor.filter(new NodeFilter() {
+            @Override
+            public FilterResult head(Node node, int depth) {
+                if (node instanceof TextNode) {
+                    appendNormalized(text, ((TextNode) node).getWholeText());
+                } else if (node instanceof Element) {
+                    Element element = (Element) node;
+                    if (SKIPPED_TAGS.contains(element.normalName())) {
+                        return FilterResult.SKIP_ENTIRELY;
+                    }
+                    if (element.isBlock() || "br".equals(element.normalName())) {
+                        appendSpace(text);
+                    }
+                }
+                return FilterResult.CONTINUE;
+            }
+
+            @Override
+            public FilterResult tail(Node node, int depth) {
+                if (node instanceof Element && ((Element) node).isBlock()) {
+                    appendSpace(text);
+                }
+                return FilterResult.CONTINUE;
+            }
+        }, root);
+
+        int length = text.length();
+        if (length > 0 && text.charAt(length - 1) == ' ') {
+            text.setLength(length - 1);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Возвращает заголовок страницы: title, а если его нет - первый h1
+     */
+    public static String extractTitle(Document doc) {
+        Element title = doc.selectFirst("title");
+        if (title == null) {
+            title = doc.selectFirst("h1");
+        }
+        return title != null ? title.text().trim() : "";
+    }
+
+    private static void appendNormalized(StringBuilder text, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isWhitespace(c) || Character.isSpaceChar(c)) {
+                appendSpace(text);
+            } else {
+                text.append(c);
+            }
+        }
+    }
+
+    private static void appendSpace(StringBuilder text) {
+        int length = text.length();
+        if (length > 0 && text.charAt(length - 1) != ' ') {
+            text.append(' ');
+        }
+    }
+}
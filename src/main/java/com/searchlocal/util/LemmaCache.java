@@ -0,0 +1,94 @@
+package com.searchlocal.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Ограниченный потокобезопасный кэш словоформа -> лемма.
+ * Для служебных частей речи хранится null. При переполнении вытесняются
+ * записи, к которым не обращались с прошлого прохода (алгоритм "второго шанса").
+ */
+public class LemmaCache {
+    private final int capacity;
+    private final Map<String, Entry> entries;
+    private final Object evictionLock = new Object();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public LemmaCache(int capacity) {
+        this.capacity = capacity;
+        this.entries = new ConcurrentHashMap<>(Math.min(capacity, 1 << 16));
+    }
+
+    /**
+     * Возвращает лемму словоформы, вычисляя ее загрузчиком при промахе
+     */
+    public String get(String word, Function<String, String> loader) {
+        Entry entry = entries.get(word);
+        if (entry != null) {
+            hits.increment();
+            entry.referenced = true;
+            return entry.lemma;
+        }
+
+        misses.increment();
+        String lemma = loader.apply(word);
+        entries.putIfAbsent(word, new Entry(lemma));
+        if (entries.size() > capacity) {
+            evict();
+        }
+        return lemma;
+    }
+
+    private void evict() {
+        synchronized (evictionLock) {
+            int target = capacity - capacity / 10;
+            while (entries.size() > target) {
+                Iterator<Entry> iterator = entries.values().iterator();
+                while (iterator.hasNext() && entries.size() > target) {
+                    Entry entry = iterator.next();
+                    if (entry.referenced) {
+                        entry.referenced = false;
+                    } else {
+                        iterator.remove();
+                        evictions.increment();
+                    }
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    private static class Entry {
+        private final String lemma;
+        private volatile boolean referenced;
+
+        Entry(String lemma) {
+            this.lemma = lemma;
+        }
+    }
+}
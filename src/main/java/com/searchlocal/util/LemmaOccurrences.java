@@ -0,0 +1,51 @@
+package com.searchlocal.util;
+
+import java.util.Map;
+
+/**
+ * Леммы текста: количество вхождений и, если запрошены, позиции слов и их смещения в тексте
+ */
+public class LemmaOccurrences {
+    private final Map<String, Integer> ranks;
+    private final Map<String, int[]> positions;
+    private final int[] wordOffsets;
+
+    public LemmaOccurrences(Map<String, Integer> ranks, Map<String, int[]> positions) {
+        this(ranks, positions, null);
+    }
+
+    public LemmaOccurrences(Map<String, Integer> ranks, Map<String, int[]> positions, int[] wordOffsets) {
+        this.ranks = ranks;
+        this.positions = positions;
+        this.wordOffsets = wordOffsets;
+    }
+
+    public static LemmaOccurrences of(Map<String, Integer> ranks) {
+        return new LemmaOccurrences(ranks, null);
+    }
+
+    /**
+     * Лемма -> количество вхождений
+     */
+    public Map<String, Integer> getRanks() {
+        return ranks;
+    }
+
+    /**
+     * Лемма -> возрастающие номера слов в тексте или null, если позиции не собирались
+     */
+    public Map<String, int[]> getPositions() {
+        return positions;
+    }
+
+    /**
+     * Смещение начала слова в тексте по его позиции или null, если позиции не собирались
+     */
+    public int[] getWordOffsets() {
+        return wordOffsets;
+    }
+
+    public int[] positionsOf(String lemma) {
+        return positions != null ? positions.get(lemma) : null;
+    }
+}
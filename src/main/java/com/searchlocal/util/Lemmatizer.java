@@ -1,11 +1,11 @@
 package com.searchlocal.util;
 
 import com.github.demidko.aot.WordformMeaning;
+import org.jsoup.Jsoup;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.regex.Pattern;
 
 import static com.github.demidko.aot.WordformMeaning.lookupForMeanings;
 
@@ -16,13 +16,17 @@ import static com.github.demidko.aot.WordformMeaning.lookupForMeanings;
 public class Lemmatizer {
     private static final Logger logger = LoggerFactory.getLogger(Lemmatizer.class);
     
-    private static final Pattern WORD_PATTERN = Pattern.compile("[\\p{L}]+");
+    // Более короткие слова пропускаются
+    private static final int MIN_WORD_LENGTH = 2;
     
     // Служебные части речи для исключения
     private static final Set<String> EXCLUDED_POS = Set.of(
             "МЕЖД", "СОЮЗ", "ПРЕДЛ", "ЧАСТ"
     );
     
+    // Кэш словоформ, общий для всех экземпляров лемматизатора
+    private static final LemmaCache CACHE = new LemmaCache(200_000);
+    
     public Lemmatizer() {
         // AOT библиотека не требует явной инициализации
     }
@@ -38,71 +42,141 @@ public class Lemmatizer {
             return lemmas;
         }
         
-        // Разбиваем текст на слова
-        String[] words = text.toLowerCase()
-                .replaceAll("[^\\p{L}\\s]", " ")
-                .split("\\s+");
+        // Считаем леммы изменяемыми счетчиками, чтобы не упаковывать Integer на каждое слово
+        Map<String, int[]> counters = new HashMap<>();
+        WordTokenizer.forEachWord(text, MIN_WORD_LENGTH, (word, start, end) -> {
+            String lemma = CACHE.get(word, Lemmatizer::lookupLemma);
+            if (lemma != null) {
+                counters.computeIfAbsent(lemma, key -> new int[1])[0]++;
+            }
+        });
+        
+        for (Map.Entry<String, int[]> entry : counters.entrySet()) {
+            lemmas.put(entry.getKey(), entry.getValue()[0]);
+        }
+        return lemmas;
+    }
+    
+    /**
+     * Передает получателю лемму каждого значимого слова текста с его смещениями в тексте
+     */
+    public void forEachLemma(String text, WordTokenizer.WordConsumer consumer) {
+        WordTokenizer.forEachWord(text, MIN_WORD_LENGTH, (word, start, end) -> {
+            String lemma = CACHE.get(word, Lemmatizer::lookupLemma);
+            if (lemma != null) {
+                consumer.accept(lemma, start, end);
+            }
+        });
+    }
+    
+    /**
+     * Извлекает леммы из текста вместе с позициями слов и смещениями слов в тексте.
+     * Позиция - порядковый номер слова в тексте; служебные слова тоже занимают позицию,
+     * поэтому соседние слова фразы остаются соседними.
+     *
+     * @param withPositions false, если нужны только количества, как в {@link #getLemmas}
+     */
+    public LemmaOccurrences getOccurrences(String text, boolean withPositions) {
+        if (!withPositions) {
+            return LemmaOccurrences.of(getLemmas(text));
+        }
+        
+        Map<String, Integer> ranks = new HashMap<>();
+        Map<String, int[]> positions = new HashMap<>();
+        if (text == null || text.isEmpty()) {
+            return new LemmaOccurrences(ranks, positions, new int[0]);
+        }
+        
+        // Позиции копятся в растущих массивах: [0] - количество, дальше номера слов
+        Map<String, int[]> buffers = new HashMap<>();
+        int[] wordIndex = {0};
+        int[][] offsets = {new int[64]};
+        WordTokenizer.forEachWord(text, MIN_WORD_LENGTH, (word, start, end) -> {
+            int position = wordIndex[0]++;
+            if (position == offsets[0].length) {
+                offsets[0] = Arrays.copyOf(offsets[0], position * 2);
+            }
+            offsets[0][position] = start;
+            String lemma = CACHE.get(word, Lemmatizer::lookupLemma);
+            if (lemma == null) {
+                return;
+            }
+            int[] buffer = buffers.computeIfAbsent(lemma, key -> new int[4]);
+            int count = buffer[0] + 1;
+            if (count == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffers.put(lemma, buffer);
+            }
+            buffer[count] = position;
+            buffer[0] = count;
+        });
         
-        for (String word : words) {
-            // Пропускаем короткие слова
-            if (word.length() < 2 || !WORD_PATTERN.matcher(word).matches()) {
-                continue;
+        for (Map.Entry<String, int[]> entry : buffers.entrySet()) {
+            int[] buffer = entry.getValue();
+            ranks.put(entry.getKey(), buffer[0]);
+            positions.put(entry.getKey(), Arrays.copyOfRange(buffer, 1, buffer[0] + 1));
+        }
+        return new LemmaOccurrences(ranks, positions, Arrays.copyOf(offsets[0], wordIndex[0]));
+    }
+    
+    /**
+     * Определяет лемму словоформы по словарю AOT
+     *
+     * @return лемма в нижнем регистре или null для служебных частей речи
+     */
+    private static String lookupLemma(String word) {
+        try {
+            // Получаем морфологическую информацию о слове
+            List<WordformMeaning> meanings = lookupForMeanings(word);
+            
+            if (meanings.isEmpty()) {
+                // Если слово не найдено в словаре, используем его как есть
+                return word;
             }
             
-            try {
-                // Получаем морфологическую информацию о слове
-                List<WordformMeaning> meanings = lookupForMeanings(word);
-                
-                if (meanings.isEmpty()) {
-                    // Если слово не найдено в словаре, используем его как есть
-                    lemmas.put(word, lemmas.getOrDefault(word, 0) + 1);
-                    continue;
-                }
-                
-                // Берем первое значение (основное)
-                WordformMeaning meaning = meanings.get(0);
-                
-                // Проверяем часть речи через морфологию
-                String morphologyStr = meaning.getMorphology().toString();
-                boolean isExcluded = EXCLUDED_POS.stream()
-                        .anyMatch(morphologyStr::contains);
-                
-                if (isExcluded) {
-                    continue;
+            // Берем первое значение (основное)
+            WordformMeaning meaning = meanings.get(0);
+            
+            // Проверяем часть речи через морфологию
+            String morphologyStr = meaning.getMorphology().toString();
+            for (String pos : EXCLUDED_POS) {
+                if (morphologyStr.contains(pos)) {
+                    return null;
                 }
-                
-                // Получаем лемму (нормальную форму) - метод возвращает WordformMeaning, нужно преобразовать в String
-                WordformMeaning lemmaMeaning = meaning.getLemma();
-                if (lemmaMeaning != null) {
-                    String lemma = lemmaMeaning.toString();
-                    if (!lemma.isEmpty()) {
-                        lemmas.put(lemma.toLowerCase(), lemmas.getOrDefault(lemma.toLowerCase(), 0) + 1);
-                    }
+            }
+            
+            // Получаем лемму (нормальную форму) - метод возвращает WordformMeaning, нужно преобразовать в String
+            WordformMeaning lemmaMeaning = meaning.getLemma();
+            if (lemmaMeaning != null) {
+                String lemma = lemmaMeaning.toString();
+                if (!lemma.isEmpty()) {
+                    return lemma.toLowerCase();
                 }
-            } catch (Exception e) {
-                // Если произошла ошибка при обработке слова, используем его как есть
-                logger.debug("Ошибка при обработке слова {}: {}", word, e.getMessage());
-                lemmas.put(word, lemmas.getOrDefault(word, 0) + 1);
             }
+            return null;
+        } catch (Exception e) {
+            // Если произошла ошибка при обработке слова, используем его как есть
+            logger.debug("Ошибка при обработке слова {}: {}", word, e.getMessage());
+            return word;
         }
-        
-        return lemmas;
     }
     
     /**
-     * Очищает HTML от тегов
+     * Возвращает общий кэш словоформ (для статистики)
+     */
+    public static LemmaCache getCache() {
+        return CACHE;
+    }
+    
+    /**
+     * Очищает HTML от тегов. Если документ уже разобран,
+     * используйте {@link HtmlTextExtractor#extractText} напрямую.
      */
     public String cleanHtml(String html) {
         if (html == null || html.isEmpty()) {
             return "";
         }
         
-        return html.replaceAll("<script[^>]*>.*?</script>", " ")
-                .replaceAll("<style[^>]*>.*?</style>", " ")
-                .replaceAll("<[^>]+>", " ")
-                .replaceAll("&nbsp;", " ")
-                .replaceAll("&[a-z]+;", " ")
-                .replaceAll("\\s+", " ")
-                .trim();
+        return HtmlTextExtractor.extractText(Jsoup.parse(html));
     }
 }
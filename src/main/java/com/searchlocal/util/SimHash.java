@@ -0,0 +1,92 @@
+package com.searchlocal.util;
+
+/**
+ * 64-битный SimHash текста по шинглам из трех слов: у почти одинаковых текстов
+ * отпечатки отличаются в немногих битах, поэтому близость страниц оценивается
+ * расстоянием Хэмминга между отпечатками без сравнения самих текстов
+ */
+public class SimHash {
+    private static final int SHINGLE_SIZE = 3;
+
+    private SimHash() {
+    }
+
+    /**
+     * Вычисляет отпечаток текста, в котором не меньше minWords слов; текст короче шингла
+     * дает один признак из всех слов. У коротких текстов (например, пустых страниц)
+     * мало признаков, и их отпечатки совпадают случайно
+     *
+     * @return отпечаток или null, если слов меньше minWords
+     */
+    public static Long of(CharSequence text, int minWords) {
+        int[] words = new int[1];
+        long fingerprint = compute(text, words);
+        return words[0] >= minWords ? fingerprint : null;
+    }
+
+    /**
+     * Число различающихся битов отпечатков
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static long compute(CharSequence text, int[] words) {
+        int[] weights = new int[64];
+        long[] window = new long[SHINGLE_SIZE];
+        WordTokenizer.forEachWord(text, 1, (word, start, end) -> {
+            window[words[0] % SHINGLE_SIZE] = hash(word);
+            words[0]++;
+            if (words[0] >= SHINGLE_SIZE) {
+                addFeature(weights, shingle(window, words[0]));
+            }
+        });
+        if (words[0] > 0 && words[0] < SHINGLE_SIZE) {
+            addFeature(weights, shingle(window, words[0]));
+        }
+
+        long fingerprint = 0;
+        for (int bit = 0; bit < 64; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Хэш последних слов окна в порядке их следования в тексте
+     */
+    private static long shingle(long[] window, int words) {
+        int count = Math.min(words, SHINGLE_SIZE);
+        long hash = 0;
+        for (int i = words - count; i < words; i++) {
+            hash = mix(hash * 31 + window[i % SHINGLE_SIZE]);
+        }
+        return hash;
+    }
+
+    private static void addFeature(int[] weights, long feature) {
+        for (int bit = 0; bit < 64; bit++) {
+            weights[bit] += (feature >>> bit & 1) != 0 ? 1 : -1;
+        }
+    }
+
+    private static long hash(String word) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < word.length(); i++) {
+            hash ^= word.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
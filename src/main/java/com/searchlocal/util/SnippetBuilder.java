@@ -0,0 +1,239 @@
+package com.searchlocal.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Строит сниппет по смещениям слов текста: за один проход находит окно заданной длины,
+ * покрывающее больше всего разных лемм запроса, и выделяет в нем все словоформы этих лемм.
+ * Смещения вхождений берутся из позиций лемм в индексе и сохраненных при индексации смещений слов;
+ * текст страниц без позиций лемматизируется заново.
+ */
+public class SnippetBuilder {
+
+    private SnippetBuilder() {
+    }
+
+    /**
+     * Строит сниппет по сохраненным позициям лемм, не разбирая текст
+     *
+     * @param text видимый текст страницы
+     * @param textStart смещение текста в строке, по которой считались смещения слов (после заголовка)
+     * @param wordOffsets смещение начала слова по его позиции
+     * @param lemmaPositions позиции каждой леммы запроса на странице или null
+     * @param length длина сниппета в символах
+     */
+    public static String build(String text, int textStart, int[] wordOffsets, int[][] lemmaPositions, int length) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+
+        // Вхождение - смещение слова в старших битах и номер леммы в младших, для сортировки по тексту
+        long[] hits = new long[16];
+        int count = 0;
+        for (int number = 0; number < lemmaPositions.length; number++) {
+            if (lemmaPositions[number] == null) {
+                continue;
+            }
+            for (int position : lemmaPositions[number]) {
+                int start = position < wordOffsets.length ? wordOffsets[position] - textStart : -1;
+                if (start < 0 || start >= text.length()) {
+                    continue;
+                }
+                if (count == hits.length) {
+                    hits = Arrays.copyOf(hits, count * 2);
+                }
+                hits[count++] = (long) start << 32 | number;
+            }
+        }
+        Arrays.sort(hits, 0, count);
+
+        int[] starts = new int[count];
+        int[] ends = new int[count];
+        int[] numbers = new int[count];
+        for (int i = 0; i < count; i++) {
+            starts[i] = (int) (hits[i] >>> 32);
+            ends[i] = wordEnd(text, starts[i]);
+            numbers[i] = (int) hits[i];
+        }
+        return build(text, starts, ends, numbers, count, lemmaPositions.length, length);
+    }
+
+    /**
+     * Строит сниппет, лемматизируя текст
+     *
+     * @param text видимый текст страницы
+     * @param queryLemmas леммы запроса
+     * @param length длина сниппета в символах
+     */
+    public static String build(String text, Set<String> queryLemmas, Lemmatizer lemmatizer, int length) {
+        if (text == null || text.isEmpty()) {
+            return "";
+        }
+
+        Map<String, Integer> lemmaNumbers = new HashMap<>();
+        for (String lemma : queryLemmas) {
+            lemmaNumbers.put(lemma, lemmaNumbers.size());
+        }
+
+        // Вхождения лемм запроса: смещения слова и номер леммы
+        int[][] hits = {new int[16], new int[16], new int[16]};
+        int[] hitCount = {0};
+        lemmatizer.forEachLemma(text, (lemma, start, end) -> {
+            Integer number = lemmaNumbers.get(lemma);
+            if (number == null) {
+                return;
+            }
+            int n = hitCount[0];
+            if (n == hits[0].length) {
+                for (int k = 0; k < hits.length; k++) {
+                    hits[k] = Arrays.copyOf(hits[k], n * 2);
+                }
+            }
+            hits[0][n] = start;
+            hits[1][n] = end;
+            hits[2][n] = number;
+            hitCount[0] = n + 1;
+        });
+        return build(text, hits[0], hits[1], hits[2], hitCount[0], lemmaNumbers.size(), length);
+    }
+
+    /**
+     * Выбирает окно по вхождениям, упорядоченным по смещению, и выводит его
+     *
+     * @param lemmaCount число разных лемм запроса
+     */
+    private static String build(String text, int[] starts, int[] ends, int[] numbers, int count,
+                                int lemmaCount, int length) {
+        if (count == 0) {
+            int to = wordBoundaryBefore(text, Math.min(text.length(), length), 0);
+            return render(text, 0, to, starts, ends, 0, 0);
+        }
+
+        // Скользящее окно: больше разных лемм, при равенстве - больше вхождений
+        int[] lemmaCounts = new int[lemmaCount];
+        int distinct = 0;
+        int bestFirst = 0;
+        int bestLast = 0;
+        int bestDistinct = 0;
+        int bestHits = 0;
+        int first = 0;
+        for (int last = 0; last < count; last++) {
+            if (lemmaCounts[numbers[last]]++ == 0) {
+                distinct++;
+            }
+            while (ends[last] - starts[first] > length) {
+                if (--lemmaCounts[numbers[first]] == 0) {
+                    distinct--;
+                }
+                first++;
+            }
+            int windowHits = last - first + 1;
+            if (distinct > bestDistinct || (distinct == bestDistinct && windowHits > bestHits)) {
+                bestDistinct = distinct;
+                bestHits = windowHits;
+                bestFirst = first;
+                bestLast = last;
+            }
+        }
+
+        // Располагаем найденные вхождения по центру сниппета
+        int spanStart = starts[bestFirst];
+        int spanEnd = ends[bestLast];
+        int from = Math.max(0, spanStart - Math.max(0, length - (spanEnd - spanStart)) / 2);
+        int to = Math.min(text.length(), Math.max(spanEnd, from + length));
+        from = wordBoundaryAfter(text, from, spanStart);
+        to = wordBoundaryBefore(text, to, spanEnd);
+        return render(text, from, to, starts, ends, bestFirst, count);
+    }
+
+    /**
+     * Выводит фрагмент текста [from, to) с экранированием HTML и выделением вхождений тегом b
+     */
+    private static String render(String text, int from, int to, int[] starts, int[] ends, int firstHit, int hitCount) {
+        StringBuilder snippet = new StringBuilder(to - from + 32);
+        if (from > 0) {
+            snippet.append("...");
+        }
+        int hit = firstHit;
+        while (hit > 0 && starts[hit - 1] >= from) {
+            hit--;
+        }
+        for (int i = from; i < to; i++) {
+            while (hit < hitCount && starts[hit] < i) {
+                hit++;
+            }
+            boolean highlighted = hit < hitCount && starts[hit] == i && ends[hit] <= to;
+            if (highlighted) {
+                snippet.append("<b>");
+                for (; i < ends[hit]; i++) {
+                    appendEscaped(snippet, text.charAt(i));
+                }
+                snippet.append("</b>");
+                i--;
+                hit++;
+            } else {
+                appendEscaped(snippet, text.charAt(i));
+            }
+        }
+        if (to < text.length()) {
+            snippet.append("...");
+        }
+        return snippet.toString();
+    }
+
+    private static void appendEscaped(StringBuilder snippet, char c) {
+        switch (c) {
+            case '<':
+                snippet.append("&lt;");
+                break;
+            case '>':
+                snippet.append("&gt;");
+                break;
+            case '&':
+                snippet.append("&amp;");
+                break;
+            default:
+                snippet.append(c);
+        }
+    }
+
+    /**
+     * Конец слова, начинающегося со смещения start: первая не буква, как при разбиении на слова
+     */
+    private static int wordEnd(String text, int start) {
+        int end = start;
+        while (end < text.length()) {
+            int codePoint = text.codePointAt(end);
+            if (!Character.isLetter(codePoint)) {
+                break;
+            }
+            end += Character.charCount(codePoint);
+        }
+        return end;
+    }
+
+    /**
+     * Сдвигает начало вперед до начала слова, но не дальше limit
+     */
+    private static int wordBoundaryAfter(String text, int from, int limit) {
+        if (from == 0 || text.charAt(from - 1) == ' ') {
+            return from;
+        }
+        int space = text.indexOf(' ', from);
+        return space >= 0 && space < limit ? space + 1 : from;
+    }
+
+    /**
+     * Сдвигает конец назад до конца слова, но не раньше limit
+     */
+    private static int wordBoundaryBefore(String text, int to, int limit) {
+        if (to == text.length() || text.charAt(to) == ' ') {
+            return to;
+        }
+        int space = text.lastIndexOf(' ', to);
+        return space >= limit ? space : to;
+    }
+}
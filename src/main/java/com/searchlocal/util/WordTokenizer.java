@@ -0,0 +1,63 @@
+package com.searchlocal.util;
+
+/**
+ * Однопроходный токенизатор: выделяет последовательности букв по кодовым точкам,
+ * сразу приводя их к нижнему регистру, без регулярных выражений и промежуточных копий текста
+ */
+public class WordTokenizer {
+
+    /**
+     * Получатель слов текста
+     */
+    public interface WordConsumer {
+        /**
+         * @param word слово в нижнем регистре
+         * @param start смещение начала слова в тексте
+         * @param end смещение конца слова в тексте (не включительно)
+         */
+        void accept(String word, int start, int end);
+    }
+
+    private WordTokenizer() {
+    }
+
+    /**
+     * Передает получателю все слова текста длиной не меньше minLength символов
+     */
+    public static void forEachWord(CharSequence text, int minLength, WordConsumer consumer) {
+        if (text == null) {
+            return;
+        }
+
+        char[] buffer = new char[64];
+        int length = 0;
+        int start = -1;
+        int i = 0;
+        int textLength = text.length();
+        while (i < textLength) {
+            int codePoint = Character.codePointAt(text, i);
+            int next = i + Character.charCount(codePoint);
+            if (Character.isLetter(codePoint)) {
+                if (start < 0) {
+                    start = i;
+                    length = 0;
+                }
+                if (length + 2 > buffer.length) {
+                    char[] grown = new char[buffer.length * 2];
+                    System.arraycopy(buffer, 0, grown, 0, length);
+                    buffer = grown;
+                }
+                length += Character.toChars(Character.toLowerCase(codePoint), buffer, length);
+            } else if (start >= 0) {
+                if (length >= minLength) {
+                    consumer.accept(new String(buffer, 0, length), start, i);
+                }
+                start = -1;
+            }
+            i = next;
+        }
+        if (start >= 0 && length >= minLength) {
+            consumer.accept(new String(buffer, 0, length), start, textLength);
+        }
+    }
+}
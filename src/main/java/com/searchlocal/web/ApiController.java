@@ -1,8 +1,8 @@
 package com.searchlocal.web;
 
 import com.searchlocal.dto.StatisticsResponse;
-import com.searchlocal.model.SearchResult;
-import com.searchlocal.service.CrawlingService;
+import com.searchlocal.model.SearchResults;
+import com.searchlocal.service.IndexingScheduler;
 import com.searchlocal.service.IndexingService;
 import com.searchlocal.service.SearchService;
 import com.searchlocal.service.StatisticsService;
@@ -15,31 +15,49 @@ import java.util.Map;
 @RequestMapping("/api")
 public class ApiController {
     
-    private final CrawlingService crawlingService;
+    private final IndexingScheduler indexingScheduler;
     private final IndexingService indexingService;
     private final SearchService searchService;
     private final StatisticsService statisticsService;
     
     public ApiController(
-            CrawlingService crawlingService,
+            IndexingScheduler indexingScheduler,
             IndexingService indexingService,
             SearchService searchService,
             StatisticsService statisticsService) {
-        this.crawlingService = crawlingService;
+        this.indexingScheduler = indexingScheduler;
         this.indexingService = indexingService;
         this.searchService = searchService;
         this.statisticsService = statisticsService;
     }
     
     @PostMapping("/startIndexing")
-    public Map<String, Object> startIndexing(@RequestParam String url) {
-        crawlingService.startIndexing(url);
-        return Map.of("result", true);
+    public Map<String, Object> startIndexing(
+            @RequestParam List<String> url,
+            @RequestParam(required = false) Boolean positions) {
+        int scheduled = indexingScheduler.schedule(url, positions);
+        return Map.of("result", true, "scheduled", scheduled);
     }
     
     @PostMapping("/stopIndexing")
-    public Map<String, Object> stopIndexing() {
-        crawlingService.stopIndexing();
+    public Map<String, Object> stopIndexing(@RequestParam(required = false) String url) {
+        if (url == null) {
+            indexingScheduler.stopAll();
+        } else {
+            indexingScheduler.stop(url);
+        }
+        return Map.of("result", true);
+    }
+    
+    @PostMapping("/pauseIndexing")
+    public Map<String, Object> pauseIndexing(@RequestParam String url) {
+        indexingScheduler.pause(url);
+        return Map.of("result", true);
+    }
+    
+    @PostMapping("/resumeIndexing")
+    public Map<String, Object> resumeIndexing(@RequestParam String url) {
+        indexingScheduler.resume(url);
         return Map.of("result", true);
     }
     
@@ -52,12 +70,14 @@ public class ApiController {
     @GetMapping("/search")
     public Map<String, Object> search(
             @RequestParam String query,
-            @RequestParam(required = false) String site) {
-        List<SearchResult> results = searchService.search(query, site);
+            @RequestParam(required = false) String site,
+            @RequestParam(defaultValue = "0") int offset,
+            @RequestParam(defaultValue = "20") int limit) {
+        SearchResults results = searchService.search(query, site, offset, limit);
         return Map.of(
                 "result", true,
-                "count", results.size(),
-                "data", results
+                "count", results.getTotal(),
+                "data", results.getResults()
         );
     }
     
@@ -2,13 +2,12 @@ package com.searchlocal.web;
 
 import com.searchlocal.dto.StatisticsResponse;
 import com.searchlocal.service.SearchService;
-import com.searchlocal.model.SearchResult;
+import com.searchlocal.model.SearchResults;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 
-import java.util.List;
 import java.util.Map;
 
 @Controller
@@ -25,12 +24,14 @@ public class WebController {
     @GetMapping("/search")
     @ResponseBody
     public Map<String, Object> search(@RequestParam String query, 
-                                      @RequestParam(required = false) String site) {
-        List<SearchResult> results = searchService.search(query, site);
+                                      @RequestParam(required = false) String site,
+                                      @RequestParam(defaultValue = "0") int offset,
+                                      @RequestParam(defaultValue = "20") int limit) {
+        SearchResults results = searchService.search(query, site, offset, limit);
         return Map.of(
                 "result", true,
-                "count", results.size(),
-                "data", results
+                "count", results.getTotal(),
+                "data", results.getResults()
         );
     }
 }
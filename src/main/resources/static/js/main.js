@@ -111,18 +111,27 @@ async function indexPage() {
     }
 }
 
+// Search results are requested page by page: /api/search returns at most `limit` results
+const SEARCH_PAGE_SIZE = 20;
+let searchQuery = '';
+
 async function performSearch() {
     const query = document.getElementById('searchQuery').value.trim();
     if (!query) {
         alert('Введите поисковый запрос');
         return;
     }
-    
+    searchQuery = query;
+    await loadSearchPage(0);
+}
+
+async function loadSearchPage(offset) {
     const resultsDiv = document.getElementById('searchResults');
     resultsDiv.innerHTML = '<p>Поиск...</p>';
     
     try {
-        const response = await fetch('/api/search?query=' + encodeURIComponent(query));
+        const response = await fetch('/api/search?query=' + encodeURIComponent(searchQuery)
+            + '&offset=' + offset + '&limit=' + SEARCH_PAGE_SIZE);
         const data = await response.json();
         
         if (data.result && data.data && data.data.length > 0) {
@@ -130,13 +139,26 @@ async function performSearch() {
             data.data.forEach((result, index) => {
                 html += `
                     <div class="result-item">
-                        <div class="result-title">${index + 1}. ${result.title || 'Без названия'}</div>
+                        <div class="result-title">${offset + index + 1}. ${result.title || 'Без названия'}</div>
                         <div class="result-url">${result.url}</div>
                         <div class="result-snippet">${result.snippet || ''}</div>
                         <div class="result-relevance">Релевантность: ${result.relevance ? result.relevance.toFixed(4) : 'N/A'}</div>
                     </div>
                 `;
             });
+            
+            const hasPrevious = offset > 0;
+            const hasNext = offset + data.data.length < data.count;
+            if (hasPrevious || hasNext) {
+                html += '<div class="button-group">';
+                if (hasPrevious) {
+                    html += `<button onclick="loadSearchPage(${Math.max(0, offset - SEARCH_PAGE_SIZE)})" class="btn-primary">Назад</button>`;
+                }
+                if (hasNext) {
+                    html += `<button onclick="loadSearchPage(${offset + data.data.length})" class="btn-primary">Далее</button>`;
+                }
+                html += '</div>';
+            }
             resultsDiv.innerHTML = html;
         } else {
             resultsDiv.innerHTML = '<p style="color: #7f8c8d;">Ничего не найдено.</p>';
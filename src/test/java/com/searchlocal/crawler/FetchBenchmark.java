@@ -0,0 +1,216 @@
+package com.searchlocal.crawler;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Бенчмарк загрузки страниц с локального сервера-заглушки: {@link PageFetcher} на общем
+ * HttpClient против прежнего пути Jsoup.connect().get(). Несколько потоков загружают
+ * и разбирают страницы; для каждого варианта печатаются страницы в секунду, число
+ * открытых сервером соединений и наибольшее число одновременно открытых соединений.
+ * Сервер сам принимает сокеты и поддерживает keep-alive HTTP/1.1, поэтому соединения
+ * считаются точно, а задержка ответа имитирует удаленный сайт.
+ * <p>
+ * Аргументы (все необязательны): число страниц, число потоков, задержка ответа в мс,
+ * размер страницы в КБ:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.searchlocal.crawler.FetchBenchmark -Dexec.args="2000 8 5 40"
+ * </pre>
+ */
+public class FetchBenchmark {
+    private static final String USER_AGENT = "searchlocal";
+
+    private interface Fetch {
+        Document get(String url) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+        long delayMillis = args.length > 2 ? Long.parseLong(args[2]) : 5;
+        int pageKilobytes = args.length > 3 ? Integer.parseInt(args[3]) : 40;
+
+        try (StubServer server = new StubServer(page(pageKilobytes), delayMillis)) {
+            String base = "http://127.0.0.1:" + server.port() + "/page/";
+            System.out.printf("Страниц: %d, потоков: %d, задержка ответа: %d мс, размер страницы: %d КБ%n",
+                    pages, threads, delayMillis, pageKilobytes);
+
+            PageFetcher fetcher = new PageFetcher(5000, 10000, threads, USER_AGENT);
+            Fetch httpClient = url -> fetcher.fetch(url, Collections.emptyMap()).parse();
+            Fetch jsoup = url -> Jsoup.connect(url).userAgent(USER_AGENT).timeout(10000).get();
+
+            // Прогрев обоих путей, затем замер на новых соединениях
+            run(server, base, Math.min(pages, 200), threads, httpClient);
+            run(server, base, Math.min(pages, 200), threads, jsoup);
+            report("HttpClient", server, run(server, base, pages, threads, httpClient), pages);
+            report("Jsoup.connect", server, run(server, base, pages, threads, jsoup), pages);
+        }
+    }
+
+    private static long run(StubServer server, String base, int pages, int threads, Fetch fetch)
+            throws Exception {
+        server.reset();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger next = new AtomicInteger();
+        AtomicLong parsed = new AtomicLong();
+        long start = System.nanoTime();
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                workers.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < pages; i = next.getAndIncrement()) {
+                        parsed.addAndGet(fetch.get(base + i).body().childNodeSize());
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (parsed.get() == 0) {
+            throw new IllegalStateException("Страницы не разобраны");
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static void report(String name, StubServer server, long elapsedNanos, int pages) {
+        System.out.printf("%-14s %8.1f стр/с, соединений открыто %4d, одновременно не больше %3d%n",
+                name, pages / (elapsedNanos / 1e9), server.accepted.get(), server.peak.get());
+    }
+
+    private static byte[] page(int kilobytes) {
+        StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><meta charset=\"utf-8\">"
+                + "<title>Страница</title></head><body>");
+        for (int i = 0; html.length() < kilobytes * 1024; i++) {
+            html.append("<p>Абзац ").append(i).append(" с текстом для разбора и <a href=\"/page/")
+                    .append(i).append("\">ссылкой</a>.</p>\n");
+        }
+        return html.append("</body></html>").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Сервер HTTP/1.1 с keep-alive, отдающий одну страницу на любой GET
+     * и считающий открытые соединения
+     */
+    private static class StubServer implements AutoCloseable {
+        private final ServerSocket socket;
+        private final byte[] body;
+        private final long delayMillis;
+        private final ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "stub-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        private final List<Socket> openSockets = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger accepted = new AtomicInteger();
+        final AtomicInteger open = new AtomicInteger();
+        final AtomicInteger peak = new AtomicInteger();
+
+        StubServer(byte[] body, long delayMillis) throws IOException {
+            this.socket = new ServerSocket(0, 512, InetAddress.getLoopbackAddress());
+            this.body = body;
+            this.delayMillis = delayMillis;
+            Thread acceptor = new Thread(this::accept, "stub-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        int port() {
+            return socket.getLocalPort();
+        }
+
+        /**
+         * Закрывает соединения предыдущего прогона и обнуляет счетчики
+         */
+        void reset() throws IOException, InterruptedException {
+            synchronized (openSockets) {
+                for (Socket client : openSockets) {
+                    client.close();
+                }
+            }
+            for (int wait = 0; open.get() > 0 && wait < 100; wait++) {
+                Thread.sleep(10);
+            }
+            accepted.set(0);
+            peak.set(open.get());
+        }
+
+        private void accept() {
+            while (!socket.isClosed()) {
+                try {
+                    Socket client = socket.accept();
+                    accepted.incrementAndGet();
+                    peak.accumulateAndGet(open.incrementAndGet(), Math::max);
+                    openSockets.add(client);
+                    connections.execute(() -> serve(client));
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void serve(Socket client) {
+            try (Socket connection = client) {
+                InputStream in = new BufferedInputStream(connection.getInputStream());
+                OutputStream out = connection.getOutputStream();
+                while (readRequest(in)) {
+                    Thread.sleep(delayMillis);
+                    out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/html; charset=utf-8\r\n"
+                            + "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    out.write(body);
+                    out.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                // Клиент закрыл соединение
+            } finally {
+                openSockets.remove(client);
+                open.decrementAndGet();
+            }
+        }
+
+        /**
+         * Читает строку запроса и заголовки до пустой строки; false, если соединение закрыто
+         */
+        private static boolean readRequest(InputStream in) throws IOException {
+            int lineLength = 0;
+            for (int b = in.read(); b >= 0; b = in.read()) {
+                if (b == '\n') {
+                    if (lineLength == 0) {
+                        return true;
+                    }
+                    lineLength = 0;
+                } else if (b != '\r') {
+                    lineLength++;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+            connections.shutdownNow();
+        }
+    }
+}
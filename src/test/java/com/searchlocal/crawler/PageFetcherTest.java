@@ -0,0 +1,161 @@
+package com.searchlocal.crawler;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Загрузка страниц с локального HTTP-сервера
+ */
+class PageFetcherTest {
+    private static final String PAGE = "<html><head><title>Кот</title></head><body>Кошачий корм</body></html>";
+    private static final String SITEMAP = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+            + "<urlset><url><loc>http://example.com/a</loc><lastmod>2024-01-02</lastmod></url></urlset>";
+
+    private HttpServer server;
+    private String base;
+    private final PageFetcher fetcher = new PageFetcher(2000, 5000, 4, "searchlocal");
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/page", exchange -> {
+            String userAgent = exchange.getRequestHeaders().getFirst("User-Agent");
+            send(exchange, 200, "text/html; charset=utf-8", Map.of("X-User-Agent", userAgent),
+                    PAGE.getBytes(StandardCharsets.UTF_8));
+        });
+        server.createContext("/gzip", exchange -> send(exchange, 200, "text/html; charset=utf-8",
+                Map.of("Content-Encoding", "gzip"), gzip(PAGE)));
+        server.createContext("/moved", exchange -> redirect(exchange, "/page"));
+        server.createContext("/away", exchange -> redirect(exchange,
+                "http://localhost:" + server.getAddress().getPort() + "/page"));
+        server.createContext("/loop", exchange -> redirect(exchange, "/loop"));
+        server.createContext("/conditional", exchange -> {
+            if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                send(exchange, 304, "text/html", Collections.emptyMap(), null);
+            } else {
+                send(exchange, 200, "text/html", Map.of("ETag", "\"v1\""), PAGE.getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        server.createContext("/image.png", exchange -> send(exchange, 200, "image/png", Collections.emptyMap(),
+                new byte[]{1, 2, 3}));
+        server.createContext("/sitemap.xml.gz", exchange -> send(exchange, 200, "application/octet-stream",
+                Collections.emptyMap(), gzip(SITEMAP)));
+        server.start();
+        base = "http://" + server.getAddress().getAddress().getHostAddress() + ":" + server.getAddress().getPort();
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void sendsOwnUserAgent() throws Exception {
+        FetchedPage page = fetcher.fetch(base + "/page", Collections.emptyMap());
+
+        assertEquals(200, page.statusCode());
+        assertEquals("searchlocal", page.header("X-User-Agent"));
+        assertEquals("Кот", page.parse().title());
+    }
+
+    @Test
+    void decodesGzipBody() throws Exception {
+        FetchedPage page = fetcher.fetch(base + "/gzip", Collections.emptyMap());
+
+        assertEquals(PAGE, page.text());
+    }
+
+    @Test
+    void followsRedirectWithinHost() throws Exception {
+        FetchedPage page = fetcher.fetch(base + "/moved", Collections.emptyMap());
+
+        assertEquals(200, page.statusCode());
+        assertEquals(base + "/page", page.url());
+        assertTrue(page.isHtml());
+    }
+
+    @Test
+    void refusesRedirectToAnotherHost() throws Exception {
+        FetchedPage page = fetcher.fetch(base + "/away", Collections.emptyMap());
+
+        assertEquals(302, page.statusCode());
+        assertEquals(base + "/away", page.url());
+        assertFalse(page.hasBody());
+    }
+
+    @Test
+    void stopsRedirectLoop() throws Exception {
+        FetchedPage page = fetcher.fetch(base + "/loop", Collections.emptyMap());
+
+        assertEquals(302, page.statusCode());
+    }
+
+    @Test
+    void passesConditionalHeaders() throws Exception {
+        FetchedPage first = fetcher.fetch(base + "/conditional", Collections.emptyMap());
+        FetchedPage second = fetcher.fetch(base + "/conditional", Map.of("If-None-Match", first.header("ETag")));
+
+        assertEquals(200, first.statusCode());
+        assertEquals(304, second.statusCode());
+    }
+
+    @Test
+    void skipsBodyOfNonHtmlPage() throws Exception {
+        FetchedPage page = fetcher.fetch(base + "/image.png", Collections.emptyMap());
+
+        assertEquals(200, page.statusCode());
+        assertFalse(page.hasBody());
+    }
+
+    @Test
+    void readsGzippedSitemapServedAsFile() throws Exception {
+        FetchedPage file = fetcher.fetchFile(base + "/sitemap.xml.gz");
+
+        List<Sitemap.Entry> urls = Sitemap.parse(file).getUrls();
+        assertEquals(1, urls.size());
+        assertEquals("http://example.com/a", urls.get(0).getUrl());
+        assertEquals("2024-01-02", urls.get(0).getLastModified());
+    }
+
+    private static void redirect(HttpExchange exchange, String location) throws IOException {
+        send(exchange, 302, "text/html", Map.of("Location", location), null);
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, Map<String, String> headers,
+                             byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        headers.forEach(exchange.getResponseHeaders()::set);
+        exchange.sendResponseHeaders(status, body == null ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            if (body != null) {
+                out.write(body);
+            }
+        }
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+}
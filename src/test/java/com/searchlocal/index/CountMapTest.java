@@ -0,0 +1,61 @@
+package com.searchlocal.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CountMapTest {
+
+    @Test
+    void counterReachingZeroIsRemoved() {
+        CountMap counts = new CountMap();
+        assertEquals(2, counts.add(7, 2));
+        assertEquals(1, counts.add(7, -1));
+        assertEquals(1, counts.size());
+        assertEquals(0, counts.add(7, -1));
+
+        assertTrue(counts.isEmpty());
+        assertEquals(0, counts.get(7));
+        assertArrayEquals(new int[0], counts.keys());
+    }
+
+    @Test
+    void zeroKeyIsCounted() {
+        CountMap counts = new CountMap();
+        counts.add(0, 3);
+        counts.add(5, 1);
+
+        assertEquals(3, counts.get(0));
+        assertEquals(2, counts.size());
+        counts.add(0, -3);
+        assertArrayEquals(new int[]{5}, counts.keys());
+    }
+
+    @Test
+    void matchesHashMapUnderRandomUpdates() {
+        CountMap counts = new CountMap();
+        Map<Integer, Integer> expected = new HashMap<>();
+        Random random = new Random(3);
+        for (int i = 0; i < 200_000; i++) {
+            int key = 1 + random.nextInt(2000);
+            int delta = expected.containsKey(key) && random.nextBoolean() ? -expected.get(key) : 1 + random.nextInt(3);
+            expected.merge(key, delta, (a, b) -> a + b == 0 ? null : a + b);
+            counts.add(key, delta);
+        }
+
+        assertEquals(expected.size(), counts.size());
+        for (int key = 0; key <= 2000; key++) {
+            assertEquals((int) expected.getOrDefault(key, 0), counts.get(key));
+        }
+        int[] keys = counts.keys();
+        Arrays.sort(keys);
+        assertArrayEquals(expected.keySet().stream().mapToInt(Integer::intValue).sorted().toArray(), keys);
+    }
+}
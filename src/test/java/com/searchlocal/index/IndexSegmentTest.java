@@ -0,0 +1,200 @@
+package com.searchlocal.index;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexSegmentTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsPagesTermsAndFrequencies() throws IOException {
+        PostingList large = new PostingList();
+        for (int pageId = 1; pageId <= PostingList.SKIP_INTERVAL * 10; pageId++) {
+            large.add(pageId * 2, pageId % 5 + 1, pageId % 3 == 0 ? new int[]{pageId, pageId + 4} : null);
+        }
+        PostingList small = new PostingList();
+        small.add(4, 2, null);
+
+        Path file = directory.resolve("segment-1");
+        IndexSegment.Writer writer = new IndexSegment.Writer(file, false, 42);
+        writer.addPage(4, 1, true, 17);
+        writer.addPage(6, 2, false, 3);
+        writer.addTerm(10, "кот", large);
+        writer.addTerm(11, "дом", small);
+        writer.addFrequency(1, 10, true, 5);
+        writer.addFrequency(2, 11, false, 1);
+        writer.finish();
+
+        IndexSegment segment = IndexSegment.open(file);
+        segment.verify();
+        assertFalse(segment.isDelta());
+        assertEquals(42, segment.watermark());
+        assertEquals(2, segment.pageCount());
+        assertEquals(2, segment.termCount());
+        assertEquals(large.size() + 1, segment.postingCount());
+        assertEquals(Files.size(file), segment.fileSize());
+
+        Recorder read = new Recorder();
+        segment.read(read);
+        assertEquals(List.of("4:1:true:17", "6:2:false:3"), read.pages);
+        assertEquals(List.of("1:10:true:5", "2:11:false:1"), read.frequencies);
+        assertEquals("кот", read.lemmas.get(10));
+        assertEquals("дом", read.lemmas.get(11));
+
+        PostingList mapped = read.lists.get(10);
+        assertTrue(mapped.isMapped());
+        assertSameContents(large, mapped);
+        assertSameContents(small, read.lists.get(11));
+
+        // Точки пропуска сохраняются вместе со списком
+        PostingList.Cursor cursor = mapped.cursor();
+        assertTrue(cursor.advance(1001));
+        assertEquals(1002, cursor.pageId());
+        assertArrayEquals(new int[]{501, 505}, cursor.positions());
+        assertFalse(cursor.advance(PostingList.SKIP_INTERVAL * 20 + 1));
+    }
+
+    @Test
+    void emptyTermIsReadAsEmptyList() throws IOException {
+        Path file = directory.resolve("segment-1");
+        IndexSegment.Writer writer = new IndexSegment.Writer(file, true, 1);
+        writer.addTerm(10, "кот", new PostingList());
+        writer.finish();
+
+        IndexSegment segment = IndexSegment.open(file);
+        assertTrue(segment.isDelta());
+        Recorder read = new Recorder();
+        segment.read(read);
+        assertTrue(read.lists.get(10).isEmpty());
+    }
+
+    @Test
+    void verifyRejectsCorruptedContents() throws IOException {
+        Path file = directory.resolve("segment-1");
+        PostingList list = new PostingList();
+        list.add(1, 1, null);
+        IndexSegment.Writer writer = new IndexSegment.Writer(file, false, 0);
+        writer.addPage(1, 1, true, 1);
+        writer.addTerm(10, "кот", list);
+        writer.finish();
+
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        IndexSegment segment = IndexSegment.open(file);
+        assertThrows(IOException.class, segment::verify);
+    }
+
+    @Test
+    void openRejectsTruncatedFile() throws IOException {
+        Path file = directory.resolve("segment-1");
+        IndexSegment.Writer writer = new IndexSegment.Writer(file, false, 0);
+        writer.addPage(1, 1, true, 1);
+        writer.finish();
+
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> IndexSegment.open(file));
+
+        Files.write(file, Arrays.copyOf(bytes, 10));
+        assertThrows(IOException.class, () -> IndexSegment.open(file));
+    }
+
+    @Test
+    void deltaChainAppliesUpdatesAndDeletes() throws IOException {
+        SegmentContents base = new SegmentContents(false);
+        base.pages.put(1, new int[]{1, 1, 5});
+        base.pages.put(2, new int[]{1, 1, 7});
+        base.lemmas.put(10, "кот");
+        base.lists.put(10, listOf(1, 2));
+        base.lemmas.put(11, "дом");
+        base.lists.put(11, listOf(2));
+        base.liveFrequencies.computeIfAbsent(1, id -> new HashMap<>()).put(10, 2);
+        base.liveFrequencies.get(1).put(11, 1);
+        IndexSegment first = base.write(directory.resolve("segment-1"), false, 3);
+
+        // Дельта удаляет страницу 2 и лемму 11 и меняет список леммы 10
+        SegmentContents delta = new SegmentContents(false);
+        delta.pages.put(2, new int[]{-1, 0, 0});
+        delta.lemmas.put(11, "дом");
+        delta.lists.put(11, new PostingList());
+        delta.lemmas.put(10, "кот");
+        delta.lists.put(10, listOf(1));
+        delta.liveFrequencies.computeIfAbsent(1, id -> new HashMap<>()).put(10, 1);
+        delta.liveFrequencies.get(1).put(11, 0);
+        IndexSegment second = delta.write(directory.resolve("segment-2"), true, 5);
+
+        SegmentContents contents = SegmentContents.read(List.of(first, second));
+        assertEquals(1, contents.pages.size());
+        assertArrayEquals(new int[]{1, 1, 5}, contents.pages.get(1));
+        assertNull(contents.lists.get(11));
+        assertNull(contents.lemmas.get(11));
+        assertSameContents(listOf(1), contents.lists.get(10));
+        assertEquals(Map.of(10, 1), contents.liveFrequencies.get(1));
+        assertEquals(1, contents.postingCount());
+        assertEquals(5, second.watermark());
+    }
+
+    private static PostingList listOf(int... pageIds) {
+        PostingList list = new PostingList();
+        for (int pageId : pageIds) {
+            list.add(pageId, 1, null);
+        }
+        return list;
+    }
+
+    private static void assertSameContents(PostingList expected, PostingList actual) {
+        assertEquals(expected.size(), actual.size());
+        PostingList.Cursor left = expected.cursor();
+        PostingList.Cursor right = actual.cursor();
+        while (left.next()) {
+            assertTrue(right.next());
+            assertEquals(left.pageId(), right.pageId());
+            assertEquals(left.rank(), right.rank());
+            assertArrayEquals(left.positions(), right.positions());
+        }
+        assertFalse(right.next());
+    }
+
+    private static class Recorder implements IndexSegment.Visitor {
+        final List<String> pages = new ArrayList<>();
+        final Map<Integer, String> lemmas = new HashMap<>();
+        final Map<Integer, PostingList> lists = new HashMap<>();
+        final List<String> frequencies = new ArrayList<>();
+
+        @Override
+        public void page(int pageId, int siteId, boolean live, int length) {
+            pages.add(pageId + ":" + siteId + ":" + live + ":" + length);
+        }
+
+        @Override
+        public void term(int lemmaId, String lemma, PostingList list) {
+            lemmas.put(lemmaId, lemma);
+            lists.put(lemmaId, list);
+        }
+
+        @Override
+        public void frequency(int siteId, int lemmaId, boolean live, int count) {
+            frequencies.add(siteId + ":" + lemmaId + ":" + live + ":" + count);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.searchlocal.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MatchesTest {
+
+    @Test
+    void topReturnsBestMatchesByDescendingScore() {
+        Matches matches = new Matches();
+        matches.add(1, 0.5f);
+        matches.add(2, 3f);
+        matches.add(3, 1f);
+        matches.add(4, 2f);
+
+        assertArrayEquals(new int[]{2, 4}, pageIds(matches, matches.top(2)));
+        assertEquals(3f, matches.maxScore());
+    }
+
+    @Test
+    void equalScoresAreOrderedByPageId() {
+        Matches matches = new Matches();
+        matches.add(30, 1f);
+        matches.add(10, 1f);
+        matches.add(20, 1f);
+        matches.add(5, 0.5f);
+
+        assertArrayEquals(new int[]{10, 20}, pageIds(matches, matches.top(2)));
+    }
+
+    @Test
+    void topIsBoundedBySize() {
+        Matches matches = new Matches();
+        assertEquals(0, matches.top(10).length);
+
+        matches.add(7, 1f);
+        matches.add(8, 2f);
+        assertArrayEquals(new int[]{8, 7}, pageIds(matches, matches.top(10)));
+        assertEquals(0, matches.top(0).length);
+    }
+
+    @Test
+    void topMatchesFullSortOnRandomScores() {
+        Random random = new Random(7);
+        for (int round = 0; round < 100; round++) {
+            Matches matches = new Matches();
+            List<float[]> all = new ArrayList<>();
+            int size = random.nextInt(300);
+            for (int pageId = 0; pageId < size; pageId++) {
+                // Мало разных оценок, чтобы часто совпадали
+                float score = random.nextInt(20);
+                matches.add(pageId, score);
+                all.add(new float[]{score, pageId});
+            }
+            all.sort(Comparator.<float[]>comparingDouble(match -> -match[0]).thenComparingDouble(match -> match[1]));
+
+            int k = random.nextInt(50);
+            int[] expected = new int[Math.min(k, size)];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = (int) all.get(i)[1];
+            }
+            assertArrayEquals(expected, pageIds(matches, matches.top(k)));
+        }
+    }
+
+    private static int[] pageIds(Matches matches, int[] top) {
+        int[] pageIds = new int[top.length];
+        for (int i = 0; i < top.length; i++) {
+            pageIds[i] = matches.pageId(top[i]);
+        }
+        return pageIds;
+    }
+}
@@ -0,0 +1,178 @@
+package com.searchlocal.index;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PostingListTest {
+
+    @Test
+    void roundTripsIdsRanksAndPositionsOfEveryVarIntWidth() {
+        // Разности id и позиции занимают от одного до пяти байт
+        int[] pageIds = {0, 1, 127, 128, 16_383, 16_384, 2_097_151, 2_097_152, 268_435_455, Integer.MAX_VALUE - 1};
+        PostingList list = new PostingList();
+        for (int i = 0; i < pageIds.length; i++) {
+            int[] positions = i % 2 == 0 ? null : new int[]{0, 127, 128, 16_384, pageIds[i]};
+            assertTrue(list.add(pageIds[i], i + 1, positions));
+        }
+
+        assertEquals(pageIds.length, list.size());
+        PostingList.Cursor cursor = list.cursor();
+        for (int i = 0; i < pageIds.length; i++) {
+            assertTrue(cursor.next());
+            assertEquals(pageIds[i], cursor.pageId());
+            assertEquals(i + 1, cursor.rank());
+            if (i % 2 == 0) {
+                assertNull(cursor.positions());
+            } else {
+                assertArrayEquals(new int[]{0, 127, 128, 16_384, pageIds[i]}, cursor.positions());
+            }
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void addReplacesRankOfExistingPage() {
+        PostingList list = new PostingList();
+        list.add(5, 1, null);
+        list.add(9, 2, null);
+
+        assertFalse(list.add(5, 7, new int[]{3}));
+        assertEquals(2, list.size());
+        PostingList.Cursor cursor = list.cursor();
+        assertTrue(cursor.next());
+        assertEquals(7, cursor.rank());
+        assertArrayEquals(new int[]{3}, cursor.positions());
+    }
+
+    @Test
+    void advanceSkipsBlocksAndStopsAtFirstIdNotLess() {
+        PostingList list = new PostingList();
+        int count = PostingList.SKIP_INTERVAL * 40;
+        for (int i = 0; i < count; i++) {
+            list.add(i * 3, 1, null);
+        }
+
+        // Один курсор двигается вперед через границы блоков, попадая на id и между ними
+        PostingList.Cursor cursor = list.cursor();
+        for (int target = 0; target < count * 3; target += 97) {
+            assertTrue(cursor.advance(target));
+            assertEquals((target + 2) / 3 * 3, cursor.pageId());
+        }
+        // Цель меньше текущего id не сдвигает курсор назад
+        int current = cursor.pageId();
+        assertTrue(cursor.advance(0));
+        assertEquals(current, cursor.pageId());
+
+        assertFalse(cursor.advance(count * 3));
+        assertFalse(list.cursor().advance((count - 1) * 3 + 1));
+        assertTrue(list.cursor().advance((count - 1) * 3));
+    }
+
+    @Test
+    void advanceOnEmptyListFindsNothing() {
+        assertFalse(new PostingList().cursor().advance(0));
+    }
+
+    @Test
+    void removeAllRebuildsListWithoutMatchingPages() {
+        PostingList list = new PostingList();
+        for (int i = 1; i <= 500; i++) {
+            list.add(i, i, null);
+        }
+
+        assertEquals(250, list.removeAll(id -> id % 2 == 0));
+        assertEquals(250, list.size());
+        PostingList.Cursor cursor = list.cursor();
+        assertTrue(cursor.advance(300));
+        assertEquals(301, cursor.pageId());
+        assertEquals(301, cursor.rank());
+    }
+
+    @Test
+    void randomUpdatesMatchSortedMap() {
+        Random random = new Random(1);
+        for (int round = 0; round < 50; round++) {
+            PostingList list = new PostingList();
+            // id страницы -> ранг и позиции
+            TreeMap<Integer, int[][]> expected = new TreeMap<>();
+            for (int operation = 0; operation < 300; operation++) {
+                int kind = random.nextInt(4);
+                if (kind == 0) {
+                    int pageId = random.nextInt(2000);
+                    int rank = 1 + random.nextInt(9);
+                    int[] positions = random.nextBoolean() ? null : new int[]{random.nextInt(5), 10 + random.nextInt(5)};
+                    assertEquals(!expected.containsKey(pageId), list.add(pageId, rank, positions));
+                    expected.put(pageId, new int[][]{{rank}, positions});
+                } else if (kind == 1) {
+                    int pageId = random.nextInt(2000);
+                    assertEquals(expected.remove(pageId) != null, list.remove(pageId));
+                } else {
+                    applyBatch(random, list, expected);
+                }
+                assertMatches(expected, list);
+            }
+
+            for (int i = 0; i < 20; i++) {
+                int target = random.nextInt(2500);
+                Integer next = expected.ceilingKey(target);
+                PostingList.Cursor cursor = list.cursor();
+                assertEquals(next != null, cursor.advance(target));
+                if (next != null) {
+                    assertEquals(next.intValue(), cursor.pageId());
+                }
+            }
+        }
+    }
+
+    private static void applyBatch(Random random, PostingList list, TreeMap<Integer, int[][]> expected) {
+        TreeMap<Integer, Integer> batch = new TreeMap<>();
+        int size = 1 + random.nextInt(50);
+        for (int i = 0; i < size; i++) {
+            batch.put(random.nextInt(2500), random.nextInt(3) == 0 ? PostingList.REMOVED : 1 + random.nextInt(9));
+        }
+        int[] pageIds = new int[batch.size()];
+        int[] ranks = new int[batch.size()];
+        int[][] positions = new int[batch.size()][];
+        int i = 0;
+        for (Map.Entry<Integer, Integer> entry : batch.entrySet()) {
+            pageIds[i] = entry.getKey();
+            ranks[i] = entry.getValue();
+            positions[i] = ranks[i] != PostingList.REMOVED && random.nextBoolean() ? new int[]{pageIds[i] % 7, 100} : null;
+            i++;
+        }
+
+        int before = expected.size();
+        int[] net = {0};
+        list.update(pageIds, ranks, positions, pageIds.length, (pageId, change) -> net[0] += change);
+        for (i = 0; i < pageIds.length; i++) {
+            if (ranks[i] == PostingList.REMOVED) {
+                expected.remove(pageIds[i]);
+            } else {
+                expected.put(pageIds[i], new int[][]{{ranks[i]}, positions[i]});
+            }
+        }
+        assertEquals(expected.size(), before + net[0], "membership changes");
+    }
+
+    private static void assertMatches(TreeMap<Integer, int[][]> expected, PostingList list) {
+        assertEquals(expected.size(), list.size());
+        PostingList.Cursor cursor = list.cursor();
+        for (Map.Entry<Integer, int[][]> entry : expected.entrySet()) {
+            assertTrue(cursor.next());
+            assertEquals(entry.getKey().intValue(), cursor.pageId());
+            assertEquals(entry.getValue()[0][0], cursor.rank());
+            assertArrayEquals(entry.getValue()[1], cursor.positions(), "positions of " + Arrays.toString(entry.getValue()[1]));
+        }
+        assertFalse(cursor.next());
+    }
+}
@@ -0,0 +1,132 @@
+package com.searchlocal.index;
+
+import com.searchlocal.util.LemmaOccurrences;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Бенчмарк задержки поиска по сгенерированному корпусу: пересечение списков вхождений
+ * {@link SearchIndex#intersect} с оценкой BM25 и исходной суммой рангов, затем отбор
+ * 10 лучших, как в SearchService. Частоты лемм корпуса распределены по закону Ципфа,
+ * длины страниц различаются в десятки раз; запросы из двух-трех лемм разной частоты
+ * упорядочены от самой редкой. Для каждого способа печатаются средняя, медианная
+ * и 99-процентильная задержка запроса.
+ * <p>
+ * Аргументы (все необязательны): число страниц, размер словаря, число запросов:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.searchlocal.index.ScorerBenchmark -Dexec.args="20000 5000 2000"
+ * </pre>
+ */
+public class ScorerBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURED_ROUNDS = 5;
+    private static final int TOP = 10;
+
+    // Результат запросов, чтобы JIT не удалил вычисления
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int vocabulary = args.length > 1 ? Integer.parseInt(args[1]) : 5_000;
+        int queryCount = args.length > 2 ? Integer.parseInt(args[2]) : 2_000;
+
+        Random random = new Random(1);
+        SearchIndex index = new SearchIndex(null, null, null, null,
+                Files.createTempDirectory("scorer-benchmark").toString(), 60_000);
+        long buildStart = System.nanoTime();
+        Map<String, Integer> lemmaIds = new HashMap<>();
+        for (int lemma = 0; lemma < vocabulary; lemma++) {
+            lemmaIds.put("l" + lemma, lemma + 1);
+        }
+        ZipfSampler sampler = new ZipfSampler(vocabulary, 1.0);
+        for (int pageId = 1; pageId <= pages; pageId++) {
+            int length = 50 + (int) (random.nextDouble() * random.nextDouble() * 3000);
+            Map<String, Integer> ranks = new HashMap<>();
+            for (int word = 0; word < length; word++) {
+                ranks.merge("l" + sampler.next(random), 1, Integer::sum);
+            }
+            index.addPage(pageId, 1 + pageId % 4, true, lemmaIds, LemmaOccurrences.of(ranks));
+        }
+        System.out.printf("Страниц: %d, словарь: %d, запросов: %d, корпус построен за %d мс%n",
+                pages, vocabulary, queryCount, (System.nanoTime() - buildStart) / 1_000_000);
+
+        List<List<Integer>> queries = new ArrayList<>();
+        while (queries.size() < queryCount) {
+            int size = 2 + random.nextInt(2);
+            List<Integer> query = new ArrayList<>();
+            while (query.size() < size) {
+                // Леммы запроса берутся из всего словаря, а не только из частых
+                int lemmaId = 1 + (random.nextBoolean() ? sampler.next(random) : random.nextInt(vocabulary));
+                if (!query.contains(lemmaId) && index.documentFrequency(lemmaId, null) > 0) {
+                    query.add(lemmaId);
+                }
+            }
+            query.sort(Comparator.comparingInt(lemmaId -> index.documentFrequency(lemmaId, null)));
+            queries.add(query);
+        }
+
+        RelevanceScorer[] scorers = {new RankSumScorer(), new Bm25Scorer(1.2f, 0.75f)};
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            for (RelevanceScorer scorer : scorers) {
+                measure(index, queries, scorer);
+            }
+        }
+        for (RelevanceScorer scorer : scorers) {
+            long[] latencies = new long[queries.size() * MEASURED_ROUNDS];
+            for (int round = 0; round < MEASURED_ROUNDS; round++) {
+                System.arraycopy(measure(index, queries, scorer), 0, latencies, round * queries.size(), queries.size());
+            }
+            Arrays.sort(latencies);
+            double average = Arrays.stream(latencies).average().orElse(0);
+            System.out.printf("%-9s среднее %7.1f мкс, медиана %7.1f мкс, p99 %8.1f мкс%n", scorer.getName(),
+                    average / 1000, latencies[latencies.length / 2] / 1000.0,
+                    latencies[(int) (latencies.length * 0.99)] / 1000.0);
+        }
+    }
+
+    private static long[] measure(SearchIndex index, List<List<Integer>> queries, RelevanceScorer scorer) {
+        long[] latencies = new long[queries.size()];
+        long found = 0;
+        for (int i = 0; i < latencies.length; i++) {
+            long start = System.nanoTime();
+            Matches matches = index.intersect(queries.get(i), null, scorer, null);
+            int[] top = matches.top(TOP);
+            latencies[i] = System.nanoTime() - start;
+            found += matches.size() + top.length;
+        }
+        sink += found;
+        return latencies;
+    }
+
+    /**
+     * Номера лемм с вероятностью, обратной степени ранга
+     */
+    private static class ZipfSampler {
+        private final double[] cumulative;
+
+        ZipfSampler(int size, double exponent) {
+            cumulative = new double[size];
+            double sum = 0;
+            for (int rank = 0; rank < size; rank++) {
+                sum += 1 / Math.pow(rank + 1, exponent);
+                cumulative[rank] = sum;
+            }
+            for (int rank = 0; rank < size; rank++) {
+                cumulative[rank] /= sum;
+            }
+        }
+
+        int next(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+        }
+    }
+}
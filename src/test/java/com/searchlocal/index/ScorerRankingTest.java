@@ -0,0 +1,88 @@
+package com.searchlocal.index;
+
+import com.searchlocal.util.LemmaOccurrences;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Ранжирование небольшого корпуса страниц с известными количествами лемм
+ */
+class ScorerRankingTest {
+    private static final Map<String, Integer> LEMMA_IDS = Map.of(
+            "кот", 1, "корм", 2, "редкий", 3, "слово", 4);
+    private static final int CAT = 1;
+    private static final int FOOD = 2;
+    private static final int RARE = 3;
+
+    // Короткая страница о кошачьем корме и длинная с большим числом повторов в шуме
+    private static final int FOCUSED = 1;
+    private static final int LONG = 2;
+    // Одинаковой длины: больше вхождений редкой леммы или больше вхождений частой
+    private static final int MORE_RARE = 3;
+    private static final int MORE_COMMON = 4;
+
+    @TempDir
+    Path directory;
+
+    private SearchIndex index;
+
+    @BeforeEach
+    void loadCorpus() {
+        index = new SearchIndex(null, null, null, null, directory.toString(), 60_000);
+        addPage(FOCUSED, Map.of("кот", 3, "корм", 2, "слово", 5));
+        addPage(LONG, Map.of("кот", 6, "корм", 3, "слово", 200));
+        addPage(MORE_RARE, Map.of("кот", 1, "редкий", 3, "слово", 6));
+        addPage(MORE_COMMON, Map.of("кот", 3, "редкий", 1, "слово", 6));
+        // Остальные страницы делают лемму "кот" частой, а "корм" и "редкий" - редкими
+        for (int pageId = 10; pageId < 30; pageId++) {
+            addPage(pageId, Map.of("кот", 1, "слово", 10));
+        }
+    }
+
+    @Test
+    void rankSumFavoursRepetitionOnLongPages() {
+        assertArrayEquals(new int[]{LONG, FOCUSED}, rank(new RankSumScorer(), FOOD, CAT));
+    }
+
+    @Test
+    void bm25FavoursShortFocusedPages() {
+        assertArrayEquals(new int[]{FOCUSED, LONG}, rank(new Bm25Scorer(1.2f, 0.75f), FOOD, CAT));
+    }
+
+    @Test
+    void bm25WeighsRareLemmasHigher() {
+        // Суммы вхождений равны, поэтому исходная релевантность их не различает
+        Matches sums = index.intersect(List.of(RARE, CAT), null, new RankSumScorer(), null);
+        assertEquals(sums.score(0), sums.score(1));
+
+        assertArrayEquals(new int[]{MORE_RARE, MORE_COMMON}, rank(new Bm25Scorer(1.2f, 0.75f), RARE, CAT));
+    }
+
+    @Test
+    void bm25WithoutLengthNormalizationKeepsTermFrequencyOrder() {
+        assertArrayEquals(new int[]{LONG, FOCUSED}, rank(new Bm25Scorer(1.2f, 0), FOOD, CAT));
+    }
+
+    private void addPage(int pageId, Map<String, Integer> ranks) {
+        index.addPage(pageId, 1, true, LEMMA_IDS, LemmaOccurrences.of(ranks));
+    }
+
+    private int[] rank(RelevanceScorer scorer, Integer... orderedLemmaIds) {
+        Matches matches = index.intersect(Arrays.asList(orderedLemmaIds), null, scorer, null);
+        int[] top = matches.top(matches.size());
+        int[] pageIds = new int[top.length];
+        for (int i = 0; i < top.length; i++) {
+            pageIds[i] = matches.pageId(top[i]);
+        }
+        return pageIds;
+    }
+}
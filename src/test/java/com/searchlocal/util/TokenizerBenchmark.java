@@ -0,0 +1,160 @@
+package com.searchlocal.util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * Микробенчмарк разбиения текста на слова с подсчетом: прежний путь Lemmatizer
+ * (toLowerCase, replaceAll, split и проверка каждого слова регулярным выражением, счетчики Integer)
+ * против однопроходного {@link WordTokenizer} со счетчиками int[]. Морфологический разбор
+ * в замер не входит, так как одинаков для обоих вариантов.
+ * <p>
+ * Запуск на текстах страниц из базы (по одному файлу на страницу), без аргументов - на
+ * сгенерированном тексте:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test \
+ *     -Dexec.mainClass=com.searchlocal.util.TokenizerBenchmark -Dexec.args="page1.txt page2.txt"
+ * </pre>
+ * Для каждого варианта печатаются время на все тексты, пропускная способность
+ * и объем памяти, выделенной потоком за один проход.
+ */
+public class TokenizerBenchmark {
+    private static final Pattern WORD_PATTERN = Pattern.compile("[\\p{L}]+");
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURED_ROUNDS = 30;
+
+    // Результат проходов, чтобы JIT не удалил вычисления
+    private static volatile long sink;
+
+    private interface Counter {
+        Map<String, ?> count(String text);
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<String> texts = new ArrayList<>();
+        for (String file : args) {
+            texts.add(new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8));
+        }
+        if (texts.isEmpty()) {
+            Random random = new Random(1);
+            for (int i = 0; i < 20; i++) {
+                texts.add(generateText(random, 300_000));
+            }
+        }
+        long chars = 0;
+        for (String text : texts) {
+            chars += text.length();
+            if (!toIntegers(countRegex(text)).equals(toIntegers(countStreaming(text)))) {
+                System.out.println("Результаты вариантов различаются на тексте длиной " + text.length());
+            }
+        }
+        System.out.printf("Текстов: %d, символов: %d%n", texts.size(), chars);
+
+        run("regex split", texts, chars, TokenizerBenchmark::countRegex);
+        run("WordTokenizer", texts, chars, TokenizerBenchmark::countStreaming);
+    }
+
+    /**
+     * Прежний путь: три копии текста, массив всех слов и упакованные счетчики
+     */
+    static Map<String, Integer> countRegex(String text) {
+        Map<String, Integer> counts = new HashMap<>();
+        String[] words = text.toLowerCase()
+                .replaceAll("[^\\p{L}\\s]", " ")
+                .split("\\s+");
+        for (String word : words) {
+            if (word.length() < 2 || !WORD_PATTERN.matcher(word).matches()) {
+                continue;
+            }
+            counts.put(word, counts.getOrDefault(word, 0) + 1);
+        }
+        return counts;
+    }
+
+    /**
+     * Один проход по кодовым точкам и изменяемые счетчики
+     */
+    static Map<String, int[]> countStreaming(String text) {
+        Map<String, int[]> counts = new HashMap<>();
+        WordTokenizer.forEachWord(text, 2, (word, start, end) -> counts.computeIfAbsent(word, key -> new int[1])[0]++);
+        return counts;
+    }
+
+    private static void run(String name, List<String> texts, long chars, Counter counter) {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            pass(texts, counter);
+        }
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long best = Long.MAX_VALUE;
+        long total = 0;
+        long allocated = -1;
+        for (int round = 0; round < MEASURED_ROUNDS; round++) {
+            long allocatedBefore = allocatedBytes(threads);
+            long start = System.nanoTime();
+            pass(texts, counter);
+            long elapsed = System.nanoTime() - start;
+            long allocatedAfter = allocatedBytes(threads);
+            if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+                allocated = allocatedAfter - allocatedBefore;
+            }
+            best = Math.min(best, elapsed);
+            total += elapsed;
+        }
+
+        double averageMillis = total / (double) MEASURED_ROUNDS / 1_000_000;
+        System.out.printf("%-14s среднее %8.2f мс, лучшее %8.2f мс, %7.1f Мсимв/с, выделено %s за проход%n",
+                name, averageMillis, best / 1_000_000.0, chars / averageMillis / 1000,
+                allocated >= 0 ? (allocated >> 20) + " МБ" : "н/д");
+    }
+
+    private static void pass(List<String> texts, Counter counter) {
+        long words = 0;
+        for (String text : texts) {
+            words += counter.count(text).size();
+        }
+        sink += words;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static Map<String, Integer> toIntegers(Map<String, ?> counts) {
+        Map<String, Integer> result = new HashMap<>();
+        counts.forEach((word, count) -> result.put(word, count instanceof int[] ? ((int[]) count)[0] : (Integer) count));
+        return result;
+    }
+
+    /**
+     * Текст из слов разной длины с кириллицей, латиницей, цифрами и знаками препинания
+     */
+    private static String generateText(Random random, int length) {
+        String[] alphabets = {"абвгдеёжзийклмнопрстуфхцчшщъыьэюя", "abcdefghijklmnopqrstuvwxyz"};
+        String[] separators = {" ", " ", " ", ", ", ". ", "\n", " - ", " (", ") ", " 2024 "};
+        StringBuilder text = new StringBuilder(length + 32);
+        while (text.length() < length) {
+            String alphabet = alphabets[random.nextInt(10) == 0 ? 1 : 0];
+            int wordLength = 1 + random.nextInt(10);
+            for (int i = 0; i < wordLength; i++) {
+                char letter = alphabet.charAt(random.nextInt(alphabet.length()));
+                text.append(i == 0 && random.nextInt(8) == 0 ? Character.toUpperCase(letter) : letter);
+            }
+            text.append(separators[random.nextInt(separators.length)]);
+        }
+        return text.toString();
+    }
+}